@@ -0,0 +1,816 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Paint.Style;
+import android.graphics.RectF;
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.view.Choreographer;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.ViewConfiguration;
+import android.widget.ImageView;
+
+/**
+ * Base class of the range seek bars. Handles touch input and drawing in normalized space, where 0 and 1 are the ends of
+ * the bar; subclasses map normalized values to their value type and notify their listeners.<br />
+ * <br />
+ * The bar can be zoomed with a pinch, or with a double tap that zooms in around the closest thumb and back out again.
+ * While zoomed in, dragging anywhere outside the thumbs pans the visible window.<br />
+ * <br />
+ * Improved {@link MotionEvent} handling for smoother use, anti-aliased painting for improved aesthetics.
+ *
+ * @author Stephan Tittel (stephan.tittel@kom.tu-darmstadt.de)
+ * @author Peter Sinnott (psinnott@gmail.com)
+ * @author Thomas Barrasso (tbarrasso@sevenplusandroid.org)
+ */
+public abstract class AbstractRangeSeekBar extends ImageView {
+    // Thumb images are decoded once and shared by all instances, since a new bar is created for every song
+    private static Bitmap sharedThumbImage = null;
+    private static Bitmap sharedThumbPressedImage = null;
+
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint trackPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint rangePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint waveformPaint = new Paint();
+    private final Paint chordPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint playheadPaint = new Paint();
+    private final Bitmap thumbImage = getThumbImage(getResources(), false);
+    private final Bitmap thumbPressedImage = getThumbImage(getResources(), true);
+    private final float thumbWidth = thumbImage.getWidth();
+    private final float thumbHalfWidth = 0.5f * thumbWidth;
+    private final float thumbHalfHeight = 0.5f * thumbImage.getHeight();
+    private final float lineHeight = 0.3f * thumbHalfHeight;
+    private final float padding = thumbHalfWidth;
+    private final SeekBarGeometry geometry = new SeekBarGeometry(padding);
+    private final RangeSelection selection = new RangeSelection(geometry);     // the thumbs, and how drags move them
+    private Thumb pressedThumb = null;
+    private boolean notifyWhileDragging = false;
+
+    // Preallocated drawing state, so that onDraw() does not allocate
+    private final RectF rect = new RectF();
+    private Bitmap trackLayer = null;       // offscreen copy of everything that does not move with the thumbs
+    private Canvas trackCanvas = null;
+
+    // Waveform drawn behind the track, one vertical min/max line per pixel column
+    private PeakPyramid waveform = null;
+    private final WaveformLines waveformLines = new WaveformLines();
+
+    // Chord names drawn above the track, at the start of each chord
+    private ChordSequence chords = null;
+    private long chordFrameCount = 0;
+
+    // Playhead, a vertical line at the playback position; it moves every display frame, so it is drawn over the layer
+    private double normalizedPlayhead = -1d;    // or negative if hidden
+    private float playheadHalfWidth;
+
+    // Time spent in onDraw(), to see what the moving playhead costs
+    private long drawCount = 0;
+    private long drawNanos = 0;
+    private long maxDrawNanos = 0;
+
+    /**
+     * Default color of a range seek bar, #FF33B5E5. This is also known as "Ice Cream Sandwich" blue.
+     */
+    public static final int DEFAULT_COLOR = Color.argb(0xFF, 0x33, 0xB5, 0xE5);
+
+    /**
+     * An invalid pointer id.
+     */
+    public static final int INVALID_POINTER_ID = 255;
+
+    // Localized constants from MotionEvent for compatibility
+    // with API < 8 "Froyo".
+    public static final int ACTION_POINTER_UP = 0x6, ACTION_POINTER_INDEX_MASK = 0x0000ff00, ACTION_POINTER_INDEX_SHIFT = 8;
+
+    private float mDownMotionX;
+    private int mActivePointerId = INVALID_POINTER_ID;
+
+    /**
+     * On touch, this offset plus the scaled value from the position of the touch will form the progress value. Usually 0.
+     */
+    float mTouchProgressOffset;
+
+    private int mScaledTouchSlop;
+    private boolean mIsDragging;
+
+    /**
+     * How far a double tap zooms in.
+     */
+    public static final double DOUBLE_TAP_ZOOM = 8d;
+
+    private static final float CHORD_TEXT_SIZE_SP = 10f;
+    private static final float CHORD_LABEL_GAP_SP = 4f;
+    private static final float PLAYHEAD_WIDTH_DP = 2f;
+
+    private ScaleGestureDetector scaleDetector;
+    private GestureDetector gestureDetector;
+    private boolean mIsPanning;
+    private float mLastPanX;
+
+    // While dragging, changes are reported at most once per display frame rather than once per MotionEvent
+    private boolean notifyScheduled = false;
+    private final Choreographer.FrameCallback notifyFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            notifyScheduled = false;
+            notifyRangeChanged();
+        }
+    };
+
+    protected AbstractRangeSeekBar(Context context) {
+        super(context);
+
+        // make RangeSeekBar focusable. This solves focus handling issues in case EditText widgets are being used along with the RangeSeekBar within ScollViews.
+        setFocusable(true);
+        setFocusableInTouchMode(true);
+        init();
+    }
+
+    private final void init() {
+        mScaledTouchSlop = ViewConfiguration.get(getContext()).getScaledTouchSlop();
+        scaleDetector = new ScaleGestureDetector(getContext(), new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                if (geometry.zoom(detector.getFocusX(), detector.getScaleFactor())) {
+                    invalidateTrack();
+                }
+                return true;
+            }
+        });
+        gestureDetector = new GestureDetector(getContext(), new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                toggleZoom(e.getX());
+                return true;
+            }
+        });
+        trackPaint.setStyle(Style.FILL);
+        trackPaint.setColor(Color.GRAY);
+        rangePaint.setStyle(Style.FILL);
+        rangePaint.setColor(DEFAULT_COLOR);
+        waveformPaint.setStyle(Style.STROKE);
+        waveformPaint.setColor(Color.LTGRAY);
+        chordPaint.setColor(Color.DKGRAY);
+        chordPaint.setTextSize(CHORD_TEXT_SIZE_SP * getResources().getDisplayMetrics().scaledDensity);
+        playheadHalfWidth = 0.5f * PLAYHEAD_WIDTH_DP * getResources().getDisplayMetrics().density;
+        playheadPaint.setStyle(Style.FILL);
+        playheadPaint.setColor(Color.WHITE);
+    }
+
+    private static synchronized Bitmap getThumbImage(Resources resources, boolean pressed) {
+        if (sharedThumbImage == null) {
+            sharedThumbImage = BitmapFactory.decodeResource(resources, R.drawable.seek_thumb_normal);
+            sharedThumbPressedImage = BitmapFactory.decodeResource(resources, R.drawable.seek_thumb_pressed);
+        }
+        return pressed ? sharedThumbPressedImage : sharedThumbImage;
+    }
+
+    public boolean isNotifyWhileDragging() {
+        return notifyWhileDragging;
+    }
+
+    /**
+     * Should the widget notify the listener callback while the user is still dragging a thumb? Default is false.
+     *
+     * @param flag
+     */
+    public void setNotifyWhileDragging(boolean flag) {
+        this.notifyWhileDragging = flag;
+    }
+
+    /**
+     * Draws the given peaks behind the track, spanning the whole bar. Call {@link #invalidateTrack()} when more of the
+     * pyramid has been analyzed.
+     *
+     * @param waveform
+     *            The peaks to draw, or null for none.
+     */
+    public void setWaveform(PeakPyramid waveform) {
+        this.waveform = waveform;
+        invalidateTrack();
+    }
+
+    /**
+     * Makes dragged thumbs snap to the beats or bars of the given grid, which spans the whole bar.
+     *
+     * @param beatGrid
+     *            The grid to snap to, or null to move freely.
+     * @param bars
+     *            Whether to snap to the first beat of each bar only.
+     */
+    public void setBeatSnap(BeatGrid beatGrid, boolean bars) {
+        selection.setBeatSnap(beatGrid, bars);
+    }
+
+    /**
+     * @return The normalized value at the left end of the visible window.
+     */
+    public double getViewStart() {
+        return geometry.getViewStart();
+    }
+
+    /**
+     * @return The normalized value at the right end of the visible window.
+     */
+    public double getViewEnd() {
+        return geometry.getViewEnd();
+    }
+
+    /**
+     * Zooms out to show the whole range.
+     */
+    public void resetZoom() {
+        if (geometry.reset()) {
+            invalidateTrack();
+        }
+    }
+
+    /**
+     * Labels the track with the given chords.
+     *
+     * @param chords
+     *            The chords to draw, or null for none.
+     * @param frameCount
+     *            The length of the track in frames, which spans the whole bar.
+     */
+    public void setChordLabels(ChordSequence chords, long frameCount) {
+        this.chords = chords;
+        this.chordFrameCount = frameCount;
+        invalidateTrack();
+    }
+
+    /**
+     * Moves the playhead, invalidating only the strips it left and entered.
+     *
+     * @param value
+     *            The normalized playback position, or a negative value to hide the playhead.
+     */
+    public void setPlayhead(double value) {
+        double oldValue = normalizedPlayhead;
+        normalizedPlayhead = value < 0d ? -1d : Math.min(1d, value);
+        if (oldValue == normalizedPlayhead) {
+            return;
+        }
+        invalidatePlayhead(oldValue);
+        invalidatePlayhead(normalizedPlayhead);
+    }
+
+    /**
+     * @return The number of times the widget has been drawn.
+     */
+    public long getDrawCount() {
+        return drawCount;
+    }
+
+    /**
+     * @return The mean time onDraw() took, in microseconds.
+     */
+    public float getMeanDrawMicros() {
+        return drawCount == 0 ? 0 : drawNanos / 1000f / drawCount;
+    }
+
+    /**
+     * @return The longest time onDraw() took, in microseconds.
+     */
+    public float getMaxDrawMicros() {
+        return maxDrawNanos / 1000f;
+    }
+
+    /**
+     * Zooms in around the thumb closest to the given x-coordinate, or back out if already zoomed in.
+     */
+    private void toggleZoom(float x) {
+        boolean changed;
+        if (geometry.isZoomed()) {
+            changed = geometry.reset();
+        }
+        else {
+            double min = normalizedToScreen(selection.getNormalizedMin());
+            double max = normalizedToScreen(selection.getNormalizedMax());
+            double center = Math.abs(x - min) <= Math.abs(x - max) ? selection.getNormalizedMin()
+                    : selection.getNormalizedMax();
+            changed = geometry.zoomTo(center, 1d / DOUBLE_TAP_ZOOM);
+        }
+        if (changed) {
+            invalidateTrack();
+        }
+    }
+
+    /**
+     * Returns the currently selected normalized min value.
+     *
+     * @return The currently selected normalized min value, between 0 and 1.
+     */
+    public double getNormalizedMinValue() {
+        return selection.getNormalizedMin();
+    }
+
+    /**
+     * Returns the currently selected normalized max value.
+     *
+     * @return The currently selected normalized max value, between 0 and 1.
+     */
+    public double getNormalizedMaxValue() {
+        return selection.getNormalizedMax();
+    }
+
+    /**
+     * Handles thumb selection and movement. Notifies listener callback on certain events.
+     */
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+
+        if (!isEnabled())
+            return false;
+
+        scaleDetector.onTouchEvent(event);
+        gestureDetector.onTouchEvent(event);
+        if (scaleDetector.isInProgress()) {
+            // a pinch takes over from any thumb drag or pan
+            if (mIsDragging) {
+                onStopTrackingTouch();
+                setPressed(false);
+                notifyRangeChanged();
+            }
+            pressedThumb = null;
+            mIsPanning = false;
+            attemptClaimDrag();
+            invalidate();
+            return true;
+        }
+
+        int pointerIndex;
+
+        final int action = event.getAction();
+        switch (action & MotionEvent.ACTION_MASK) {
+
+            case MotionEvent.ACTION_DOWN:
+                // Remember where the motion event started
+                mActivePointerId = event.getPointerId(event.getPointerCount() - 1);
+                pointerIndex = event.findPointerIndex(mActivePointerId);
+                mDownMotionX = event.getX(pointerIndex);
+
+                pressedThumb = evalPressedThumb(mDownMotionX);
+
+                // Outside the thumbs, only handle pans, and keep receiving events so that double taps and pinches are seen.
+                if (pressedThumb == null) {
+                    mIsPanning = geometry.isZoomed();
+                    mLastPanX = mDownMotionX;
+                    if (mIsPanning) {
+                        attemptClaimDrag();
+                    }
+                    return true;
+                }
+
+                setPressed(true);
+                invalidate();
+                onStartTrackingTouch();
+                trackTouchEvent(event);
+                attemptClaimDrag();
+
+                break;
+            case MotionEvent.ACTION_MOVE:
+                if (mIsPanning) {
+                    pointerIndex = event.findPointerIndex(mActivePointerId);
+                    final float x = event.getX(pointerIndex);
+                    if (geometry.pan(x - mLastPanX)) {
+                        invalidateTrack();
+                    }
+                    mLastPanX = x;
+                }
+                else if (pressedThumb != null) {
+
+                    if (mIsDragging) {
+                        trackTouchEvent(event);
+                    }
+                    else {
+                        // Scroll to follow the motion event
+                        pointerIndex = event.findPointerIndex(mActivePointerId);
+                        final float x = event.getX(pointerIndex);
+
+                        if (Math.abs(x - mDownMotionX) > mScaledTouchSlop) {
+                            setPressed(true);
+                            invalidate();
+                            onStartTrackingTouch();
+                            trackTouchEvent(event);
+                            attemptClaimDrag();
+                        }
+                    }
+
+                    if (notifyWhileDragging && !notifyScheduled) {
+                        notifyScheduled = true;
+                        Choreographer.getInstance().postFrameCallback(notifyFrameCallback);
+                    }
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+                if (pressedThumb == null) {
+                    mIsPanning = false;
+                    break;
+                }
+                if (mIsDragging) {
+                    trackTouchEvent(event);
+                    onStopTrackingTouch();
+                    setPressed(false);
+                }
+                else {
+                    // Touch up when we never crossed the touch slop threshold
+                    // should be interpreted as a tap-seek to that location.
+                    onStartTrackingTouch();
+                    trackTouchEvent(event);
+                    onStopTrackingTouch();
+                }
+
+                pressedThumb = null;
+                invalidate();
+                cancelScheduledNotify();
+                notifyRangeChanged();
+                break;
+            case MotionEvent.ACTION_POINTER_DOWN: {
+                final int index = event.getPointerCount() - 1;
+                // final int index = ev.getActionIndex();
+                mDownMotionX = event.getX(index);
+                mActivePointerId = event.getPointerId(index);
+                mLastPanX = mDownMotionX;
+                invalidate();
+                break;
+            }
+            case MotionEvent.ACTION_POINTER_UP:
+                onSecondaryPointerUp(event);
+                invalidate();
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                mIsPanning = false;
+                if (mIsDragging) {
+                    onStopTrackingTouch();
+                    setPressed(false);
+                }
+                invalidate(); // see above explanation
+                break;
+        }
+        return true;
+    }
+
+    private final void onSecondaryPointerUp(MotionEvent ev) {
+        final int pointerIndex = (ev.getAction() & ACTION_POINTER_INDEX_MASK) >> ACTION_POINTER_INDEX_SHIFT;
+
+        final int pointerId = ev.getPointerId(pointerIndex);
+        if (pointerId == mActivePointerId) {
+            // This was our active pointer going up. Choose
+            // a new active pointer and adjust accordingly.
+            // TODO: Make this decision more intelligent.
+            final int newPointerIndex = pointerIndex == 0 ? 1 : 0;
+            mDownMotionX = ev.getX(newPointerIndex);
+            mActivePointerId = ev.getPointerId(newPointerIndex);
+            mLastPanX = mDownMotionX;
+        }
+    }
+
+    private final void trackTouchEvent(MotionEvent event) {
+        final int pointerIndex = event.findPointerIndex(mActivePointerId);
+        final float x = event.getX(pointerIndex);
+
+        if (Thumb.MIN.equals(pressedThumb)) {
+            double oldValue = selection.getNormalizedMin();
+            if (selection.dragMin(x)) {
+                invalidateThumbMove(oldValue, selection.getNormalizedMin());
+            }
+        }
+        else if (Thumb.MAX.equals(pressedThumb)) {
+            double oldValue = selection.getNormalizedMax();
+            if (selection.dragMax(x)) {
+                invalidateThumbMove(oldValue, selection.getNormalizedMax());
+            }
+        }
+    }
+
+    private void cancelScheduledNotify() {
+        if (notifyScheduled) {
+            notifyScheduled = false;
+            Choreographer.getInstance().removeFrameCallback(notifyFrameCallback);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        cancelScheduledNotify();
+        super.onDetachedFromWindow();
+    }
+
+    /**
+     * Tries to claim the user's drag motion, and requests disallowing any ancestors from stealing events in the drag.
+     */
+    private void attemptClaimDrag() {
+        if (getParent() != null) {
+            getParent().requestDisallowInterceptTouchEvent(true);
+        }
+    }
+
+    /**
+     * This is called when the user has started touching this widget.
+     */
+    void onStartTrackingTouch() {
+        mIsDragging = true;
+    }
+
+    /**
+     * This is called when the user either releases his touch or the touch is canceled.
+     */
+    void onStopTrackingTouch() {
+        mIsDragging = false;
+    }
+
+    /**
+     * Ensures correct size of the widget.
+     */
+    @Override
+    protected synchronized void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = 200;
+        if (MeasureSpec.UNSPECIFIED != MeasureSpec.getMode(widthMeasureSpec)) {
+            width = MeasureSpec.getSize(widthMeasureSpec);
+        }
+        int height = thumbImage.getHeight();
+        if (MeasureSpec.UNSPECIFIED != MeasureSpec.getMode(heightMeasureSpec)) {
+            height = Math.min(height, MeasureSpec.getSize(heightMeasureSpec));
+        }
+        setMeasuredDimension(width, height);
+    }
+
+    /**
+     * Rebuilds the cached track layer for the new size.
+     */
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        geometry.setWidth(w);
+        if (trackLayer != null) {
+            trackLayer.recycle();
+            trackLayer = null;
+            trackCanvas = null;
+        }
+        if (w > 0 && h > 0) {
+            trackLayer = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+            trackCanvas = new Canvas(trackLayer);
+        }
+        invalidateTrack();
+    }
+
+    /**
+     * Redraws the cached track layer, for when whatever {@link #drawTrack(Canvas)} draws has changed.
+     */
+    protected void invalidateTrack() {
+        if (trackLayer != null) {
+            trackLayer.eraseColor(Color.TRANSPARENT);
+            drawTrack(trackCanvas);
+        }
+        invalidate();
+    }
+
+    /**
+     * Draws the static part of the widget, which is cached in an offscreen layer and only redrawn when the size or zoom
+     * changes, or {@link #invalidateTrack()} is called.
+     *
+     * @param canvas
+     *            The canvas of the offscreen layer.
+     */
+    protected void drawTrack(Canvas canvas) {
+        if (waveform != null) {
+            drawWaveform(canvas);
+        }
+
+        // draw seek bar background line
+        rect.set(padding, 0.5f * (getHeight() - lineHeight), getWidth() - padding, 0.5f * (getHeight() + lineHeight));
+        canvas.drawRect(rect, trackPaint);
+
+        if (chords != null && chordFrameCount > 0) {
+            drawChords(canvas);
+        }
+    }
+
+    private void drawChords(Canvas canvas) {
+        // labels that would overlap the one before are left out, so zooming in reveals them
+        float baseline = -chordPaint.ascent();
+        float nextFree = padding;
+        for (int segment = 0; segment < chords.getSegmentCount(); segment++) {
+            int chord = chords.getSegmentChord(segment);
+            if (chord == ChordDetector.NO_CHORD) {
+                continue;
+            }
+            float x = normalizedToScreen((double) chords.getSegmentStart(segment) / chordFrameCount);
+            if (x > getWidth() - padding) {
+                break;
+            }
+            if (x < nextFree) {
+                continue;
+            }
+            String name = ChordDetector.getChordName(chord);
+            canvas.drawText(name, x, baseline, chordPaint);
+            nextFree = x + chordPaint.measureText(name) + CHORD_LABEL_GAP_SP * chordPaint.getTextSize() / CHORD_TEXT_SIZE_SP;
+        }
+    }
+
+    private void drawWaveform(Canvas canvas) {
+        int count = waveformLines.build(waveform, geometry, getHeight());
+        canvas.drawLines(waveformLines.getLines(), 0, count, waveformPaint);
+    }
+
+    /**
+     * Draws the widget on the given canvas.
+     */
+    @Override
+    protected synchronized void onDraw(Canvas canvas) {
+        long startNanos = System.nanoTime();
+        super.onDraw(canvas);
+
+        if (trackLayer != null) {
+            canvas.drawBitmap(trackLayer, 0, 0, null);
+        }
+
+        // draw seek bar active range line, clipped to the visible window
+        rect.set(Math.max(padding, normalizedToScreen(selection.getNormalizedMin())),
+                0.5f * (getHeight() - lineHeight),
+                Math.min(getWidth() - padding, normalizedToScreen(selection.getNormalizedMax())),
+                0.5f * (getHeight() + lineHeight));
+        if (rect.left < rect.right) {
+            canvas.drawRect(rect, rangePaint);
+        }
+
+        // draw the playhead under the thumbs, if it is inside the visible window
+        if (normalizedPlayhead >= 0d) {
+            float x = normalizedToScreen(normalizedPlayhead);
+            if (x >= padding && x <= getWidth() - padding) {
+                canvas.drawRect(x - playheadHalfWidth, 0, x + playheadHalfWidth, getHeight(), playheadPaint);
+            }
+        }
+
+        // draw minimum thumb
+        drawThumb(normalizedToScreen(selection.getNormalizedMin()), Thumb.MIN.equals(pressedThumb), canvas);
+
+        // draw maximum thumb
+        drawThumb(normalizedToScreen(selection.getNormalizedMax()), Thumb.MAX.equals(pressedThumb), canvas);
+
+        long elapsed = System.nanoTime() - startNanos;
+        drawCount++;
+        drawNanos += elapsed;
+        maxDrawNanos = Math.max(maxDrawNanos, elapsed);
+    }
+
+    /**
+     * Overridden to save instance state when device orientation changes. This method is called automatically if you assign an id to the RangeSeekBar widget using the {@link #setId(int)} method. Other members of this class than the normalized min and max values don't need to be saved.
+     */
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        final Bundle bundle = new Bundle();
+        bundle.putParcelable("SUPER", super.onSaveInstanceState());
+        bundle.putDouble("MIN", selection.getNormalizedMin());
+        bundle.putDouble("MAX", selection.getNormalizedMax());
+        bundle.putDouble("VIEW_START", geometry.getViewStart());
+        bundle.putDouble("VIEW_END", geometry.getViewEnd());
+        return bundle;
+    }
+
+    /**
+     * Overridden to restore instance state when device orientation changes. This method is called automatically if you assign an id to the RangeSeekBar widget using the {@link #setId(int)} method.
+     */
+    @Override
+    protected void onRestoreInstanceState(Parcelable parcel) {
+        final Bundle bundle = (Bundle) parcel;
+        super.onRestoreInstanceState(bundle.getParcelable("SUPER"));
+        selection.setNormalized(bundle.getDouble("MIN"), bundle.getDouble("MAX"));
+        double viewStart = bundle.getDouble("VIEW_START", 0d);
+        double viewEnd = bundle.getDouble("VIEW_END", 1d);
+        geometry.zoomTo(0.5d * (viewStart + viewEnd), viewEnd - viewStart);
+    }
+
+    /**
+     * Draws the "normal" resp. "pressed" thumb image on specified x-coordinate.
+     *
+     * @param screenCoord
+     *            The x-coordinate in screen space where to draw the image.
+     * @param pressed
+     *            Is the thumb currently in "pressed" state?
+     * @param canvas
+     *            The canvas to draw upon.
+     */
+    private void drawThumb(float screenCoord, boolean pressed, Canvas canvas) {
+        canvas.drawBitmap(pressed ? thumbPressedImage : thumbImage, screenCoord - thumbHalfWidth, (float) ((0.5f * getHeight()) - thumbHalfHeight), paint);
+    }
+
+    /**
+     * Decides which (if any) thumb is touched by the given x-coordinate.
+     *
+     * @param touchX
+     *            The x-coordinate of a touch event in screen space.
+     * @return The pressed thumb or null if none has been touched.
+     */
+    private Thumb evalPressedThumb(float touchX) {
+        Thumb result = null;
+        boolean minThumbPressed = isInThumbRange(touchX, selection.getNormalizedMin());
+        boolean maxThumbPressed = isInThumbRange(touchX, selection.getNormalizedMax());
+        if (minThumbPressed && maxThumbPressed) {
+            // if both thumbs are pressed (they lie on top of each other), choose the one with more room to drag. this avoids "stalling" the thumbs in a corner, not being able to drag them apart anymore.
+            result = (touchX / getWidth() > 0.5f) ? Thumb.MIN : Thumb.MAX;
+        }
+        else if (minThumbPressed) {
+            result = Thumb.MIN;
+        }
+        else if (maxThumbPressed) {
+            result = Thumb.MAX;
+        }
+        return result;
+    }
+
+    /**
+     * Decides if given x-coordinate in screen space needs to be interpreted as "within" the normalized thumb x-coordinate.
+     *
+     * @param touchX
+     *            The x-coordinate in screen space to check.
+     * @param normalizedThumbValue
+     *            The normalized x-coordinate of the thumb to check.
+     * @return true if x-coordinate is in thumb range, false otherwise.
+     */
+    private boolean isInThumbRange(float touchX, double normalizedThumbValue) {
+        return Math.abs(touchX - normalizedToScreen(normalizedThumbValue)) <= thumbHalfWidth;
+    }
+
+    /**
+     * Sets normalized min value to value so that 0 <= value <= normalized max value <= 1. The View will get invalidated when calling this method.
+     *
+     * @param value
+     *            The new normalized min value to set.
+     */
+    public void setNormalizedMinValue(double value) {
+        double oldValue = selection.getNormalizedMin();
+        if (selection.setNormalizedMin(value)) {
+            invalidateThumbMove(oldValue, selection.getNormalizedMin());
+        }
+    }
+
+    /**
+     * Sets normalized max value to value so that 0 <= normalized min value <= value <= 1. The View will get invalidated when calling this method.
+     *
+     * @param value
+     *            The new normalized max value to set.
+     */
+    public void setNormalizedMaxValue(double value) {
+        double oldValue = selection.getNormalizedMax();
+        if (selection.setNormalizedMax(value)) {
+            invalidateThumbMove(oldValue, selection.getNormalizedMax());
+        }
+    }
+
+    /**
+     * Invalidates only the strip a thumb moved across, which also covers the part of the active range line that changed.
+     */
+    private void invalidateThumbMove(double oldValue, double newValue) {
+        if (oldValue == newValue) {
+            return;
+        }
+        float oldX = normalizedToScreen(oldValue);
+        float newX = normalizedToScreen(newValue);
+        invalidate((int) (Math.min(oldX, newX) - thumbHalfWidth) - 1, 0, (int) (Math.max(oldX, newX) + thumbHalfWidth) + 1, getHeight());
+    }
+
+    /**
+     * Invalidates the strip covered by a playhead at the given normalized position, if it is shown.
+     */
+    private void invalidatePlayhead(double value) {
+        if (value < 0d) {
+            return;
+        }
+        float x = normalizedToScreen(value);
+        invalidate((int) (x - playheadHalfWidth) - 1, 0, (int) (x + playheadHalfWidth) + 2, getHeight());
+    }
+
+    /**
+     * Converts a normalized value into screen space, taking the zoom into account.
+     *
+     * @param normalizedCoord
+     *            The normalized value to convert.
+     * @return The converted value in screen space.
+     */
+    private float normalizedToScreen(double normalizedCoord) {
+        return geometry.normalizedToScreen(normalizedCoord);
+    }
+
+    /**
+     * Notifies the listener of the subclass about the currently selected values. Called from the touch handling code, so
+     * implementations should not allocate.
+     */
+    protected abstract void notifyRangeChanged();
+
+    /**
+     * Thumb constants (min and max).
+     */
+    private static enum Thumb {
+        MIN, MAX
+    };
+}
@@ -0,0 +1,168 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent store for per-track analysis results, such as waveform peaks, keyed by the track's
+ * {@link ContentFingerprint} and the kind of result. Each entry is one file holding a small header and a little-endian
+ * binary payload; entries are memory-mapped on read. The least recently used entries are deleted once the cache grows
+ * past its disk budget.
+ */
+public class AnalysisCache {
+
+    private static final int MAGIC = 0x53544c41;    // "STLA"
+    private static final int HEADER_SIZE = 16;
+
+    private final File directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);  // in LRU order
+    private long totalBytes = 0;
+
+    /**
+     * Opens the cache, listing the entries already on disk, so call it off the main thread.
+     *
+     * @param directory
+     *            Where to keep the entries, usually below {@link android.content.Context#getCacheDir()}.
+     * @param maxBytes
+     *            The disk budget.
+     */
+    public AnalysisCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        directory.mkdirs();
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            List<File> sorted = new ArrayList<File>();
+            Collections.addAll(sorted, files);
+            Collections.sort(sorted, new Comparator<File>() {
+                @Override
+                public int compare(File a, File b) {
+                    long diff = a.lastModified() - b.lastModified();
+                    return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+                }
+            });
+            for (File file : sorted) {
+                if (file.getName().endsWith(".tmp")) {
+                    file.delete();
+                } else {
+                    entries.put(file.getName(), file.length());
+                    totalBytes += file.length();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The payload stored for the given track and kind, positioned at its start, or null if there is none.
+     */
+    public synchronized ByteBuffer get(String fingerprint, String kind, int version) {
+        String name = fileName(fingerprint, kind);
+        if (entries.get(name) == null) {
+            return null;
+        }
+        File file = new File(directory, name);
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            MappedByteBuffer buffer;
+            try {
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            } finally {
+                raf.close();
+            }
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != version
+                    || buffer.getLong() != buffer.remaining()) {
+                remove(name);
+                return null;
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException e) {
+            e.printStackTrace();
+            remove(name);
+            return null;
+        }
+    }
+
+    /**
+     * Stores a payload, replacing any previous one for the same track and kind.
+     *
+     * @param payload
+     *            The bytes between the payload's position and limit are stored.
+     */
+    public synchronized void put(String fingerprint, String kind, int version, ByteBuffer payload) {
+        String name = fileName(fingerprint, kind);
+        File tmp = new File(directory, name + ".tmp");
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(version).putLong(payload.remaining()).flip();
+            RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+            try {
+                FileChannel channel = raf.getChannel();
+                channel.truncate(0);
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                while (payload.hasRemaining()) {
+                    channel.write(payload);
+                }
+            } finally {
+                raf.close();
+            }
+            remove(name);
+            File file = new File(directory, name);
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Could not rename " + tmp);
+            }
+            entries.put(name, file.length());
+            totalBytes += file.length();
+            evict();
+        } catch (IOException e) {
+            e.printStackTrace();
+            tmp.delete();
+        }
+    }
+
+    /**
+     * @return A buffer with the byte order used for payloads, to fill and hand to {@link #put}.
+     */
+    public static ByteBuffer allocatePayload(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            new File(directory, eldest.getKey()).delete();
+            totalBytes -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private void remove(String name) {
+        Long size = entries.remove(name);
+        if (size != null) {
+            totalBytes -= size;
+            new File(directory, name).delete();
+        }
+    }
+
+    private static String fileName(String fingerprint, String kind) {
+        return fingerprint + "." + kind;
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import java.io.IOException;
+
+/**
+ * Destination of the PCM frames rendered by {@link LoopEngine}. All methods except {@link #getPlaybackFrame()} are only
+ * ever called from the engine's render thread.
+ */
+public interface AudioSink {
+
+    public void open(int sampleRate, int channelCount) throws IOException;
+
+    /**
+     * Queues frames for playback, blocking until all of them have been accepted.
+     *
+     * @return The number of frames written.
+     */
+    public int write(short[] buffer, int frameOffset, int frames);
+
+    public void play();
+
+    public void pause();
+
+    /**
+     * Discards frames that have been written but not played yet.
+     */
+    public void flush();
+
+    /**
+     * @return The number of frames played since {@link #open}. Never goes backwards, not even across {@link #flush()}.
+     */
+    public long getPlaybackFrame();
+
+    public void release();
+}
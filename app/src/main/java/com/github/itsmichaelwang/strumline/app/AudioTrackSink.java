@@ -0,0 +1,98 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+
+import java.io.IOException;
+
+/**
+ * {@link AudioSink} that streams to an {@link AudioTrack}.
+ */
+public class AudioTrackSink implements AudioSink {
+
+    // the track and the head base are only changed together under the lock, so the position read never goes backwards
+    private final Object headLock = new Object();
+    private volatile AudioTrack track = null;
+    private int channelCount;
+    private long headBase = 0;      // frames played before the track's head position was last reset by flush()
+
+    @Override
+    public void open(int sampleRate, int channelCount) throws IOException {
+        release();
+        int channelConfig = channelCount == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+        int minBufferSize = AudioTrack.getMinBufferSize(sampleRate, channelConfig, AudioFormat.ENCODING_PCM_16BIT);
+        if (minBufferSize <= 0) {
+            throw new IOException("Unsupported output format: " + sampleRate + " Hz, " + channelCount + " channels");
+        }
+        AudioTrack track = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate, channelConfig,
+                AudioFormat.ENCODING_PCM_16BIT, 2 * minBufferSize, AudioTrack.MODE_STREAM);
+        if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+            track.release();
+            throw new IOException("Could not initialize AudioTrack");
+        }
+        this.channelCount = channelCount;
+        synchronized (headLock) {
+            headBase = 0;
+            this.track = track;
+        }
+    }
+
+    @Override
+    public int write(short[] buffer, int frameOffset, int frames) {
+        AudioTrack track = this.track;
+        int written = track.write(buffer, frameOffset * channelCount, frames * channelCount);
+        return written < 0 ? 0 : written / channelCount;
+    }
+
+    @Override
+    public void play() {
+        track.play();
+    }
+
+    @Override
+    public void pause() {
+        track.pause();
+    }
+
+    @Override
+    public void flush() {
+        // AudioTrack only flushes while paused or stopped, and may reset its head position when it does
+        AudioTrack track = this.track;
+        boolean playing = track.getPlayState() == AudioTrack.PLAYSTATE_PLAYING;
+        synchronized (headLock) {
+            // the head stands still once paused, and readers wait until the base makes up for its reset
+            track.pause();
+            long before = head(track);
+            track.flush();
+            headBase += before - head(track);
+        }
+        if (playing) {
+            track.play();
+        }
+    }
+
+    @Override
+    public long getPlaybackFrame() {
+        synchronized (headLock) {
+            AudioTrack track = this.track;
+            return track == null ? 0 : headBase + head(track);
+        }
+    }
+
+    @Override
+    public void release() {
+        AudioTrack track;
+        synchronized (headLock) {
+            track = this.track;
+            this.track = null;
+        }
+        if (track != null) {
+            track.release();
+        }
+    }
+
+    private static long head(AudioTrack track) {
+        return track.getPlaybackHeadPosition() & 0xFFFFFFFFL;     // reported as an unsigned 32-bit value
+    }
+}
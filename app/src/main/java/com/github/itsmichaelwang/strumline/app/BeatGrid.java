@@ -0,0 +1,127 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The estimated tempo of a track and the frames its beats fall on, as found by a {@link BeatTracker}. Bars are assumed
+ * to be four beats long, starting at the beat the tracker picked as the first downbeat. Immutable.
+ */
+public class BeatGrid {
+
+    /**
+     * Version of the format written by {@link #writeTo(ByteBuffer)}.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    public static final int BEATS_PER_BAR = 4;
+
+    private final int sampleRate;
+    private final long frameCount;
+    private final float bpm;
+    private final long[] beats;
+    private final int firstDownbeat;
+
+    /**
+     * @param beats
+     *            The beat frames in increasing order; kept, not copied.
+     * @param firstDownbeat
+     *            Index of the first beat that starts a bar, below {@link #BEATS_PER_BAR}.
+     */
+    public BeatGrid(int sampleRate, long frameCount, float bpm, long[] beats, int firstDownbeat) {
+        this.sampleRate = sampleRate;
+        this.frameCount = frameCount;
+        this.bpm = bpm;
+        this.beats = beats;
+        this.firstDownbeat = firstDownbeat;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return The estimated tempo in beats per minute, or 0 if none could be found.
+     */
+    public float getBpm() {
+        return bpm;
+    }
+
+    public int getBeatCount() {
+        return beats.length;
+    }
+
+    public long getBeatFrame(int beat) {
+        return beats[beat];
+    }
+
+    public boolean isDownbeat(int beat) {
+        return beat >= firstDownbeat && (beat - firstDownbeat) % BEATS_PER_BAR == 0;
+    }
+
+    /**
+     * @param bars
+     *            Whether to consider downbeats only.
+     * @return The beat or downbeat closest to the given frame, or the frame itself if there is none.
+     */
+    public long snap(long frame, boolean bars) {
+        if (beats.length == 0) {
+            return frame;
+        }
+        int index = Arrays.binarySearch(beats, frame);
+        if (index >= 0 && (!bars || isDownbeat(index))) {
+            return frame;
+        }
+        int after = index >= 0 ? index : -index - 1;
+        int before = after - 1;
+        if (bars) {
+            while (before >= 0 && !isDownbeat(before)) {
+                before--;
+            }
+            while (after < beats.length && !isDownbeat(after)) {
+                after++;
+            }
+        }
+        if (before < 0 && after >= beats.length) {
+            return frame;
+        }
+        if (before < 0) {
+            return beats[after];
+        }
+        if (after >= beats.length) {
+            return beats[before];
+        }
+        return frame - beats[before] <= beats[after] - frame ? beats[before] : beats[after];
+    }
+
+    /**
+     * @return The number of bytes {@link #writeTo(ByteBuffer)} needs.
+     */
+    public int getSerializedSize() {
+        return 4 + 8 + 4 + 4 + 4 + 8 * beats.length;
+    }
+
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(sampleRate).putLong(frameCount).putFloat(bpm).putInt(firstDownbeat).putInt(beats.length);
+        buffer.asLongBuffer().put(beats);
+        buffer.position(buffer.position() + 8 * beats.length);
+    }
+
+    /**
+     * Reads a grid written by {@link #writeTo(ByteBuffer)}.
+     */
+    public static BeatGrid readFrom(ByteBuffer buffer) {
+        int sampleRate = buffer.getInt();
+        long frameCount = buffer.getLong();
+        float bpm = buffer.getFloat();
+        int firstDownbeat = buffer.getInt();
+        long[] beats = new long[buffer.getInt()];
+        buffer.asLongBuffer().get(beats);
+        buffer.position(buffer.position() + 8 * beats.length);
+        return new BeatGrid(sampleRate, frameCount, bpm, beats, firstDownbeat);
+    }
+}
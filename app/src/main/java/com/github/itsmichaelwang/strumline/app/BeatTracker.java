@@ -0,0 +1,316 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import java.util.Arrays;
+
+/**
+ * Estimates the tempo and beat grid of a track from its decoded frames, which are fed in order with {@link #add}. The
+ * frames are mixed down to mono, decimated to about 22 kHz and cut into overlapping windows; each window is run through
+ * an {@link Fft} and its spectral flux (the summed rise of the log-magnitude spectrum) becomes one sample of an onset
+ * envelope. Only that envelope is kept, about 86 floats per second of audio, never the audio itself.<br />
+ * <br />
+ * {@link #estimate()} takes the tempo from the autocorrelation of the envelope, weighted towards 120 BPM, and then
+ * places the beats by dynamic programming: each beat is rewarded for landing on strong onsets and penalized for
+ * straying from the tempo (Ellis, "Beat Tracking by Dynamic Programming", 2007). It can be called at any point to get a
+ * provisional grid for the part analyzed so far, extended to the end of the track at the estimated tempo.<br />
+ * <br />
+ * A track can also be analyzed in chunks, one tracker each, whose envelopes are joined with
+ * {@link #append(BeatTracker, int)} as far as they go while they are still being fed. A chunk tracker is given some
+ * warm-up frames from before its chunk, which it analyzes but does not record, so that the envelope it produces is the
+ * same as that of a single tracker.
+ */
+public class BeatTracker {
+
+    private static final int FFT_SIZE = 512;
+    private static final int HOP = 256;                 // analysis samples between windows
+    private static final float MIN_BPM = 60f;
+    private static final float MAX_BPM = 200f;
+    private static final float PREFERRED_BPM = 120f;
+    private static final float TIGHTNESS = 100f;        // how strongly beats are held to the tempo
+    private static final int MEAN_WINDOW = 16;          // envelope samples the local mean is taken over
+
+    private final int sampleRate;
+    private final long frameCount;
+    private final int decimation;
+    private final long warmUpSamples;
+    private final Fft fft = new Fft(FFT_SIZE);
+    private final float[] window = new float[FFT_SIZE];
+    private final float[] ring = new float[FFT_SIZE];   // the last FFT_SIZE analysis samples
+    private final float[] re = new float[FFT_SIZE];
+    private final float[] im = new float[FFT_SIZE];
+    private final float[] magnitudes = new float[FFT_SIZE / 2 + 1];
+    private final float[] previousSpectrum = new float[FFT_SIZE / 2 + 1];
+
+    private int ringPosition = 0;
+    private int samplesSinceHop = 0;
+    private long samples = 0;               // analysis samples seen
+    private float decimationSum = 0f;
+    private int decimationCount = 0;
+
+    private float[] envelope = new float[1024];
+    private volatile int envelopeLength = 0;
+
+    public BeatTracker(int sampleRate, long frameCount) {
+        this(sampleRate, frameCount, 0);
+    }
+
+    /**
+     * @param warmUpFrames
+     *            The number of frames to analyze without recording, at least {@link #getMinWarmUpFrames(int)} and a
+     *            multiple of {@link #getFrameAlignment(int)}.
+     */
+    public BeatTracker(int sampleRate, long frameCount, long warmUpFrames) {
+        this.sampleRate = sampleRate;
+        this.frameCount = frameCount;
+        decimation = decimationFor(sampleRate);
+        if (warmUpFrames % getFrameAlignment(sampleRate) != 0) {
+            throw new IllegalArgumentException("Warm-up must be a multiple of " + getFrameAlignment(sampleRate));
+        }
+        warmUpSamples = warmUpFrames / decimation;
+        for (int i = 0; i < FFT_SIZE; i++) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / FFT_SIZE));
+        }
+    }
+
+    private static int decimationFor(int sampleRate) {
+        return sampleRate >= 32000 ? 2 : 1;
+    }
+
+    /**
+     * @return The number of frames between envelope samples. Chunks must start at a multiple of it.
+     */
+    public static int getFrameAlignment(int sampleRate) {
+        return decimationFor(sampleRate) * HOP;
+    }
+
+    /**
+     * @return The number of frames before a chunk that its tracker needs to see to match a single tracker.
+     */
+    public static int getMinWarmUpFrames(int sampleRate) {
+        return decimationFor(sampleRate) * FFT_SIZE;
+    }
+
+    /**
+     * @return The number of frames analyzed so far, not counting warm-up frames.
+     */
+    public long getAnalyzedFrames() {
+        return Math.max(0, samples - warmUpSamples) * decimation;
+    }
+
+    /**
+     * Appends the envelope of a chunk tracker for the frames that directly follow the ones analyzed before, from the
+     * given envelope sample of the chunk up to the last one it has produced so far. The chunk may still be fed on
+     * another thread. The frames analyzed so far must be a multiple of {@link #getFrameAlignment(int)}.
+     *
+     * @param from
+     *            The length of the chunk's envelope appended before, 0 on the first call.
+     * @return The length of the chunk's envelope appended so far, to pass in on the next call.
+     */
+    public int append(BeatTracker chunk, int from) {
+        // read the chunk's volatile length first, so that its envelope read below is at least as new
+        int length = chunk.envelopeLength;
+        float[] chunkEnvelope = chunk.envelope;
+        int count = length - from;
+        if (count <= 0) {
+            return from;
+        }
+        if (envelopeLength + count > envelope.length) {
+            envelope = Arrays.copyOf(envelope, Math.max(2 * envelope.length, envelopeLength + count));
+        }
+        System.arraycopy(chunkEnvelope, from, envelope, envelopeLength, count);
+        envelopeLength += count;
+        // every envelope sample stands for a hop, and chunks span whole hops
+        samples += (long) count * HOP;
+        return length;
+    }
+
+    /**
+     * Appends interleaved frames that directly follow the ones added before.
+     */
+    public void add(short[] buffer, int frames, int channelCount) {
+        float scale = 1f / (32768f * channelCount * decimation);
+        int end = frames * channelCount;
+        for (int i = 0; i < end; i += channelCount) {
+            for (int c = 0; c < channelCount; c++) {
+                decimationSum += buffer[i + c];
+            }
+            if (++decimationCount < decimation) {
+                continue;
+            }
+            ring[ringPosition] = decimationSum * scale;
+            ringPosition = (ringPosition + 1) % FFT_SIZE;
+            decimationSum = 0f;
+            decimationCount = 0;
+            samples++;
+            if (++samplesSinceHop == HOP) {
+                samplesSinceHop = 0;
+                if (samples >= FFT_SIZE) {
+                    analyzeWindow();
+                }
+            }
+        }
+    }
+
+    private void analyzeWindow() {
+        for (int i = 0; i < FFT_SIZE; i++) {
+            re[i] = ring[(ringPosition + i) % FFT_SIZE] * window[i];
+        }
+        fft.magnitudes(re, im, magnitudes);
+        float flux = 0f;
+        for (int bin = 1; bin < magnitudes.length; bin++) {
+            float value = (float) Math.log(1 + 100 * magnitudes[bin]);
+            if (value > previousSpectrum[bin]) {
+                flux += value - previousSpectrum[bin];
+            }
+            previousSpectrum[bin] = value;
+        }
+        if (samples <= warmUpSamples) {
+            return;
+        }
+        if (envelopeLength == envelope.length) {
+            envelope = Arrays.copyOf(envelope, 2 * envelopeLength);
+        }
+        // the length is published after the sample, for threads appending this tracker's envelope to theirs
+        envelope[envelopeLength] = flux;
+        envelopeLength++;
+    }
+
+    /**
+     * @return The beat grid for what has been analyzed so far, or null if that is too little to find a tempo in.
+     */
+    public BeatGrid estimate() {
+        float hopsPerSecond = (float) sampleRate / (decimation * HOP);
+        int minLag = (int) Math.floor(60f * hopsPerSecond / MAX_BPM);
+        int maxLag = (int) Math.ceil(60f * hopsPerSecond / MIN_BPM);
+        int length = envelopeLength;
+        if (length < 4 * maxLag) {
+            return null;
+        }
+
+        // remove the local mean and keep the rises, then normalize
+        float[] onsets = new float[length];
+        float sum = 0f;
+        for (int i = 0; i < length; i++) {
+            sum += envelope[i];
+            if (i >= MEAN_WINDOW) {
+                sum -= envelope[i - MEAN_WINDOW];
+            }
+            onsets[i] = Math.max(0f, envelope[i] - sum / Math.min(i + 1, MEAN_WINDOW));
+        }
+        double energy = 0;
+        for (int i = 0; i < length; i++) {
+            energy += onsets[i] * onsets[i];
+        }
+        float norm = energy > 0 ? (float) (1 / Math.sqrt(energy / length)) : 0f;
+        for (int i = 0; i < length; i++) {
+            onsets[i] *= norm;
+        }
+        if (norm == 0f) {
+            return new BeatGrid(sampleRate, frameCount, 0f, new long[0], 0);
+        }
+
+        float period = estimatePeriod(onsets, length, minLag, maxLag, hopsPerSecond);
+        int[] beats = trackBeats(onsets, length, period);
+
+        // the downbeat is taken to be the beat phase with the strongest onsets
+        int firstDownbeat = 0;
+        float bestStrength = -1f;
+        for (int phase = 0; phase < BeatGrid.BEATS_PER_BAR && phase < beats.length; phase++) {
+            float strength = 0f;
+            for (int i = phase; i < beats.length; i += BeatGrid.BEATS_PER_BAR) {
+                strength += onsets[beats[i]];
+            }
+            if (strength > bestStrength) {
+                bestStrength = strength;
+                firstDownbeat = phase;
+            }
+        }
+
+        // beats past the analyzed part are extrapolated at the estimated tempo
+        long hopFrames = (long) decimation * HOP;
+        long offset = (long) decimation * FFT_SIZE / 2;   // a window's flux belongs to its center
+        double periodFrames = period * hopFrames;
+        int extra = 0;
+        if (beats.length > 0) {
+            extra = (int) Math.max(0, (frameCount - (beats[beats.length - 1] * hopFrames + offset)) / periodFrames);
+        }
+        long[] frames = new long[beats.length + extra];
+        for (int i = 0; i < beats.length; i++) {
+            frames[i] = beats[i] * hopFrames + offset;
+        }
+        for (int i = 0; i < extra; i++) {
+            frames[beats.length + i] = frames[beats.length - 1] + Math.round((i + 1) * periodFrames);
+        }
+        return new BeatGrid(sampleRate, frameCount, 60f * hopsPerSecond / period, frames, firstDownbeat);
+    }
+
+    /**
+     * @return The beat period in envelope samples, from the autocorrelation peak after weighting each lag by how
+     *         plausible its tempo is, refined by parabolic interpolation.
+     */
+    private static float estimatePeriod(float[] onsets, int length, int minLag, int maxLag, float hopsPerSecond) {
+        float[] scores = new float[maxLag + 2];
+        int best = minLag;
+        for (int lag = minLag - 1; lag <= maxLag + 1; lag++) {
+            double correlation = 0;
+            for (int i = lag; i < length; i++) {
+                correlation += onsets[i] * onsets[i - lag];
+            }
+            double octaves = Math.log(60f * hopsPerSecond / lag / PREFERRED_BPM) / Math.log(2);
+            scores[lag] = (float) (correlation / (length - lag) * Math.exp(-0.5 * octaves * octaves));
+            if (lag >= minLag && lag <= maxLag && scores[lag] > scores[best]) {
+                best = lag;
+            }
+        }
+        float left = scores[best - 1];
+        float center = scores[best];
+        float right = scores[best + 1];
+        float denominator = left - 2 * center + right;
+        float shift = denominator < 0 ? 0.5f * (left - right) / denominator : 0f;
+        return best + Math.max(-0.5f, Math.min(0.5f, shift));
+    }
+
+    /**
+     * @return The envelope indices of the best-scoring beat sequence for the given period.
+     */
+    private static int[] trackBeats(float[] onsets, int length, float period) {
+        float[] scores = new float[length];
+        int[] links = new int[length];
+        int shortest = Math.max(1, Math.round(period / 2));
+        int longest = Math.round(2 * period);
+        float[] penalties = new float[longest + 1];
+        for (int distance = shortest; distance <= longest; distance++) {
+            double deviation = Math.log(distance / period);
+            penalties[distance] = (float) (TIGHTNESS * deviation * deviation);
+        }
+        for (int t = 0; t < length; t++) {
+            float best = 0f;
+            int link = -1;
+            for (int previous = Math.max(0, t - longest); previous <= t - shortest; previous++) {
+                float score = scores[previous] - penalties[t - previous];
+                if (link < 0 || score > best) {
+                    best = score;
+                    link = previous;
+                }
+            }
+            scores[t] = onsets[t] + best;
+            links[t] = link;
+        }
+
+        // the sequence ends at the best-scoring beat within the last period
+        int last = length - 1;
+        for (int t = Math.max(0, length - Math.round(period)); t < length; t++) {
+            if (scores[t] > scores[last]) {
+                last = t;
+            }
+        }
+        int count = 0;
+        for (int t = last; t >= 0; t = links[t]) {
+            count++;
+        }
+        int[] beats = new int[count];
+        for (int t = last, i = count - 1; t >= 0; t = links[t], i--) {
+            beats[i] = t;
+        }
+        return beats;
+    }
+}
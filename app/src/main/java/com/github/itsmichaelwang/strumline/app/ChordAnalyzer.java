@@ -0,0 +1,193 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import android.os.Process;
+
+import java.io.IOException;
+
+/**
+ * Labels the chords and key of the loop region on a background thread. The chroma frames come from the track's shared
+ * {@link Chromagram}, which the {@link WaveformAnalyzer} fills for the whole track; only the runs of frames it has not
+ * reached yet are decoded here, with a {@link PcmSource} of their own. Moving a loop point within analyzed audio
+ * therefore costs just a {@link ChordDetector} pass over the region.<br />
+ * <br />
+ * Requests replace each other: a request made while another is being worked on cancels it, and only the latest one
+ * is analyzed. Regions needing more than {@link #MAX_DECODE_SECONDS} seconds of decoding are left to the whole-track
+ * analysis, and should be requested again once it is done.
+ */
+public class ChordAnalyzer {
+
+    private static final int MAX_DECODE_SECONDS = 60;
+    private static final int BLOCK_FRAMES = 4096;
+    private static final int SEEK_PREROLL_FRAMES = 4096;   // decoded before a run and dropped, as decoders settle
+
+    /**
+     * Receives the results on the analyzer's thread.
+     */
+    public interface Listener {
+        public void onChordsAnalyzed(ChordSequence chords);
+    }
+
+    private final PcmSourceFactory sourceFactory;
+    private final Listener listener;
+    private final Thread thread;
+    private volatile ChordSequence chords = null;
+
+    // The latest request, guarded by this
+    private Chromagram requestedChromagram = null;
+    private long requestedStart;
+    private long requestedStop;
+    private int requests = 0;               // bumped on every request, so that running work can tell it is stale
+    private boolean cancelled = false;
+
+    public ChordAnalyzer(PcmSourceFactory sourceFactory, Listener listener) {
+        this.sourceFactory = sourceFactory;
+        this.listener = listener;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                loop();
+            }
+        }, "ChordAnalyzer");
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Requests the chords of the frames from startFrame up to stopFrame, replacing any earlier request.
+     *
+     * @param stopFrame
+     *            The frame after the region, or Long.MAX_VALUE for the end of the track.
+     */
+    public synchronized void analyze(Chromagram chromagram, long startFrame, long stopFrame) {
+        requestedChromagram = chromagram;
+        requestedStart = startFrame;
+        requestedStop = stopFrame;
+        requests++;
+        notifyAll();
+    }
+
+    /**
+     * Stops the analyzer's thread, for example because another song was picked.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        requests++;
+        notifyAll();
+    }
+
+    /**
+     * @return The chords of the last region analyzed, or null if none has been yet.
+     */
+    public ChordSequence getChords() {
+        return chords;
+    }
+
+    private void loop() {
+        int handled = 0;
+        while (true) {
+            Chromagram chromagram;
+            long start;
+            long stop;
+            synchronized (this) {
+                while (!cancelled && (requests == handled || requestedChromagram == null)) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (cancelled) {
+                    return;
+                }
+                handled = requests;
+                chromagram = requestedChromagram;
+                start = requestedStart;
+                stop = requestedStop;
+            }
+            try {
+                int from = chromagram.indexOf(start);
+                int to = stop == Long.MAX_VALUE ? chromagram.getCapacity() : chromagram.indexOf(stop);
+                to = Math.max(from, to);
+                if (fillChroma(chromagram, from, to, handled)) {
+                    chords = ChordDetector.detect(chromagram, from, to);
+                    listener.onChordsAnalyzed(chords);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Decodes the runs of missing chroma frames in the given range.
+     *
+     * @return Whether all frames of the range are now present, which is not the case if there were too many missing
+     *         or a newer request came in.
+     */
+    private boolean fillChroma(Chromagram chromagram, int from, int to, int request) throws IOException {
+        int hopFrames = chromagram.getHopFrames();
+        int missing = 0;
+        for (int i = from; i < to; i++) {
+            if (!chromagram.isPresent(i)) {
+                missing++;
+            }
+        }
+        if (missing == 0) {
+            return true;
+        }
+        if ((long) missing * hopFrames > (long) MAX_DECODE_SECONDS * chromagram.getSampleRate()) {
+            return false;
+        }
+
+        PcmSource source = sourceFactory.open();
+        try {
+            int channelCount = source.getChannelCount();
+            int halfWindow = ChromaExtractor.getHalfWindowFrames(chromagram.getSampleRate());
+            short[] buffer = new short[BLOCK_FRAMES * channelCount];
+            int i = from;
+            while (i < to) {
+                if (chromagram.isPresent(i)) {
+                    i++;
+                    continue;
+                }
+                int runEnd = i + 1;
+                while (runEnd < to && !chromagram.isPresent(runEnd)) {
+                    runEnd++;
+                }
+
+                // chroma frame i needs the frames from half a window before it to half a window after it
+                long first = Math.max(0, (long) i * hopFrames - halfWindow);
+                long last = (long) (runEnd - 1) * hopFrames + halfWindow;
+                long position = Math.max(0, first - SEEK_PREROLL_FRAMES);
+                source.seekTo(position);
+                ChromaExtractor extractor = new ChromaExtractor(chromagram, first);
+                while (position < last) {
+                    if (isStale(request)) {
+                        return false;
+                    }
+                    long limit = position < first ? first : last;
+                    int read = source.read(buffer, 0, (int) Math.min(BLOCK_FRAMES, limit - position));
+                    if (read < 0) {
+                        extractor.finish();
+                        break;
+                    }
+                    if (position >= first) {
+                        extractor.add(buffer, read, channelCount);
+                    }
+                    position += read;
+                }
+                i = runEnd;
+            }
+        } finally {
+            source.release();
+        }
+        return !isStale(request);
+    }
+
+    private synchronized boolean isStale(int request) {
+        return cancelled || requests != request;
+    }
+}
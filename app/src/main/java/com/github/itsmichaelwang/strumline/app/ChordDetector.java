@@ -0,0 +1,174 @@
+package com.github.itsmichaelwang.strumline.app;
+
+/**
+ * Labels a range of {@link Chromagram} frames with chords and estimates its key. Every frame is scored against the 24
+ * major and minor triad templates by cosine similarity, plus a no-chord state for near silence, and the best chord
+ * sequence is found with a Viterbi pass in which changing chords costs a fixed penalty, so that single noisy frames do
+ * not break up a chord. The key is the rotation of the Krumhansl-Kessler major or minor key profile that best
+ * correlates with the summed chroma of the range.
+ */
+public class ChordDetector {
+
+    public static final int NO_CHORD = 24;
+    private static final int STATES = 25;
+
+    private static final String[] NOTE_NAMES = {
+            "C", "C#", "D", "Eb", "E", "F", "F#", "G", "Ab", "A", "Bb", "B"
+    };
+    private static final String[] CHORD_NAMES = new String[STATES];
+
+    // Krumhansl-Kessler probe tone profiles, starting at the tonic
+    private static final float[] MAJOR_PROFILE = {
+            6.35f, 2.23f, 3.48f, 2.33f, 4.38f, 4.09f, 2.52f, 5.19f, 2.39f, 3.66f, 2.29f, 2.88f
+    };
+    private static final float[] MINOR_PROFILE = {
+            6.33f, 2.68f, 3.52f, 5.38f, 2.60f, 3.53f, 2.54f, 4.75f, 3.98f, 2.69f, 3.34f, 3.17f
+    };
+
+    static {
+        for (int root = 0; root < 12; root++) {
+            CHORD_NAMES[root] = NOTE_NAMES[root];
+            CHORD_NAMES[12 + root] = NOTE_NAMES[root] + "m";
+        }
+        CHORD_NAMES[NO_CHORD] = "N.C.";
+    }
+
+    private static final float EMISSION_SCALE = 10f;    // score of a perfect match with a chord template
+    private static final float NO_CHORD_SCORE = 6f;     // score of the no-chord state in a frame that is not silent
+    private static final float SWITCH_PENALTY = 3f;     // score lost by changing chords
+    private static final float SILENCE = 1f;            // chroma norm below which a frame counts as silent (-60 dBFS)
+
+    /**
+     * @param chord
+     *            0 to 11 for the major chords on C to B, 12 to 23 for the minor ones, or {@link #NO_CHORD}.
+     */
+    public static String getChordName(int chord) {
+        return CHORD_NAMES[chord];
+    }
+
+    /**
+     * @param key
+     *            0 to 11 for the major keys of C to B, 12 to 23 for the minor ones.
+     */
+    public static String getKeyName(int key) {
+        return NOTE_NAMES[key % 12] + (key < 12 ? " major" : " minor");
+    }
+
+    /**
+     * Labels the given chroma frames, which must all be present.
+     *
+     * @param to
+     *            The chroma frame after the last one to label.
+     */
+    public static ChordSequence detect(Chromagram chromagram, int from, int to) {
+        int count = Math.max(0, to - from);
+        float[] chroma = new float[Chromagram.PITCH_CLASSES];
+        float[] totals = new float[Chromagram.PITCH_CLASSES];
+        float[] scores = new float[STATES];
+        float[] next = new float[STATES];
+        int[] links = new int[count * STATES];
+
+        for (int i = 0; i < count; i++) {
+            chromagram.get(from + i, chroma);
+            for (int pitchClass = 0; pitchClass < Chromagram.PITCH_CLASSES; pitchClass++) {
+                totals[pitchClass] += chroma[pitchClass];
+            }
+            emissions(chroma, next);
+            if (i == 0) {
+                System.arraycopy(next, 0, scores, 0, STATES);
+                continue;
+            }
+            // staying on a chord is free, so only the best other state needs comparing against
+            int best = 0;
+            for (int state = 1; state < STATES; state++) {
+                if (scores[state] > scores[best]) {
+                    best = state;
+                }
+            }
+            for (int state = 0; state < STATES; state++) {
+                int link = scores[state] >= scores[best] - SWITCH_PENALTY ? state : best;
+                float previous = link == state ? scores[state] : scores[best] - SWITCH_PENALTY;
+                links[i * STATES + state] = link;
+                next[state] += previous;
+            }
+            System.arraycopy(next, 0, scores, 0, STATES);
+        }
+
+        int[] chords = new int[count];
+        if (count > 0) {
+            int state = 0;
+            for (int s = 1; s < STATES; s++) {
+                if (scores[s] > scores[state]) {
+                    state = s;
+                }
+            }
+            for (int i = count - 1; i >= 0; i--) {
+                chords[i] = state;
+                if (i > 0) {
+                    state = links[i * STATES + state];
+                }
+            }
+        }
+        return new ChordSequence(chromagram.getHopFrames(), from, chords, estimateKey(totals));
+    }
+
+    /**
+     * Stores the score of every state for the given chroma frame.
+     */
+    private static void emissions(float[] chroma, float[] out) {
+        float energy = 0f;
+        for (int pitchClass = 0; pitchClass < Chromagram.PITCH_CLASSES; pitchClass++) {
+            energy += chroma[pitchClass] * chroma[pitchClass];
+        }
+        float norm = (float) Math.sqrt(energy);
+        boolean silent = norm < SILENCE;
+        for (int root = 0; root < 12; root++) {
+            float major = chroma[root] + chroma[(root + 4) % 12] + chroma[(root + 7) % 12];
+            float minor = chroma[root] + chroma[(root + 3) % 12] + chroma[(root + 7) % 12];
+            // cosine similarity with a template of three ones
+            out[root] = silent ? 0f : EMISSION_SCALE * major / (norm * (float) Math.sqrt(3));
+            out[12 + root] = silent ? 0f : EMISSION_SCALE * minor / (norm * (float) Math.sqrt(3));
+        }
+        out[NO_CHORD] = silent ? EMISSION_SCALE : NO_CHORD_SCORE;
+    }
+
+    /**
+     * @return The key whose profile correlates best with the given pitch-class totals, or -1 if they are all zero.
+     */
+    private static int estimateKey(float[] totals) {
+        int best = -1;
+        float bestCorrelation = 0f;
+        for (int key = 0; key < 24; key++) {
+            float[] profile = key < 12 ? MAJOR_PROFILE : MINOR_PROFILE;
+            float correlation = correlate(totals, profile, key % 12);
+            if (best < 0 || correlation > bestCorrelation) {
+                best = key;
+                bestCorrelation = correlation;
+            }
+        }
+        return bestCorrelation > 0f ? best : -1;
+    }
+
+    /**
+     * @return The Pearson correlation of the totals with the profile rotated to start at the given tonic.
+     */
+    private static float correlate(float[] totals, float[] profile, int tonic) {
+        float meanTotal = 0f;
+        float meanProfile = 0f;
+        for (int i = 0; i < 12; i++) {
+            meanTotal += totals[i] / 12;
+            meanProfile += profile[i] / 12;
+        }
+        float covariance = 0f;
+        float varianceTotal = 0f;
+        float varianceProfile = 0f;
+        for (int i = 0; i < 12; i++) {
+            float t = totals[(tonic + i) % 12] - meanTotal;
+            float p = profile[i] - meanProfile;
+            covariance += t * p;
+            varianceTotal += t * t;
+            varianceProfile += p * p;
+        }
+        return varianceTotal > 0f ? covariance / (float) Math.sqrt(varianceTotal * varianceProfile) : 0f;
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.itsmichaelwang.strumline.app;
+
+/**
+ * The chords found in a range of a track by the {@link ChordDetector}, merged into segments, and the key of that range.
+ * Immutable.
+ */
+public class ChordSequence {
+
+    private final long[] segmentStarts;
+    private final int[] segmentChords;
+    private final int key;
+
+    /**
+     * @param chords
+     *            The chord of every chroma frame of the range, starting at chroma frame first.
+     */
+    ChordSequence(int hopFrames, int first, int[] chords, int key) {
+        int count = 0;
+        for (int i = 0; i < chords.length; i++) {
+            if (i == 0 || chords[i] != chords[i - 1]) {
+                count++;
+            }
+        }
+        segmentStarts = new long[count];
+        segmentChords = new int[count];
+        for (int i = 0, segment = 0; i < chords.length; i++) {
+            if (i == 0 || chords[i] != chords[i - 1]) {
+                // a chroma frame stands for the hop centered on it
+                segmentStarts[segment] = Math.max(0, (long) (first + i) * hopFrames - hopFrames / 2);
+                segmentChords[segment] = chords[i];
+                segment++;
+            }
+        }
+        this.key = key;
+    }
+
+    /**
+     * @return The number of segments, each of which has a different chord than the one before.
+     */
+    public int getSegmentCount() {
+        return segmentStarts.length;
+    }
+
+    /**
+     * @return The track frame the given segment starts at.
+     */
+    public long getSegmentStart(int segment) {
+        return segmentStarts[segment];
+    }
+
+    /**
+     * @return The chord of the given segment, as passed to {@link ChordDetector#getChordName(int)}.
+     */
+    public int getSegmentChord(int segment) {
+        return segmentChords[segment];
+    }
+
+    /**
+     * @return The key of the range, as passed to {@link ChordDetector#getKeyName(int)}, or -1 if it is silent.
+     */
+    public int getKey() {
+        return key;
+    }
+}
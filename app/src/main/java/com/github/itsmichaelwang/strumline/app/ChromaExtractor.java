@@ -0,0 +1,134 @@
+package com.github.itsmichaelwang.strumline.app;
+
+/**
+ * Computes the pitch-class profiles of a {@link Chromagram} from decoded frames fed in order with {@link #add}. The
+ * frames are mixed down to mono and decimated to about 11 kHz; every {@link #HOP} samples, a Hann-windowed
+ * {@link #FFT_SIZE}-point spectrum centered on the current chroma frame is folded onto the twelve pitch classes, using
+ * the bins between {@link #MIN_FREQUENCY} and {@link #MAX_FREQUENCY}.<br />
+ * <br />
+ * Decoding can start anywhere: a chroma frame is only stored once its whole window has been seen, so a range of
+ * chroma frames needs the frames from half a window before it to half a window after it (see
+ * {@link #getHalfWindowFrames(int)}). Before the start of the track the window is padded with silence, and
+ * {@link #finish()} pads the end the same way.
+ */
+public class ChromaExtractor {
+
+    private static final int FFT_SIZE = 4096;
+    private static final int HOP = 1024;                // analysis samples between chroma frames
+    private static final float MIN_FREQUENCY = 55f;     // A1
+    private static final float MAX_FREQUENCY = 1760f;  // A6
+
+    private final Chromagram chromagram;
+    private final int decimation;
+    private final Fft fft = new Fft(FFT_SIZE);
+    private final float[] window = new float[FFT_SIZE];
+    private final int[] pitchClasses = new int[FFT_SIZE / 2 + 1];   // per bin, or -1 if outside the frequency range
+    private final float[] ring = new float[FFT_SIZE];
+    private final float[] re = new float[FFT_SIZE];
+    private final float[] im = new float[FFT_SIZE];
+    private final float[] magnitudes = new float[FFT_SIZE / 2 + 1];
+    private final float[] chroma = new float[Chromagram.PITCH_CLASSES];
+
+    private final long firstSample;         // analysis sample decoding started at
+    private long samples;                   // analysis sample the next one will be
+    private int ringPosition = 0;
+    private float decimationSum = 0f;
+    private int decimationCount = 0;
+
+    /**
+     * @param startFrame
+     *            The track frame the frames fed start at, a multiple of {@link #getDecimation(int)}.
+     */
+    public ChromaExtractor(Chromagram chromagram, long startFrame) {
+        this.chromagram = chromagram;
+        int sampleRate = chromagram.getSampleRate();
+        decimation = getDecimation(sampleRate);
+        firstSample = startFrame / decimation;
+        samples = firstSample;
+        float analysisRate = (float) sampleRate / decimation;
+        for (int i = 0; i < FFT_SIZE; i++) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / FFT_SIZE));
+        }
+        for (int bin = 0; bin <= FFT_SIZE / 2; bin++) {
+            float frequency = bin * analysisRate / FFT_SIZE;
+            if (frequency < MIN_FREQUENCY || frequency > MAX_FREQUENCY) {
+                pitchClasses[bin] = -1;
+            } else {
+                // MIDI note 69 is A440, and MIDI note 0 is a C
+                int note = Math.round(69 + 12 * (float) (Math.log(frequency / 440f) / Math.log(2)));
+                pitchClasses[bin] = note % Chromagram.PITCH_CLASSES;
+            }
+        }
+    }
+
+    public static int getDecimation(int sampleRate) {
+        return sampleRate >= 32000 ? 4 : sampleRate >= 16000 ? 2 : 1;
+    }
+
+    /**
+     * @return The number of track frames between chroma frames.
+     */
+    public static int getHopFrames(int sampleRate) {
+        return getDecimation(sampleRate) * HOP;
+    }
+
+    /**
+     * @return The number of track frames a chroma frame's window reaches on either side of it.
+     */
+    public static int getHalfWindowFrames(int sampleRate) {
+        return getDecimation(sampleRate) * FFT_SIZE / 2;
+    }
+
+    /**
+     * Appends interleaved frames that directly follow the ones added before.
+     */
+    public void add(short[] buffer, int frames, int channelCount) {
+        float scale = 1f / (32768f * channelCount * decimation);
+        int end = frames * channelCount;
+        for (int i = 0; i < end; i += channelCount) {
+            for (int c = 0; c < channelCount; c++) {
+                decimationSum += buffer[i + c];
+            }
+            if (++decimationCount == decimation) {
+                addSample(decimationSum * scale);
+                decimationSum = 0f;
+                decimationCount = 0;
+            }
+        }
+    }
+
+    /**
+     * Pads the end of the track with silence, so that the chroma frames near it get stored too.
+     */
+    public void finish() {
+        for (int i = 0; i < FFT_SIZE / 2; i++) {
+            addSample(0f);
+        }
+    }
+
+    private void addSample(float sample) {
+        ring[ringPosition] = sample;
+        ringPosition = (ringPosition + 1) % FFT_SIZE;
+        samples++;
+        // the window of chroma frame i spans samples i * HOP - FFT_SIZE / 2 up to i * HOP + FFT_SIZE / 2
+        if (samples % HOP == 0 && samples >= FFT_SIZE / 2 && (firstSample == 0 || samples - FFT_SIZE >= firstSample)) {
+            analyzeWindow((int) ((samples - FFT_SIZE / 2) / HOP));
+        }
+    }
+
+    private void analyzeWindow(int index) {
+        for (int i = 0; i < FFT_SIZE; i++) {
+            re[i] = ring[(ringPosition + i) % FFT_SIZE] * window[i];
+        }
+        fft.magnitudes(re, im, magnitudes);
+        for (int pitchClass = 0; pitchClass < Chromagram.PITCH_CLASSES; pitchClass++) {
+            chroma[pitchClass] = 0f;
+        }
+        for (int bin = 0; bin < magnitudes.length; bin++) {
+            if (pitchClasses[bin] >= 0) {
+                chroma[pitchClasses[bin]] += magnitudes[bin];
+            }
+        }
+        chromagram.put(index, chroma);
+    }
+}
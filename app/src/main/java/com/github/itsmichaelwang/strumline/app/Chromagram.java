@@ -0,0 +1,120 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Pitch-class profiles of a track, one per {@link ChromaExtractor} hop: frame i holds the energy of the twelve pitch
+ * classes (C, C#, ..., B) around track frame i * {@link #getHopFrames()}. Frames can be filled in any order and from
+ * several threads, so that whole-track analysis and on-demand analysis of a loop region share the frames computed so
+ * far; {@link #isPresent(int)} tells which ones are there.
+ */
+public class Chromagram {
+
+    /**
+     * Version of the format written by {@link #writeTo(ByteBuffer)}.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    public static final int PITCH_CLASSES = 12;
+
+    private final int sampleRate;
+    private final int hopFrames;
+    private float[] values;
+    private boolean[] present;
+
+    /**
+     * @param frameCount
+     *            The expected length of the track, used to size the arrays. Frames beyond it are still stored.
+     */
+    public Chromagram(int sampleRate, long frameCount) {
+        this(sampleRate, (int) Math.max(1, (frameCount + ChromaExtractor.getHopFrames(sampleRate) - 1)
+                / ChromaExtractor.getHopFrames(sampleRate)));
+    }
+
+    private Chromagram(int sampleRate, int capacity) {
+        this.sampleRate = sampleRate;
+        this.hopFrames = ChromaExtractor.getHopFrames(sampleRate);
+        values = new float[capacity * PITCH_CLASSES];
+        present = new boolean[capacity];
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return The number of track frames between chroma frames.
+     */
+    public int getHopFrames() {
+        return hopFrames;
+    }
+
+    /**
+     * @return The chroma frame closest to the given track frame.
+     */
+    public int indexOf(long frame) {
+        return (int) ((frame + hopFrames / 2) / hopFrames);
+    }
+
+    /**
+     * @return The number of chroma frames there is room for, which covers the expected length of the track.
+     */
+    public synchronized int getCapacity() {
+        return present.length;
+    }
+
+    public synchronized boolean isPresent(int index) {
+        return index < present.length && present[index];
+    }
+
+    /**
+     * Stores the pitch-class profile of the given chroma frame.
+     */
+    public synchronized void put(int index, float[] chroma) {
+        if (index >= present.length) {
+            int capacity = Math.max(index + 1, 2 * present.length);
+            values = Arrays.copyOf(values, capacity * PITCH_CLASSES);
+            present = Arrays.copyOf(present, capacity);
+        }
+        System.arraycopy(chroma, 0, values, index * PITCH_CLASSES, PITCH_CLASSES);
+        present[index] = true;
+    }
+
+    /**
+     * Copies the pitch-class profile of the given chroma frame, which must be present.
+     */
+    public synchronized void get(int index, float[] out) {
+        System.arraycopy(values, index * PITCH_CLASSES, out, 0, PITCH_CLASSES);
+    }
+
+    /**
+     * @return The number of bytes {@link #writeTo(ByteBuffer)} needs.
+     */
+    public synchronized int getSerializedSize() {
+        return 4 + 4 + 4 * values.length;
+    }
+
+    /**
+     * Writes the chromagram of a fully analyzed track in a compact binary format. Frames never filled, which can only be
+     * past the actual end of the track, are written as silence.
+     */
+    public synchronized void writeTo(ByteBuffer buffer) {
+        buffer.putInt(sampleRate).putInt(present.length);
+        buffer.asFloatBuffer().put(values);
+        buffer.position(buffer.position() + 4 * values.length);
+    }
+
+    /**
+     * Reads a chromagram written by {@link #writeTo(ByteBuffer)}.
+     */
+    public static Chromagram readFrom(ByteBuffer buffer) {
+        int sampleRate = buffer.getInt();
+        int count = buffer.getInt();
+        Chromagram chromagram = new Chromagram(sampleRate, count);
+        buffer.asFloatBuffer().get(chromagram.values);
+        buffer.position(buffer.position() + 4 * chromagram.values.length);
+        Arrays.fill(chromagram.present, true);
+        return chromagram;
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Identifies audio files by their content rather than by their Uri, which changes depending on how a file is picked.
+ * Hashing whole files would take as long as decoding them, so the fingerprint only covers the file size and a fixed
+ * number of evenly spaced blocks, which is enough to tell different recordings apart.
+ */
+public final class ContentFingerprint {
+
+    private static final int BLOCKS = 16;
+    private static final int BLOCK_SIZE = 4096;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private ContentFingerprint() {
+    }
+
+    /**
+     * @return The fingerprint of the file behind the given Uri, as 16 hex digits.
+     * @throws IOException
+     *             If the file cannot be read, or its size is not known.
+     */
+    public static String of(ContentResolver resolver, Uri uri) throws IOException {
+        ParcelFileDescriptor descriptor = resolver.openFileDescriptor(uri, "r");
+        if (descriptor == null) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        FileInputStream input = new FileInputStream(descriptor.getFileDescriptor());
+        try {
+            return of(input.getChannel());
+        } finally {
+            input.close();
+            descriptor.close();
+        }
+    }
+
+    /**
+     * @throws IOException
+     *             If the size of the file is not known, as for pipes, since the blocks could then not be spread over it
+     *             and every such file would get the same fingerprint. Callers then go without caching.
+     */
+    public static String of(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size <= 0) {
+            throw new IOException("Cannot fingerprint a file of unknown size");
+        }
+        long hash = mix(FNV_OFFSET_BASIS, size);
+
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        long stride = Math.max(BLOCK_SIZE, (size - BLOCK_SIZE) / (BLOCKS - 1));
+        for (long offset = 0; offset < size; offset += stride) {
+            block.clear();
+            while (block.hasRemaining() && channel.read(block, offset + block.position()) > 0) {
+                // keep reading until the block is full or the file ends
+            }
+            byte[] bytes = block.array();
+            for (int i = 0; i < block.position(); i++) {
+                hash = (hash ^ (bytes[i] & 0xff)) * FNV_PRIME;
+            }
+        }
+        return String.format("%016x", hash);
+    }
+
+    private static long mix(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash = (hash ^ ((value >>> (8 * i)) & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
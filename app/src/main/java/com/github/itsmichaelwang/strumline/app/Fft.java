@@ -0,0 +1,92 @@
+package com.github.itsmichaelwang.strumline.app;
+
+/**
+ * In-place radix-2 FFT of a fixed size. The twiddle factors and the bit-reversal permutation are computed once, so
+ * transforms allocate nothing and one instance can be reused for every block of a track.
+ */
+public class Fft {
+
+    private final int size;
+    private final float[] cos;
+    private final float[] sin;
+    private final int[] reversed;
+
+    /**
+     * @param size
+     *            A power of two.
+     */
+    public Fft(int size) {
+        if (size < 2 || (size & (size - 1)) != 0) {
+            throw new IllegalArgumentException("FFT size must be a power of two: " + size);
+        }
+        this.size = size;
+        cos = new float[size / 2];
+        sin = new float[size / 2];
+        for (int i = 0; i < size / 2; i++) {
+            cos[i] = (float) Math.cos(2 * Math.PI * i / size);
+            sin[i] = (float) -Math.sin(2 * Math.PI * i / size);
+        }
+        reversed = new int[size];
+        int bits = Integer.numberOfTrailingZeros(size);
+        for (int i = 0; i < size; i++) {
+            reversed[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Transforms the given complex signal in place.
+     */
+    public void transform(float[] re, float[] im) {
+        for (int i = 0; i < size; i++) {
+            int j = reversed[i];
+            if (j > i) {
+                float t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+        for (int half = 1; half < size; half *= 2) {
+            int step = size / (2 * half);
+            for (int start = 0; start < size; start += 2 * half) {
+                for (int k = 0; k < half; k++) {
+                    int a = start + k;
+                    int b = a + half;
+                    float wr = cos[k * step];
+                    float wi = sin[k * step];
+                    float tr = re[b] * wr - im[b] * wi;
+                    float ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+
+    /**
+     * Transforms a real signal and stores the magnitudes of its first size / 2 + 1 bins. Both arrays are used as
+     * scratch space.
+     *
+     * @param re
+     *            The signal; overwritten.
+     * @param im
+     *            Scratch space of the FFT size.
+     */
+    public void magnitudes(float[] re, float[] im, float[] out) {
+        for (int i = 0; i < size; i++) {
+            im[i] = 0f;
+        }
+        transform(re, im);
+        for (int i = 0; i <= size / 2; i++) {
+            out[i] = (float) Math.sqrt(re[i] * re[i] + im[i] * im[i]);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import android.content.Context;
+
+/**
+ * Range seek bar over a range of int values. Unlike {@link RangeSeekBar}, values never get boxed, so dragging a thumb
+ * with {@link #setNotifyWhileDragging(boolean)} turned on does not create any garbage.
+ */
+public class IntRangeSeekBar extends AbstractRangeSeekBar {
+    private final int absoluteMinValue, absoluteMaxValue;
+    private OnRangeChangeListener listener;
+
+    /**
+     * Creates a new IntRangeSeekBar.
+     *
+     * @param absoluteMinValue
+     *            The minimum value of the selectable range.
+     * @param absoluteMaxValue
+     *            The maximum value of the selectable range.
+     * @param context
+     */
+    public IntRangeSeekBar(int absoluteMinValue, int absoluteMaxValue, Context context) {
+        super(context);
+        this.absoluteMinValue = absoluteMinValue;
+        this.absoluteMaxValue = absoluteMaxValue;
+    }
+
+    public int getAbsoluteMinValue() {
+        return absoluteMinValue;
+    }
+
+    public int getAbsoluteMaxValue() {
+        return absoluteMaxValue;
+    }
+
+    public int getSelectedMinValue() {
+        return normalizedToValue(getNormalizedMinValue());
+    }
+
+    /**
+     * Sets the currently selected minimum value. The widget will be invalidated and redrawn.
+     *
+     * @param value
+     *            The value to set the minimum value to. Will be clamped to given absolute minimum/maximum range.
+     */
+    public void setSelectedMinValue(int value) {
+        setNormalizedMinValue(absoluteMaxValue == absoluteMinValue ? 0d : valueToNormalized(value));
+    }
+
+    public int getSelectedMaxValue() {
+        return normalizedToValue(getNormalizedMaxValue());
+    }
+
+    /**
+     * Sets the currently selected maximum value. The widget will be invalidated and redrawn.
+     *
+     * @param value
+     *            The value to set the maximum value to. Will be clamped to given absolute minimum/maximum range.
+     */
+    public void setSelectedMaxValue(int value) {
+        setNormalizedMaxValue(absoluteMaxValue == absoluteMinValue ? 1d : valueToNormalized(value));
+    }
+
+    /**
+     * Registers given listener callback to notify about changed selected values.
+     *
+     * @param listener
+     *            The listener to notify about changed selected values.
+     */
+    public void setOnRangeChangeListener(OnRangeChangeListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    protected void notifyRangeChanged() {
+        if (listener != null) {
+            listener.onRangeChanged(getSelectedMinValue(), getSelectedMaxValue());
+        }
+    }
+
+    /**
+     * Converts a normalized value to the closest value between absolute minimum and maximum.
+     */
+    private int normalizedToValue(double normalized) {
+        return SeekBarGeometry.normalizedToInt(normalized, absoluteMinValue, absoluteMaxValue);
+    }
+
+    private double valueToNormalized(int value) {
+        return SeekBarGeometry.valueToNormalized(value, absoluteMinValue, absoluteMaxValue);
+    }
+
+    /**
+     * Callback listener interface to notify about changed range values.
+     */
+    public interface OnRangeChangeListener {
+        public void onRangeChanged(int minValue, int maxValue);
+    }
+}
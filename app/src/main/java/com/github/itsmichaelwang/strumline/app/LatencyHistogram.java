@@ -0,0 +1,231 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative values in fixed memory, laid out like an HdrHistogram: values below
+ * 2<sup>{@link #SUB_BUCKET_BITS}</sup> get a bucket each, and every power of two above that is split into half as many
+ * linear buckets, so each value is recorded to within 1 / 2<sup>{@link #SUB_BUCKET_BITS} - 1</sup> of itself (under
+ * 2%) whatever its magnitude. Values above the highest trackable one are counted in the last bucket.<br />
+ * <br />
+ * Recording takes no allocation and no lock, so it can be done on the render thread without ever waiting for a reader:
+ * values must be recorded by one thread at a time, while any thread may read. Recording writes each field with a
+ * single ordered store, the bucket before the totals, so a reader may see a value in its bucket before it shows in the
+ * totals but never the other way round. {@link #reset()} writes every field as well and may be called from any thread;
+ * a value recorded while it runs may survive it in some of the fields.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_COUNT = SUB_BUCKET_COUNT / 2;
+    private static final int MAGIC = 0x4c48;     // "LH"
+    private static final int VERSION = 1;
+
+    private final long highestTrackableValue;
+    private final AtomicLongArray counts;
+    private volatile long totalCount = 0;
+    private volatile long sum = 0;
+    private volatile long min = Long.MAX_VALUE;
+    private volatile long max = 0;
+
+    /**
+     * @param highestTrackableValue
+     *            The largest value to tell apart from larger ones.
+     */
+    public LatencyHistogram(long highestTrackableValue) {
+        this.highestTrackableValue = Math.max(SUB_BUCKET_COUNT, highestTrackableValue);
+        counts = new AtomicLongArray(indexOf(this.highestTrackableValue) + 1);
+    }
+
+    public void record(long value) {
+        value = Math.max(0, value);
+        int index = indexOf(Math.min(value, highestTrackableValue));
+        // there is only one writer, so reading and then storing cannot lose a count
+        counts.lazySet(index, counts.get(index) + 1);
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+        sum += value;
+        totalCount++;
+    }
+
+    public void reset() {
+        totalCount = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * @return The smallest value recorded, or 0 if there are none.
+     */
+    public long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        long count = totalCount;
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param percentile
+     *            Between 0 and 100.
+     * @return The value that the given percentage of the recorded values are at or below, to within the precision of
+     *         the buckets, or 0 if there are none.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount;
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.max(min, Math.min(max, getBucketEnd(i) - 1));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Writes one line per non-empty bucket: the given name, the lowest and highest value of the bucket, and its count.
+     */
+    public void writeCsv(PrintWriter out, String name) {
+        for (int i = 0; i < counts.length(); i++) {
+            long count = counts.get(i);
+            if (count != 0) {
+                out.print(name);
+                out.print(',');
+                out.print(getBucketStart(i));
+                out.print(',');
+                out.print(getBucketEnd(i) - 1);
+                out.print(',');
+                out.println(count);
+            }
+        }
+    }
+
+    /**
+     * Writes the histogram compactly: a short header, then the index gap and count of each non-empty bucket as varints.
+     * A few hundred samples typically take well under a hundred bytes.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        // the buckets are read first and the total taken from them, so that the two always agree
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        out.writeShort(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(SUB_BUCKET_BITS);
+        out.writeLong(highestTrackableValue);
+        writeVarLong(out, total);
+        writeVarLong(out, total == 0 ? 0 : min);
+        writeVarLong(out, max);
+        writeVarLong(out, sum);
+        int previous = -1;
+        for (int i = 0; i < snapshot.length; i++) {
+            if (snapshot[i] != 0) {
+                writeVarLong(out, i - previous);
+                writeVarLong(out, snapshot[i]);
+                previous = i;
+            }
+        }
+        writeVarLong(out, 0);
+    }
+
+    /**
+     * Reads a histogram written by {@link #writeTo(DataOutputStream)}.
+     */
+    public static LatencyHistogram readFrom(DataInputStream in) throws IOException {
+        if (in.readUnsignedShort() != MAGIC || in.readUnsignedByte() != VERSION
+                || in.readUnsignedByte() != SUB_BUCKET_BITS) {
+            throw new IOException("Not a histogram of this version");
+        }
+        LatencyHistogram histogram = new LatencyHistogram(in.readLong());
+        histogram.totalCount = readVarLong(in);
+        long min = readVarLong(in);
+        histogram.min = histogram.totalCount == 0 ? Long.MAX_VALUE : min;
+        histogram.max = readVarLong(in);
+        histogram.sum = readVarLong(in);
+        int index = -1;
+        long gap;
+        while ((gap = readVarLong(in)) != 0) {
+            index += (int) gap;
+            if (index >= histogram.counts.length()) {
+                throw new IOException("Bucket out of range");
+            }
+            histogram.counts.set(index, readVarLong(in));
+        }
+        return histogram;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // the top SUB_BUCKET_BITS bits of the value select the bucket within its power of two
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKET_COUNT + (shift - 1) * HALF_COUNT + (int) (value >> shift) - HALF_COUNT;
+    }
+
+    private static long getBucketStart(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / HALF_COUNT + 1;
+        return (long) ((index - SUB_BUCKET_COUNT) % HALF_COUNT + HALF_COUNT) << shift;
+    }
+
+    private static long getBucketEnd(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index + 1;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / HALF_COUNT + 1;
+        return (long) ((index - SUB_BUCKET_COUNT) % HALF_COUNT + HALF_COUNT + 1) << shift;
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import android.content.Context;
+
+/**
+ * Range seek bar over a range of long values. Unlike {@link RangeSeekBar}, values never get boxed, so dragging a thumb
+ * with {@link #setNotifyWhileDragging(boolean)} turned on does not create any garbage.
+ */
+public class LongRangeSeekBar extends AbstractRangeSeekBar {
+    private final long absoluteMinValue, absoluteMaxValue;
+    private OnRangeChangeListener listener;
+
+    /**
+     * Creates a new LongRangeSeekBar.
+     *
+     * @param absoluteMinValue
+     *            The minimum value of the selectable range.
+     * @param absoluteMaxValue
+     *            The maximum value of the selectable range.
+     * @param context
+     */
+    public LongRangeSeekBar(long absoluteMinValue, long absoluteMaxValue, Context context) {
+        super(context);
+        this.absoluteMinValue = absoluteMinValue;
+        this.absoluteMaxValue = absoluteMaxValue;
+    }
+
+    public long getAbsoluteMinValue() {
+        return absoluteMinValue;
+    }
+
+    public long getAbsoluteMaxValue() {
+        return absoluteMaxValue;
+    }
+
+    public long getSelectedMinValue() {
+        return normalizedToValue(getNormalizedMinValue());
+    }
+
+    /**
+     * Sets the currently selected minimum value. The widget will be invalidated and redrawn.
+     *
+     * @param value
+     *            The value to set the minimum value to. Will be clamped to given absolute minimum/maximum range.
+     */
+    public void setSelectedMinValue(long value) {
+        setNormalizedMinValue(absoluteMaxValue == absoluteMinValue ? 0d : valueToNormalized(value));
+    }
+
+    public long getSelectedMaxValue() {
+        return normalizedToValue(getNormalizedMaxValue());
+    }
+
+    /**
+     * Sets the currently selected maximum value. The widget will be invalidated and redrawn.
+     *
+     * @param value
+     *            The value to set the maximum value to. Will be clamped to given absolute minimum/maximum range.
+     */
+    public void setSelectedMaxValue(long value) {
+        setNormalizedMaxValue(absoluteMaxValue == absoluteMinValue ? 1d : valueToNormalized(value));
+    }
+
+    /**
+     * Registers given listener callback to notify about changed selected values.
+     *
+     * @param listener
+     *            The listener to notify about changed selected values.
+     */
+    public void setOnRangeChangeListener(OnRangeChangeListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    protected void notifyRangeChanged() {
+        if (listener != null) {
+            listener.onRangeChanged(getSelectedMinValue(), getSelectedMaxValue());
+        }
+    }
+
+    /**
+     * Converts a normalized value to the closest value between absolute minimum and maximum.
+     */
+    private long normalizedToValue(double normalized) {
+        return SeekBarGeometry.normalizedToLong(normalized, absoluteMinValue, absoluteMaxValue);
+    }
+
+    private double valueToNormalized(long value) {
+        return SeekBarGeometry.valueToNormalized(value, absoluteMinValue, absoluteMaxValue);
+    }
+
+    /**
+     * Callback listener interface to notify about changed range values.
+     */
+    public interface OnRangeChangeListener {
+        public void onRangeChanged(long minValue, long maxValue);
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.itsmichaelwang.strumline.app;
+
+/**
+ * A loop start and stop in frames, packed into a single long so that both can be published and read together with one
+ * atomic write or read: the start in the high 32 bits and the stop in the low 32 bits, both unsigned. That covers tracks
+ * of about a day at 48 kHz. A stop of {@link #UNBOUNDED} means the loop runs to the end of the track.
+ */
+public final class LoopBounds {
+
+    public static final long UNBOUNDED = Long.MAX_VALUE;
+
+    private static final long MASK = 0xffffffffL;
+    private static final long MAX_FRAME = MASK - 1;     // MASK itself encodes an unbounded stop
+
+    private LoopBounds() {
+    }
+
+    /**
+     * @param loopStop
+     *            The stop, or {@link #UNBOUNDED}. Frames past the largest one that can be packed are taken as unbounded.
+     */
+    public static long pack(long loopStart, long loopStop) {
+        long start = Math.max(0, Math.min(MAX_FRAME, loopStart));
+        long stop = loopStop < 0 ? 0 : loopStop > MAX_FRAME ? MASK : loopStop;
+        return start << 32 | stop;
+    }
+
+    public static long start(long bounds) {
+        return bounds >>> 32;
+    }
+
+    public static long stop(long bounds) {
+        long stop = bounds & MASK;
+        return stop == MASK ? UNBOUNDED : stop;
+    }
+}
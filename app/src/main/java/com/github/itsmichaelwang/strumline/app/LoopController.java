@@ -0,0 +1,156 @@
+package com.github.itsmichaelwang.strumline.app;
+
+/**
+ * The loop and transport state of the player, kept apart from the views so that it can be driven by the activity and by
+ * the simulation in the JVM tests alike: whether the user paused playback, the loop bounds, and how changes to them
+ * reach the {@link Transport}. The bounds are kept in frames, so that loop points set at the playback position stay
+ * sample-accurate, and every change reaches the transport as one update of both, never shorter than
+ * {@link LoopEngine#MIN_LOOP_FRAMES}. Seeks caused by moving the loop start go through a {@link SeekCoalescer}.<br />
+ * <br />
+ * Not thread-safe; all calls are expected on one thread, the UI thread in the app.
+ */
+public class LoopController {
+
+    private final Transport transport;
+    private final SeekCoalescer seekCoalescer;
+    private boolean paused = false;     // as the user wants it, which outlives the activity being paused
+    private long loopStartFrame = 0;
+    private long loopStopFrame = 0;
+
+    public LoopController(Transport transport) {
+        this.transport = transport;
+        seekCoalescer = new SeekCoalescer(transport);
+    }
+
+    /**
+     * Starts playing a song that was just handed to the transport. The loop bounds are set separately.
+     */
+    public void onSongLoaded() {
+        // the transport was reset, so a seek in flight for the previous song may never complete
+        seekCoalescer.cancel();
+        loopStartFrame = transport.getLoopStartFrame();
+        loopStopFrame = transport.getLoopStopFrame();
+        transport.start();
+        paused = false;
+    }
+
+    /**
+     * Pauses or resumes playback.
+     *
+     * @return Whether playback is now paused.
+     */
+    public boolean togglePlayPause() {
+        paused = !paused;
+        if (paused) {
+            transport.pause();
+        } else {
+            transport.start();
+        }
+        return paused;
+    }
+
+    /**
+     * Pauses the transport while the app is in the background, without changing what the user asked for.
+     */
+    public void onPause() {
+        if (transport.isPlaying()) {
+            transport.pause();
+        }
+    }
+
+    /**
+     * Resumes the transport when the app comes back, unless the user had paused it.
+     */
+    public void onResume() {
+        if (!transport.isPlaying()) {
+            if (paused) {
+                transport.pause();
+            } else {
+                transport.start();
+            }
+        }
+    }
+
+    /**
+     * Moves the loop, in milliseconds from the start of the song, seeking to the new loop start if it changed. A stop
+     * too close to or before the start is moved to the shortest loop after it.
+     */
+    public void setLoopBounds(int loopStart, int loopStop) {
+        setLoopBoundsFrames(msToFrames(Math.max(0, loopStart)), msToFrames(loopStop));
+    }
+
+    /**
+     * Moves the loop to the given frames, keeping both sample-accurate, and seeks to the new loop start if it changed.
+     * A stop too close to or before the start is moved to the shortest loop after it.
+     */
+    public void setLoopBoundsFrames(long loopStart, long loopStop) {
+        long startFrame = Math.max(0, loopStart);
+        setLoopFrames(startFrame, Math.max(loopStop, startFrame + LoopEngine.MIN_LOOP_FRAMES));
+    }
+
+    /**
+     * Moves the loop start to the given frame, keeping it sample-accurate. A start too close to or past the stop is
+     * moved back to the shortest loop before it.
+     */
+    public void setLoopStartFrame(long frame) {
+        setLoopFrames(Math.max(0, Math.min(frame, loopStopFrame - LoopEngine.MIN_LOOP_FRAMES)), loopStopFrame);
+    }
+
+    /**
+     * Moves the loop stop to the given frame, keeping it sample-accurate. A stop too close to or before the start is
+     * moved to the shortest loop after it.
+     */
+    public void setLoopStopFrame(long frame) {
+        setLoopFrames(loopStartFrame, Math.max(frame, loopStartFrame + LoopEngine.MIN_LOOP_FRAMES));
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * @return The loop start in milliseconds from the start of the song.
+     */
+    public int getLoopStart() {
+        return framesToMs(loopStartFrame);
+    }
+
+    /**
+     * @return The loop stop in milliseconds from the start of the song.
+     */
+    public int getLoopStop() {
+        return framesToMs(loopStopFrame);
+    }
+
+    public long getLoopStartFrame() {
+        return loopStartFrame;
+    }
+
+    public long getLoopStopFrame() {
+        return loopStopFrame;
+    }
+
+    public SeekCoalescer getSeekCoalescer() {
+        return seekCoalescer;
+    }
+
+    // the one place the bounds reach the transport, already checked
+    private void setLoopFrames(long startFrame, long stopFrame) {
+        transport.setLoopFrames(startFrame, stopFrame);
+        boolean startMoved = startFrame != loopStartFrame;
+        loopStartFrame = startFrame;
+        loopStopFrame = stopFrame;
+        if (startMoved) {
+            seekCoalescer.seekTo(getLoopStart());
+        }
+    }
+
+    // rounded up, so that converting back gives the same milliseconds
+    private long msToFrames(int ms) {
+        return ((long) ms * transport.getSampleRate() + 999) / 1000;
+    }
+
+    private int framesToMs(long frame) {
+        return (int) Math.min(Integer.MAX_VALUE, frame * 1000 / transport.getSampleRate());
+    }
+}
@@ -0,0 +1,693 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays a {@link PcmSource} into an {@link AudioSink} and wraps from the loop stop back to the loop start at the exact
+ * frame, without a gap. Meant as a drop-in replacement for a {@link android.media.MediaPlayer} that is polled and
+ * re-seeked from another thread: the public methods mirror the MediaPlayer ones and take milliseconds, while the wrap
+ * itself happens on the engine's render thread as part of the continuous stream written to the sink.<br />
+ * <br />
+ * To change the tempo or transpose, the frames pass through a {@link TimeStretcher} and a {@link Resampler} on their way
+ * to the sink: transposing by a ratio stretches by that ratio and then resamples the result back to its original length.
+ * <br />
+ * <br />
+ * The wrap can be smoothed with an equal-power crossfade from the end of the loop into its start. The first frames of
+ * the loop are kept in memory as they are played, so the fade needs no extra decoding when the loop stop comes around.
+ */
+public class LoopEngine implements Transport {
+
+    private static final int BLOCK_FRAMES = 1024;
+    public static final int MIN_LOOP_FRAMES = BLOCK_FRAMES;
+    private static final int MAX_MARKERS = 8;
+    public static final int MAX_CROSSFADE_MS = 50;
+
+    /**
+     * Called on the render thread once the sink has started playing the frames of a new data source.
+     */
+    public interface OnFirstAudioListener {
+        public void onFirstAudio(LoopEngine engine, PcmSource source);
+    }
+
+    private final AudioSink sink;
+    private final Object lock = new Object();
+    private volatile OnSeekCompleteListener onSeekCompleteListener = null;
+    private volatile OnFirstAudioListener onFirstAudioListener = null;
+    private volatile LoopStats stats = null;
+    private Thread renderThread = null;
+
+    // Guarded by lock, written by the caller's thread
+    private PcmSource source = null;
+    private boolean playing = false;
+    private boolean released = false;
+    private long pendingSeek = -1;
+    private long pendingSeekNumber;
+    private long seekCount = 0;
+    private long pendingSeekNanos;  // when the pending seek was requested
+
+    private volatile int sampleRate = 44100;
+    private long frameCount = 0;
+    // the loop start and stop packed by LoopBounds, so the render thread never sees a start and stop set apart
+    private final AtomicLong loopBounds = new AtomicLong(LoopBounds.pack(0, LoopBounds.UNBOUNDED));
+    private volatile float tempo = 1f;
+    private volatile float pitch = 1f;
+    private volatile int crossfadeMs = 0;
+
+    // Render thread only
+    private short[] buffer;
+    private float[] floatBuffer;
+    private TimeStretcher stretcher;
+    private Resampler resampler;
+    private boolean stretching;     // whether frames currently go through the stretcher and resampler
+    private float stretchTempo;     // the tempo and pitch they were last set to
+    private float stretchPitch;
+    private long position;          // next source frame to render
+    private long framesWritten;     // frames handed to the sink since it was opened
+    private boolean sinkPlaying;
+    private short[] loopHead;       // the first frames of the loop, captured as they are played
+    private long loopHeadStart;     // the loop start they were captured for
+    private int loopHeadFrames;
+    private long fadedThrough;      // the source frame after the last loop head frame mixed into the loop end, or -1
+    private PcmSource awaitingFirstAudio;   // the source just opened, until the sink starts playing its frames
+    private long seekSinkFrame = -1;        // the sink frame a seek restarted at, until it is audible, or -1
+    private long seekNanos;                 // when that seek was requested
+
+    // Each marker says that sink frame markerSinkFrames[i] plays source frame markerSourceFrames[i], and that the frames
+    // after it advance through the source at markerRates[i] source frames per sink frame
+    private final Object markerLock = new Object();
+    private final long[] markerSinkFrames = new long[MAX_MARKERS];
+    private final long[] markerSourceFrames = new long[MAX_MARKERS];
+    private final float[] markerRates = new float[MAX_MARKERS];
+    private int markerCount = 0;
+
+    // Cost of the stretcher and resampler: time spent in them, and the source frames they turned into output
+    private volatile long dspNanos = 0;
+    private volatile long dspFrames = 0;
+
+    public LoopEngine(AudioSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Hands a source to the engine, which takes ownership of it and releases it on {@link #reset()} or
+     * {@link #release()}. The loop initially spans the whole source.
+     */
+    public void setDataSource(PcmSource source) {
+        synchronized (lock) {
+            if (this.source != null) {
+                throw new IllegalStateException("Call reset() before setting a new data source");
+            }
+            this.source = source;
+            sampleRate = source.getSampleRate();
+            frameCount = source.getFrameCount();
+            loopBounds.set(LoopBounds.pack(0, frameCount > 0 ? frameCount : LoopBounds.UNBOUNDED));
+            pendingSeek = -1;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Starts the render thread. Decoding only begins once {@link #start()} is called.
+     */
+    public void prepare() {
+        synchronized (lock) {
+            if (source == null) {
+                throw new IllegalStateException("No data source");
+            }
+            if (renderThread == null) {
+                renderThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        renderLoop();
+                    }
+                }, "LoopEngine");
+                renderThread.start();
+            }
+        }
+    }
+
+    @Override
+    public void start() {
+        synchronized (lock) {
+            playing = true;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void pause() {
+        synchronized (lock) {
+            playing = false;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public boolean isPlaying() {
+        synchronized (lock) {
+            return playing;
+        }
+    }
+
+    /**
+     * Drops the current source. Audio still queued in the sink is discarded.
+     */
+    public void reset() {
+        synchronized (lock) {
+            playing = false;
+            source = null;
+            pendingSeek = -1;
+            frameCount = 0;
+            lock.notifyAll();
+        }
+    }
+
+    public void release() {
+        Thread thread;
+        synchronized (lock) {
+            released = true;
+            playing = false;
+            source = null;
+            thread = renderThread;
+            lock.notifyAll();
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            sink.release();
+        }
+    }
+
+    @Override
+    public void setOnSeekCompleteListener(OnSeekCompleteListener listener) {
+        onSeekCompleteListener = listener;
+    }
+
+    public void setOnFirstAudioListener(OnFirstAudioListener listener) {
+        onFirstAudioListener = listener;
+    }
+
+    /**
+     * Records the boundary overshoot of every loop iteration and the latency of every seek into the given stats.
+     *
+     * @param stats
+     *            The stats to record into, or null to stop recording.
+     */
+    public void setStats(LoopStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Seeks asynchronously; seeks requested before the render thread gets to them are merged into the latest one.
+     *
+     * @param msec
+     *            The position to continue playback from, in milliseconds from the start of the track.
+     */
+    @Override
+    public long seekTo(int msec) {
+        synchronized (lock) {
+            pendingSeek = msToFrames(msec);
+            pendingSeekNumber = ++seekCount;
+            pendingSeekNanos = System.nanoTime();
+            lock.notifyAll();
+            return pendingSeekNumber;
+        }
+    }
+
+    /**
+     * Sets the loop bounds, in milliseconds from the start of the track. Playback outside of them jumps to loopStart.
+     */
+    @Override
+    public void setLoopBounds(int loopStart, int loopStop) {
+        setLoopFrames(msToFrames(loopStart), msToFrames(loopStop));
+    }
+
+    /**
+     * Sets the loop bounds in frames, for sample-accurate loops.
+     */
+    @Override
+    public void setLoopFrames(long loopStart, long loopStop) {
+        long start = Math.max(0, loopStart);
+        loopBounds.set(LoopBounds.pack(start, Math.max(loopStop, start + MIN_LOOP_FRAMES)));
+    }
+
+    /**
+     * Sets the playback speed without changing the pitch.
+     *
+     * @param tempo
+     *            Between {@link TimeStretcher#MIN_TEMPO} and {@link TimeStretcher#MAX_TEMPO}; 1 is the original speed.
+     */
+    public void setTempo(float tempo) {
+        this.tempo = (float) Math.max(TimeStretcher.MIN_TEMPO, Math.min(TimeStretcher.MAX_TEMPO, tempo));
+    }
+
+    public float getTempo() {
+        return tempo;
+    }
+
+    /**
+     * Sets the length of the crossfade from the end of the loop into its start, from 0 (a plain cut) to
+     * {@link #MAX_CROSSFADE_MS}. Loops shorter than twice the crossfade are cut.
+     */
+    public void setCrossfade(int ms) {
+        crossfadeMs = Math.max(0, Math.min(MAX_CROSSFADE_MS, ms));
+    }
+
+    public int getCrossfade() {
+        return crossfadeMs;
+    }
+
+    /**
+     * Transposes playback, independently of the tempo.
+     *
+     * @param semitones
+     *            Between -12 and 12.
+     * @param cents
+     *            Hundredths of a semitone, added to the semitones.
+     */
+    public void setTranspose(int semitones, int cents) {
+        double ratio = Math.pow(2, (semitones * 100 + cents) / 1200d);
+        pitch = (float) Math.max(Resampler.MIN_RATIO, Math.min(Resampler.MAX_RATIO, ratio));
+    }
+
+    /**
+     * @return The milliseconds of CPU time the tempo and pitch stages took per second of audio they processed, or 0 if
+     *         they have not been used.
+     */
+    public float getDspCostMillisPerSecond() {
+        long frames = dspFrames;
+        return frames == 0 ? 0 : (dspNanos / 1e6f) / (frames / (float) sampleRate);
+    }
+
+    /**
+     * @return The loop start in milliseconds from the start of the track.
+     */
+    public int getLoopStart() {
+        return (int) (getLoopStartFrame() * 1000 / sampleRate);
+    }
+
+    /**
+     * @return The loop stop in milliseconds from the start of the track.
+     */
+    public int getLoopStop() {
+        long loopStop = getLoopStopFrame();
+        return loopStop == LoopBounds.UNBOUNDED ? Integer.MAX_VALUE : (int) (loopStop * 1000 / sampleRate);
+    }
+
+    /**
+     * @return The loop start and stop in frames, packed by {@link LoopBounds}. Unlike two calls of
+     *         {@link #getLoopStartFrame()} and {@link #getLoopStopFrame()}, always a pair that was set together.
+     */
+    public long getLoopBounds() {
+        return loopBounds.get();
+    }
+
+    @Override
+    public long getLoopStartFrame() {
+        return LoopBounds.start(loopBounds.get());
+    }
+
+    @Override
+    public long getLoopStopFrame() {
+        return LoopBounds.stop(loopBounds.get());
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return The length of the track in frames, or 0 if unknown.
+     */
+    public long getFrameCount() {
+        synchronized (lock) {
+            return frameCount;
+        }
+    }
+
+    /**
+     * @return The length of the track in milliseconds, or 0 if unknown.
+     */
+    public int getDuration() {
+        synchronized (lock) {
+            return (int) (frameCount * 1000 / sampleRate);
+        }
+    }
+
+    /**
+     * @return The position that is currently audible, in milliseconds from the start of the track.
+     */
+    public int getCurrentPosition() {
+        return (int) (getCurrentFrame() * 1000 / sampleRate);
+    }
+
+    /**
+     * @return The source frame that is currently audible, accounting for the frames still queued in the sink.
+     */
+    @Override
+    public long getCurrentFrame() {
+        synchronized (markerLock) {
+            long played = Math.min(sink.getPlaybackFrame(), framesWritten);
+            int m = findMarker(played);
+            if (m < 0) {
+                return 0;
+            }
+            return markerSourceFrames[m] + (long) (markerRates[m] * Math.max(0, played - markerSinkFrames[m]));
+        }
+    }
+
+    /**
+     * @return How fast the audible position advances while playing, in source frames per second: the sample rate scaled
+     *         by the tempo the audible frames were rendered at. Together with {@link #getCurrentFrame()} this lets the
+     *         UI extrapolate the position between readings.
+     */
+    public double getPlaybackRate() {
+        synchronized (markerLock) {
+            int m = findMarker(Math.min(sink.getPlaybackFrame(), framesWritten));
+            return m < 0 ? sampleRate : (double) markerRates[m] * sampleRate;
+        }
+    }
+
+    /**
+     * @return The slot of the marker that the given sink frame is played under, or -1 if there are no markers. Must be
+     *         called with the marker lock held.
+     */
+    private int findMarker(long sinkFrame) {
+        int oldest = Math.max(0, markerCount - MAX_MARKERS);
+        for (int i = markerCount - 1; i >= oldest; i--) {
+            int m = i % MAX_MARKERS;
+            if (markerSinkFrames[m] <= sinkFrame || i == oldest) {
+                return m;
+            }
+        }
+        return -1;
+    }
+
+    private long msToFrames(int msec) {
+        return (long) msec * sampleRate / 1000;
+    }
+
+    private void renderLoop() {
+        PcmSource current = null;
+        try {
+            while (true) {
+                PcmSource retired = null;
+                boolean adopted = false;
+                long seek;
+                long seekNumber;
+                long seekRequested;
+                boolean play;
+                synchronized (lock) {
+                    while (!released && source == current && (current == null || (!playing && pendingSeek < 0))) {
+                        if (sinkPlaying) {
+                            sink.pause();
+                            sinkPlaying = false;
+                            seekSinkFrame = -1;
+                        }
+                        lock.wait();
+                    }
+                    if (released) {
+                        break;
+                    }
+                    if (source != current) {
+                        retired = current;
+                        current = source;
+                        adopted = true;
+                    }
+                    seek = pendingSeek;
+                    seekNumber = pendingSeekNumber;
+                    seekRequested = pendingSeekNanos;
+                    pendingSeek = -1;
+                    play = playing;
+                }
+
+                try {
+                    if (adopted) {
+                        if (retired != null) {
+                            retired.release();
+                            sink.pause();
+                            sink.flush();
+                            sinkPlaying = false;
+                        }
+                        if (current != null) {
+                            open(current);
+                        }
+                        continue;
+                    }
+                    if (seek >= 0) {
+                        current.seekTo(seek);
+                        sink.flush();
+                        long sinkFrame = sink.getPlaybackFrame();
+                        restart(seek, sinkFrame);
+                        // the latency is only meaningful if playback carries on right away
+                        seekSinkFrame = play ? sinkFrame : -1;
+                        seekNanos = seekRequested;
+                        OnSeekCompleteListener listener = onSeekCompleteListener;
+                        if (listener != null) {
+                            listener.onSeekComplete(this, seekNumber);
+                        }
+                    }
+                    if (play != sinkPlaying) {
+                        if (play) {
+                            sink.play();
+                        } else {
+                            sink.pause();
+                            seekSinkFrame = -1;
+                        }
+                        sinkPlaying = play;
+                    }
+                    if (play) {
+                        renderBlock(current);
+                        recordSeekLatency();
+                        if (awaitingFirstAudio == current && sink.getPlaybackFrame() > 0) {
+                            awaitingFirstAudio = null;
+                            OnFirstAudioListener listener = onFirstAudioListener;
+                            if (listener != null) {
+                                listener.onFirstAudio(this, current);
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    // stop playing this source rather than spinning on the error
+                    e.printStackTrace();
+                    synchronized (lock) {
+                        if (source == current) {
+                            playing = false;
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (current != null) {
+                current.release();
+            }
+            sink.release();
+        }
+    }
+
+    private void open(PcmSource source) throws IOException {
+        int sampleRate = source.getSampleRate();
+        int channelCount = source.getChannelCount();
+        sink.open(sampleRate, channelCount);
+        sinkPlaying = false;
+        if (buffer == null || buffer.length != BLOCK_FRAMES * channelCount) {
+            buffer = new short[BLOCK_FRAMES * channelCount];
+            floatBuffer = new float[BLOCK_FRAMES * channelCount];
+        }
+        stretcher = new TimeStretcher(sampleRate, channelCount, BLOCK_FRAMES);
+        resampler = new Resampler(channelCount, BLOCK_FRAMES);
+        loopHead = new short[MAX_CROSSFADE_MS * sampleRate / 1000 * channelCount];
+        loopHeadStart = -1;
+        awaitingFirstAudio = source;
+        restart(0, 0);
+    }
+
+    /**
+     * Renders one block, stopping short at the loop stop and wrapping to the loop start without touching the sink, so the
+     * last frame before the stop is immediately followed by the first frame of the loop.
+     */
+    private void renderBlock(PcmSource source) throws IOException {
+        float tempo = this.tempo;
+        float pitch = this.pitch;
+        if (!stretching && tempo == 1f && pitch == 1f) {
+            int read = readLooped(source, BLOCK_FRAMES);
+            write(buffer, read);
+            return;
+        }
+
+        int channelCount = source.getChannelCount();
+        if (!stretching || tempo != stretchTempo || pitch != stretchPitch) {
+            stretchTempo = tempo;
+            stretchPitch = pitch;
+            stretcher.setTempo(tempo / pitch);
+            resampler.setRatio(pitch);
+            stretching = true;
+            addMarker(framesWritten + getProcessingLatency(), position, tempo);
+        }
+
+        int space = Math.min(BLOCK_FRAMES, stretcher.getInputSpace());
+        int read = space > 0 ? readLooped(source, space) : 0;
+        long start = System.nanoTime();
+        if (read > 0) {
+            PcmMath.toFloat(buffer, floatBuffer, read * channelCount);
+            stretcher.put(floatBuffer, read);
+        }
+        int stretched = stretcher.receive(floatBuffer, Math.min(BLOCK_FRAMES, resampler.getInputSpace()));
+        resampler.put(floatBuffer, stretched);
+        int resampled = resampler.receive(floatBuffer, BLOCK_FRAMES);
+        PcmMath.toShort(floatBuffer, buffer, resampled * channelCount);
+        dspNanos += System.nanoTime() - start;
+        dspFrames += read;
+
+        write(buffer, resampled);
+    }
+
+    /**
+     * Records the latency of the last seek once its first frame has been played.
+     */
+    private void recordSeekLatency() {
+        if (seekSinkFrame < 0 || sink.getPlaybackFrame() <= seekSinkFrame) {
+            return;
+        }
+        seekSinkFrame = -1;
+        LoopStats stats = this.stats;
+        if (stats != null) {
+            stats.recordSeekLatency((System.nanoTime() - seekNanos) / 1000);
+        }
+    }
+
+    /**
+     * @return The number of sink frames between the frames read from the source next and the sink.
+     */
+    private long getProcessingLatency() {
+        return stretching ? resampler.getLatencyFrames() + (long) (stretcher.getLatencyFrames() / resampler.getRatio()) : 0;
+    }
+
+    /**
+     * Reads up to the given number of frames into {@link #buffer}, but not past the loop stop. Once the stop or the end of
+     * the track is reached, seeks back to the loop start instead and returns 0. The frames leading up to the stop are
+     * crossfaded into the loop head, in which case playback resumes after the part of the head already faded in.
+     */
+    private int readLooped(PcmSource source, int maxFrames) throws IOException {
+        long bounds = loopBounds.get();
+        long loopStart = LoopBounds.start(bounds);
+        long loopStop = LoopBounds.stop(bounds);
+        if (position < loopStart || position >= loopStop) {
+            LoopStats stats = this.stats;
+            if (stats != null && position >= loopStop) {
+                // zero unless the loop stop was moved back past the frames already played
+                stats.recordOvershoot((position - loopStop) * 1000000 / sampleRate);
+            }
+            wrap(source, loopStart);
+            return 0;
+        }
+
+        int read = source.read(buffer, 0, (int) Math.min(maxFrames, loopStop - position));
+        if (read < 0) {
+            // the track ended before the loop stop did
+            wrap(source, loopStart);
+            return 0;
+        }
+        captureLoopHead(source.getChannelCount(), read, loopStart);
+        fadeIntoLoopHead(source.getChannelCount(), read, loopStart, loopStop);
+        position += read;
+        return read;
+    }
+
+    /**
+     * Copies whatever part of the loop head the frames just read (starting at {@link #position}) cover.
+     */
+    private void captureLoopHead(int channelCount, int frames, long loopStart) {
+        if (position <= loopStart && position + frames > loopStart) {
+            loopHeadStart = loopStart;
+            loopHeadFrames = 0;
+        }
+        int capacity = loopHead.length / channelCount;
+        long next = loopStart + loopHeadFrames;
+        if (loopHeadStart != loopStart || loopHeadFrames == capacity || position > next || position + frames <= next) {
+            return;
+        }
+        int offset = (int) (next - position);
+        int count = Math.min(frames - offset, capacity - loopHeadFrames);
+        System.arraycopy(buffer, offset * channelCount, loopHead, loopHeadFrames * channelCount, count * channelCount);
+        loopHeadFrames += count;
+    }
+
+    /**
+     * Mixes the loop head into whatever part of the last frames before the loop stop the frames just read cover.
+     */
+    private void fadeIntoLoopHead(int channelCount, int frames, long loopStart, long loopStop) {
+        int fade = crossfadeMs * sampleRate / 1000;
+        if (fade == 0 || loopHeadStart != loopStart || loopHeadFrames < fade || loopStop - loopStart < 2 * fade) {
+            return;
+        }
+        long fadeStart = loopStop - fade;
+        if (position + frames <= fadeStart) {
+            return;
+        }
+        int first = (int) Math.max(0, fadeStart - position);
+        int k = (int) (position + first - fadeStart);
+        PcmMath.crossfade(buffer, first, loopHead, k, frames - first, channelCount, fade);
+        fadedThrough = loopStart + k + frames - first;
+    }
+
+    private void write(short[] buffer, int frames) {
+        int written = 0;
+        while (written < frames) {
+            int n = sink.write(buffer, written, frames - written);
+            if (n <= 0) {
+                break;
+            }
+            written += n;
+        }
+        synchronized (markerLock) {
+            framesWritten += written;
+        }
+    }
+
+    private void wrap(PcmSource source, long loopStart) throws IOException {
+        // skip the part of the loop head that was already faded in
+        long resume = loopStart;
+        if (loopHeadStart == loopStart && fadedThrough > loopStart && fadedThrough <= loopStart + loopHeadFrames) {
+            resume = fadedThrough;
+        }
+        fadedThrough = -1;
+        source.seekTo(resume);
+        position = resume;
+        // frames still buffered in the stretcher come out before the ones read after the wrap
+        addMarker(framesWritten + getProcessingLatency(), resume, stretching ? tempo : 1f);
+    }
+
+    /**
+     * Continues from the given source frame with nothing buffered, after the sink has been opened or flushed.
+     */
+    private void restart(long sourceFrame, long sinkFrame) {
+        position = sourceFrame;
+        fadedThrough = -1;
+        stretcher.clear();
+        resampler.clear();
+        stretching = false;
+        synchronized (markerLock) {
+            framesWritten = sinkFrame;
+        }
+        addMarker(sinkFrame, sourceFrame, 1f);
+    }
+
+    private void addMarker(long sinkFrame, long sourceFrame, float rate) {
+        synchronized (markerLock) {
+            int m = markerCount % MAX_MARKERS;
+            markerSinkFrames[m] = sinkFrame;
+            markerSourceFrames[m] = sourceFrame;
+            markerRates[m] = rate;
+            markerCount++;
+        }
+    }
+}
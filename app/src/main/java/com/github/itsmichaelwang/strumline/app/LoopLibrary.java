@@ -0,0 +1,367 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent store for the loops the user saved, per track, keyed by the track's {@link ContentFingerprint} so that
+ * they are found again however the file is picked.<br />
+ * <br />
+ * The store is an append-only log: saving a loop appends it, and deleting one appends a tombstone. Each record is
+ * little-endian, prefixed with its length and CRC-32, so a record torn by the process dying mid-write is detected and
+ * cut off on the next open instead of corrupting the rest. Opening reads the whole log once into an in-memory index by
+ * fingerprint, after which listing the loops of a track is a map lookup. Once more than half of the records are
+ * replaced or deleted loops, the log is rewritten with only the live ones.
+ */
+public class LoopLibrary {
+
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int MAGIC = 0x53544c4c;    // "STLL"
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;     // length and CRC-32 of the body that follows
+    private static final byte TYPE_SAVE = 1;
+    private static final byte TYPE_DELETE = 2;
+    private static final int MIN_DEAD_RECORDS_TO_COMPACT = 256;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // loops of a track are listed by where they start on it
+    private static final Comparator<SavedLoop> BY_POSITION = new Comparator<SavedLoop>() {
+        @Override
+        public int compare(SavedLoop a, SavedLoop b) {
+            // in time rather than frames, since loops may be counted at different sample rates
+            long startA = a.getLoopStartFrame() * b.getSampleRate();
+            long startB = b.getLoopStartFrame() * a.getSampleRate();
+            if (startA != startB) {
+                return startA < startB ? -1 : 1;
+            }
+            return a.getId() < b.getId() ? -1 : a.getId() > b.getId() ? 1 : 0;
+        }
+    };
+
+    private final File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private long size;
+    private final Map<Long, SavedLoop> loops = new HashMap<Long, SavedLoop>();
+    private final Map<String, List<SavedLoop>> loopsByTrack = new HashMap<String, List<SavedLoop>>();
+    private long nextId = 1;
+    private int deadRecords = 0;        // records of loops since replaced or deleted, and tombstones
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Opens the library, creating it if the file does not exist yet. This reads the whole log, so call it off the main
+     * thread.
+     *
+     * @param file
+     *            Where to keep the log, usually below {@link android.content.Context#getFilesDir()}, since unlike
+     *            analysis results the loops cannot be recreated.
+     */
+    public LoopLibrary(File file) throws IOException {
+        this.file = file;
+        File parent = file.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        open();
+        load();
+        compactIfWasteful();
+    }
+
+    /**
+     * @return A single-thread executor to open, write and close a library on, in the order the tasks are submitted, so
+     *         that writes never wait behind other background work and closing comes after the last of them.
+     */
+    public static ExecutorService newExecutor() {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "LoopLibrary");
+            }
+        });
+    }
+
+    /**
+     * @return The loops saved for the given track, by where they start. Empty if there are none.
+     */
+    public synchronized List<SavedLoop> getLoops(String fingerprint) {
+        List<SavedLoop> trackLoops = loopsByTrack.get(fingerprint);
+        if (trackLoops == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(new ArrayList<SavedLoop>(trackLoops));
+    }
+
+    /**
+     * @return The loop with the given id, or null if there is none.
+     */
+    public synchronized SavedLoop getLoop(long id) {
+        return loops.get(id);
+    }
+
+    public synchronized int getLoopCount() {
+        return loops.size();
+    }
+
+    /**
+     * @return The number of tracks with saved loops.
+     */
+    public synchronized int getTrackCount() {
+        return loopsByTrack.size();
+    }
+
+    /**
+     * Saves a new loop. See {@link SavedLoop} for the arguments.
+     *
+     * @return The loop as saved, with its id.
+     */
+    public synchronized SavedLoop save(String fingerprint, String name, long loopStart, long loopStop, int sampleRate,
+            float tempo, int semitones, int cents, String notes) throws IOException {
+        SavedLoop loop = new SavedLoop(nextId, fingerprint, name, loopStart, loopStop, sampleRate, tempo, semitones,
+                cents, notes, System.currentTimeMillis());
+        append(encodeSave(loop));
+        nextId++;
+        add(loop);
+        return loop;
+    }
+
+    /**
+     * Deletes a loop.
+     *
+     * @return Whether there was a loop with the given id.
+     */
+    public synchronized boolean delete(long id) throws IOException {
+        if (!loops.containsKey(id)) {
+            return false;
+        }
+        ByteBuffer body = allocate(1 + 8);
+        body.put(TYPE_DELETE).putLong(id);
+        append(body);
+        remove(id);
+        deadRecords += 2;
+        compactIfWasteful();
+        return true;
+    }
+
+    public synchronized void close() throws IOException {
+        raf.close();
+    }
+
+    private void open() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        size = channel.size();
+        if (size == 0) {
+            ByteBuffer header = allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            size = HEADER_SIZE;
+        }
+    }
+
+    private void load() throws IOException {
+        // the log is small next to the audio (tens of thousands of loops are a few MB), so one read beats mapping it
+        byte[] data = new byte[(int) size];
+        raf.seek(0);
+        raf.readFully(data);
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        if (size < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+            raf.close();
+            throw new IOException("Not a loop library of version " + FORMAT_VERSION + ": " + file);
+        }
+
+        long valid = HEADER_SIZE;
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            int start = buffer.position();
+            if (length <= 0 || length > buffer.remaining()) {
+                break;
+            }
+            crc.reset();
+            crc.update(data, start, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            byte type = buffer.get();
+            long id = buffer.getLong();
+            if (type == TYPE_SAVE) {
+                SavedLoop loop = decodeSave(id, buffer);
+                if (loops.put(id, loop) != null) {
+                    deadRecords++;
+                }
+            } else if (type == TYPE_DELETE) {
+                if (loops.remove(id) != null) {
+                    deadRecords++;
+                }
+                deadRecords++;
+            } else {
+                break;
+            }
+            nextId = Math.max(nextId, id + 1);
+            buffer.position(start + length);
+            valid = buffer.position();
+        }
+        if (valid < size) {
+            // the tail was torn by a crash while appending; whatever came after it was never acknowledged
+            channel.truncate(valid);
+            size = valid;
+        }
+
+        // group by track only once the log has been replayed, and sort each track once
+        for (SavedLoop loop : loops.values()) {
+            List<SavedLoop> trackLoops = loopsByTrack.get(loop.getFingerprint());
+            if (trackLoops == null) {
+                trackLoops = new ArrayList<SavedLoop>();
+                loopsByTrack.put(loop.getFingerprint(), trackLoops);
+            }
+            trackLoops.add(loop);
+        }
+        for (List<SavedLoop> trackLoops : loopsByTrack.values()) {
+            Collections.sort(trackLoops, BY_POSITION);
+        }
+    }
+
+    private void add(SavedLoop loop) {
+        loops.put(loop.getId(), loop);
+        List<SavedLoop> trackLoops = loopsByTrack.get(loop.getFingerprint());
+        if (trackLoops == null) {
+            trackLoops = new ArrayList<SavedLoop>();
+            loopsByTrack.put(loop.getFingerprint(), trackLoops);
+        }
+        int index = Collections.binarySearch(trackLoops, loop, BY_POSITION);
+        trackLoops.add(index < 0 ? -index - 1 : index, loop);
+    }
+
+    private void remove(long id) {
+        SavedLoop loop = loops.remove(id);
+        List<SavedLoop> trackLoops = loopsByTrack.get(loop.getFingerprint());
+        trackLoops.remove(loop);
+        if (trackLoops.isEmpty()) {
+            loopsByTrack.remove(loop.getFingerprint());
+        }
+    }
+
+    /**
+     * Appends a record with the given body, which is read from its start up to its position.
+     */
+    private void append(ByteBuffer body) throws IOException {
+        ByteBuffer record = toRecord(body);
+        long position = size;
+        while (record.hasRemaining()) {
+            position += channel.write(record, position);
+        }
+        size = position;
+    }
+
+    private void compactIfWasteful() throws IOException {
+        if (deadRecords < MIN_DEAD_RECORDS_TO_COMPACT || deadRecords < loops.size()) {
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+        long compactedSize;
+        try {
+            out.setLength(0);
+            FileChannel outChannel = out.getChannel();
+            ByteBuffer header = allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+            while (header.hasRemaining()) {
+                outChannel.write(header);
+            }
+            for (SavedLoop loop : loops.values()) {
+                ByteBuffer record = toRecord(encodeSave(loop));
+                while (record.hasRemaining()) {
+                    outChannel.write(record);
+                }
+            }
+            outChannel.force(true);
+            compactedSize = outChannel.size();
+        } finally {
+            out.close();
+        }
+
+        raf.close();
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            // keep appending to the old log, which is still complete
+            open();
+            throw new IOException("Could not rename " + tmp);
+        }
+        open();
+        size = compactedSize;
+        deadRecords = 0;
+    }
+
+    /**
+     * @return The given body, read from its start up to its position, prefixed with its length and checksum and ready
+     *         to be written.
+     */
+    private ByteBuffer toRecord(ByteBuffer body) {
+        int length = body.position();
+        crc.reset();
+        crc.update(body.array(), 0, length);
+        ByteBuffer record = allocate(RECORD_HEADER_SIZE + length);
+        record.putInt(length).putInt((int) crc.getValue()).put(body.array(), 0, length).flip();
+        return record;
+    }
+
+    private static ByteBuffer encodeSave(SavedLoop loop) {
+        byte[] fingerprint = loop.getFingerprint().getBytes(UTF_8);
+        byte[] name = loop.getName().getBytes(UTF_8);
+        byte[] notes = loop.getNotes().getBytes(UTF_8);
+        ByteBuffer body = allocate(1 + 8 + 8 + 4 + fingerprint.length + 4 + name.length + 8 + 8 + 4 + 4 + 4 + 4 + 4
+                + notes.length);
+        body.put(TYPE_SAVE).putLong(loop.getId()).putLong(loop.getSavedAt());
+        body.putInt(fingerprint.length).put(fingerprint);
+        body.putInt(name.length).put(name);
+        body.putLong(loop.getLoopStartFrame()).putLong(loop.getLoopStopFrame()).putInt(loop.getSampleRate());
+        body.putFloat(loop.getTempo());
+        body.putInt(loop.getSemitones()).putInt(loop.getCents());
+        body.putInt(notes.length).put(notes);
+        return body;
+    }
+
+    private static SavedLoop decodeSave(long id, ByteBuffer buffer) {
+        long savedAt = buffer.getLong();
+        String fingerprint = getString(buffer);
+        String name = getString(buffer);
+        long loopStart = buffer.getLong();
+        long loopStop = buffer.getLong();
+        int sampleRate = buffer.getInt();
+        float tempo = buffer.getFloat();
+        int semitones = buffer.getInt();
+        int cents = buffer.getInt();
+        String notes = getString(buffer);
+        return new SavedLoop(id, fingerprint, name, loopStart, loopStop, sampleRate, tempo, semitones, cents, notes,
+                savedAt);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String string = new String(buffer.array(), buffer.position(), length, UTF_8);
+        buffer.position(buffer.position() + length);
+        return string;
+    }
+
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
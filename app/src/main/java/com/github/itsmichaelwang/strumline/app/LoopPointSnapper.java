@@ -0,0 +1,126 @@
+package com.github.itsmichaelwang.strumline.app;
+
+/**
+ * Moves loop points to a nearby spot where the wrap will not click: either the nearest rising zero crossing, or just
+ * before the nearest note onset. Both are looked up in the track's {@link PeakPyramid}, so snapping is instant and
+ * never decodes audio; points in a part of the track that has not been analyzed yet are left as they are.<br />
+ * <br />
+ * Onsets are level 0 buckets whose peak-to-peak amplitude jumps well above that of the buckets just before them, which
+ * places them to within {@link PeakPyramid#BASE_BUCKET_FRAMES} frames.
+ */
+public class LoopPointSnapper {
+
+    public enum Mode {
+        OFF, ZERO_CROSSING, ONSET
+    }
+
+    private static final int ONSET_HISTORY_BUCKETS = 4;   // buckets the amplitude of an onset is compared against
+    private static final float ONSET_RATIO = 2f;          // how far an onset's amplitude must rise above them
+    private static final int ONSET_MIN_RANGE = 2048;      // quieter buckets are never onsets (about -30 dBFS)
+
+    private PeakPyramid peaks = null;
+    private Mode mode = Mode.OFF;
+    private int windowMs;
+
+    /**
+     * @param windowMs
+     *            How far a point may move, in either direction.
+     */
+    public LoopPointSnapper(int windowMs) {
+        this.windowMs = windowMs;
+    }
+
+    public void setPeaks(PeakPyramid peaks) {
+        this.peaks = peaks;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setWindowMs(int windowMs) {
+        this.windowMs = windowMs;
+    }
+
+    public int getWindowMs() {
+        return windowMs;
+    }
+
+    /**
+     * @return The frame to put a loop point at instead of the given one, which is the given one itself if there is no
+     *         better spot within the window.
+     */
+    public long snap(long frame) {
+        PeakPyramid peaks = this.peaks;
+        if (mode == Mode.OFF || peaks == null) {
+            return frame;
+        }
+        long window = (long) windowMs * peaks.getSampleRate() / 1000;
+        int count = peaks.getBucketCount();
+        int first = (int) Math.max(0, (frame - window) / PeakPyramid.BASE_BUCKET_FRAMES);
+        int last = (int) Math.min(count - 1, (frame + window) / PeakPyramid.BASE_BUCKET_FRAMES);
+        if (first > last) {
+            return frame;
+        }
+        return mode == Mode.ONSET
+                ? snapToOnset(peaks, frame, window, first, last)
+                : snapToZeroCrossing(peaks, frame, window, first, last);
+    }
+
+    private long snapToZeroCrossing(PeakPyramid peaks, long frame, long window, int first, int last) {
+        long best = frame;
+        long bestDistance = window + 1;
+        for (int bucket = first; bucket <= last; bucket++) {
+            long crossing = peaks.getZeroCrossing(bucket);
+            long distance = Math.abs(crossing - frame);
+            if (crossing >= 0 && distance < bestDistance) {
+                best = crossing;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    private long snapToOnset(PeakPyramid peaks, long frame, long window, int first, int last) {
+        int best = -1;
+        long bestDistance = window + 1;
+        boolean previousOnset = isOnset(peaks, first - 1);
+        for (int bucket = first; bucket <= last; bucket++) {
+            boolean onset = isOnset(peaks, bucket);
+            // only the first bucket of an attack counts
+            if (onset && !previousOnset) {
+                long distance = Math.abs((long) bucket * PeakPyramid.BASE_BUCKET_FRAMES - frame);
+                if (distance < bestDistance) {
+                    best = bucket;
+                    bestDistance = distance;
+                }
+            }
+            previousOnset = onset;
+        }
+        if (best < 0) {
+            return frame;
+        }
+        // start on the last zero crossing before the attack, so the onset is not cut into
+        long crossing = best > 0 ? peaks.getZeroCrossing(best - 1) : -1;
+        return crossing >= 0 ? crossing : (long) best * PeakPyramid.BASE_BUCKET_FRAMES;
+    }
+
+    private static boolean isOnset(PeakPyramid peaks, int bucket) {
+        if (bucket < ONSET_HISTORY_BUCKETS) {
+            return false;
+        }
+        int range = peaks.getBucketRange(bucket);
+        if (range < ONSET_MIN_RANGE) {
+            return false;
+        }
+        int history = 0;
+        for (int i = bucket - ONSET_HISTORY_BUCKETS; i < bucket; i++) {
+            history += peaks.getBucketRange(i);
+        }
+        return range > ONSET_RATIO * history / ONSET_HISTORY_BUCKETS;
+    }
+}
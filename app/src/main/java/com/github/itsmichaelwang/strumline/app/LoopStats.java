@@ -0,0 +1,102 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+/**
+ * Measures how accurately loops are played, as {@link LatencyHistogram}s in microseconds, so that engines and devices
+ * can be compared with numbers rather than by ear:
+ * <ul>
+ * <li>boundary overshoot: how far past the loop stop playback ran before wrapping, once per loop iteration;</li>
+ * <li>seek latency: from a seek being requested until its first frame is audible;</li>
+ * <li>callback jitter: how late the position callbacks to the UI were woken up.</li>
+ * </ul>
+ * Recording is cheap and allocation-free. The figures can be shown in a debug overlay with {@link #getSummary()}, and
+ * exported as CSV or in the compact binary form of the histograms.
+ */
+public class LoopStats {
+
+    private static final long MAX_MICROS = 60000000L;
+
+    private final LatencyHistogram overshoot = new LatencyHistogram(MAX_MICROS);
+    private final LatencyHistogram seekLatency = new LatencyHistogram(MAX_MICROS);
+    private final LatencyHistogram callbackJitter = new LatencyHistogram(MAX_MICROS);
+
+    public void recordOvershoot(long micros) {
+        overshoot.record(micros);
+    }
+
+    public void recordSeekLatency(long micros) {
+        seekLatency.record(micros);
+    }
+
+    public void recordCallbackJitter(long micros) {
+        callbackJitter.record(micros);
+    }
+
+    public LatencyHistogram getOvershoot() {
+        return overshoot;
+    }
+
+    public LatencyHistogram getSeekLatency() {
+        return seekLatency;
+    }
+
+    public LatencyHistogram getCallbackJitter() {
+        return callbackJitter;
+    }
+
+    public void reset() {
+        overshoot.reset();
+        seekLatency.reset();
+        callbackJitter.reset();
+    }
+
+    /**
+     * @return One line per histogram with its count, median, 99th percentile and maximum, for a debug overlay.
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        appendSummary(summary, "overshoot", overshoot);
+        summary.append('\n');
+        appendSummary(summary, "seek     ", seekLatency);
+        summary.append('\n');
+        appendSummary(summary, "jitter   ", callbackJitter);
+        return summary.toString();
+    }
+
+    /**
+     * Writes the non-empty buckets of all histograms as CSV, with a header line.
+     */
+    public void writeCsv(Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+        out.println("metric,low_us,high_us,count");
+        overshoot.writeCsv(out, "overshoot");
+        seekLatency.writeCsv(out, "seek_latency");
+        callbackJitter.writeCsv(out, "callback_jitter");
+        out.flush();
+    }
+
+    /**
+     * Writes the three histograms one after the other, as {@link LatencyHistogram#writeTo(DataOutputStream)} does.
+     */
+    public void writeBinary(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        overshoot.writeTo(out);
+        seekLatency.writeTo(out);
+        callbackJitter.writeTo(out);
+        out.flush();
+    }
+
+    private static void appendSummary(StringBuilder summary, String name, LatencyHistogram histogram) {
+        summary.append(name)
+                .append("  n=").append(histogram.getTotalCount())
+                .append("  p50=").append(histogram.getValueAtPercentile(50))
+                .append("  p99=").append(histogram.getValueAtPercentile(99))
+                .append("  max=").append(histogram.getMax())
+                .append(" us");
+    }
+}
@@ -1,54 +1,129 @@
 package com.github.itsmichaelwang.strumline.app;
 
+import android.app.AlertDialog;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
-import android.media.MediaPlayer;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
 import android.support.v7.app.ActionBarActivity;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.DragEvent;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AdapterView;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.widget.RelativeLayout;
+import android.widget.SeekBar;
 import android.widget.TextView;
+import android.widget.Toast;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 public class MainActivity extends ActionBarActivity implements View.OnClickListener{
 
+    private static final String TAG = "MainActivity";
     private static final int SELECT_FILE_REQUEST = 1;
+    private static final long ANALYSIS_CACHE_BYTES = 32 * 1024 * 1024;
+    private static final int MIN_SPEED_PERCENT = 25;
+    private static final int MIN_SEMITONES = -12;
+    private static final int MIN_CENTS = -50;
+    private static final int SNAP_WINDOW_MS = 30;
+    private static final int DEFAULT_CROSSFADE_MS = 10;
+    private static final long PCM_CACHE_MEMORY_BYTES = 16 * 1024 * 1024;     // about 90 s of 44.1 kHz stereo
+    private static final long PCM_CACHE_SPILL_BYTES = 256 * 1024 * 1024;
+    private static final long DEBUG_OVERLAY_INTERVAL_MS = 500;
+    private static final long LOOP_SETTLE_MS = 250;
 
     // UI elements
     private Button btnSongSelect;
     private Button btnSetLoopStart;
     private Button btnSetLoopStop;
     private Button btnPlayPause;
+    private Button btnCancelLoad;
+    private ProgressBar progressLoading;   // stages of loading a song, see SongLoader
 
     private EditText txtCurPos;         // fields that tell you the time of current song position, and loop boundaries
     private EditText txtLoopStart;
     private EditText txtLoopStop;
 
+    private final TimeFormatter curPosFormatter = new TimeFormatter(false);     // text of the above fields, reused
+    private final TimeFormatter loopStartFormatter = new TimeFormatter(true);
+    private final TimeFormatter loopStopFormatter = new TimeFormatter(true);
+
     private TextView txtViewCurPos;     // text labels for the above fields
     private TextView txtViewLoopStart;
     private TextView txtViewLoopStop;
 
-    private boolean firstLoad = true;   // keep track of first load for special instruction
-    private MediaPlayer mediaPlayer = null;
-    private boolean songPaused = false;
+    private TextView txtViewSpeed;      // playback speed, from 25% to 150%
+    private SeekBar seekSpeed;
+    private TextView txtViewTranspose;  // transposition, up to an octave either way in semitones and cents
+    private SeekBar seekSemitones;
+    private SeekBar seekCents;
+    private TextView txtViewTempo;      // estimated tempo of the song
+    private TextView txtViewKey;        // estimated key of the loop
+    private TextView txtViewDebug;      // loop stats overlay, hidden unless turned on in the menu
 
-    private RangeSeekBar<Integer> seekBar = null;
-    private int loopStart = 0;              // start and stop time of the loop, in ms from song start
-    private int loopStop;
+    private boolean firstLoad = true;   // keep track of first load for special instruction
+    private LoopEngine loopEngine = null;
+    private SongLoader songLoader = null;   // the song being loaded, or null
+    private PcmRegionCache regionCache = null;          // decoded frames of the loop of the current song
+    private volatile PcmSource loadedSource = null;     // the last song handed to the engine, and when it was picked
+    private volatile long loadStartNanos = 0;
+    private volatile long timeToFirstAudioMillis = -1;
+    private PlaybackScheduler scheduler = null;
+    private PlayheadAnimator playheadAnimator = null;
+    private final LoopStats loopStats = new LoopStats();     // boundary overshoot, seek latency and callback jitter
+    private boolean showLoopStats = false;
+    private LoopController loopController = null;     // play/pause state and loop bounds, see updateLoopBounds()
+    private WaveformAnalyzer waveformAnalyzer = null;
+    private ChordAnalyzer chordAnalyzer = null;
+    private volatile AnalysisCache analysisCache = null;    // derived data of all songs, null until opened
+    private volatile LoopLibrary loopLibrary = null;    // saved loops of all songs, null until opened
+    private String songFingerprint = null;              // the ContentFingerprint of the current song, or null
+    private ExecutorService analysisExecutor = null;
+    private ExecutorService loopLibraryExecutor = null;     // opens, writes and closes the loop library, in order
+    private LoopPointSnapper loopPointSnapper = new LoopPointSnapper(SNAP_WINDOW_MS);
+    private BeatGrid beatGrid = null;
+    private boolean snapToBeats = false;    // whether the seek bar thumbs snap to beats, or bars
+    private boolean snapToBars = false;
+
+    private IntRangeSeekBar seekBar = null;
 
     // Link handler to Main/UI thread for UI operations later
     private Handler mHandler = new Handler(Looper.getMainLooper());
 
+    // Refreshes the loop stats overlay while it is shown
+    private final Runnable loopStatsUpdater = new Runnable() {
+        @Override
+        public void run() {
+            txtViewDebug.setText(loopStats.getSummary());
+            mHandler.postDelayed(this, DEBUG_OVERLAY_INTERVAL_MS);
+        }
+    };
+
+    // Lets the region cache and the chord analysis follow the loop once it has stopped moving, not on every drag update
+    private final Runnable loopSettledNotifier = new Runnable() {
+        @Override
+        public void run() {
+            onLoopChanged();
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -59,6 +134,9 @@ public class MainActivity extends ActionBarActivity implements View.OnClickListe
         btnSetLoopStart = (Button) findViewById(R.id.btn_set_loop_start);
         btnSetLoopStop = (Button) findViewById(R.id.btn_set_loop_stop);
         btnPlayPause = (Button) findViewById(R.id.btn_play_pause);
+        btnCancelLoad = (Button) findViewById(R.id.btn_cancel_load);
+        progressLoading = (ProgressBar) findViewById(R.id.progress_loading);
+        progressLoading.setMax(SongLoader.STAGES);
 
         txtCurPos = (EditText) findViewById(R.id.txt_cur_pos);
         txtLoopStart = (EditText) findViewById(R.id.txt_loop_start);
@@ -68,14 +146,118 @@ public class MainActivity extends ActionBarActivity implements View.OnClickListe
         txtViewLoopStart = (TextView) findViewById(R.id.txtView_loop_start);
         txtViewLoopStop = (TextView) findViewById(R.id.txtView_loop_stop);
 
+        txtViewSpeed = (TextView) findViewById(R.id.txtView_speed);
+        seekSpeed = (SeekBar) findViewById(R.id.seek_speed);
+        txtViewTranspose = (TextView) findViewById(R.id.txtView_transpose);
+        seekSemitones = (SeekBar) findViewById(R.id.seek_semitones);
+        seekCents = (SeekBar) findViewById(R.id.seek_cents);
+        txtViewTempo = (TextView) findViewById(R.id.txtView_tempo);
+        txtViewKey = (TextView) findViewById(R.id.txtView_key);
+        txtViewDebug = (TextView) findViewById(R.id.txtView_debug);
+
         // Set button listeners (see onClick() below)
         btnSongSelect.setOnClickListener(this);
         btnSetLoopStart.setOnClickListener(this);
         btnSetLoopStop.setOnClickListener(this);
         btnPlayPause.setOnClickListener(this);
+        btnCancelLoad.setOnClickListener(this);
+
+        // Slow down (or speed up) the song without changing its pitch
+        seekSpeed.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                int speed = MIN_SPEED_PERCENT + progress;
+                txtViewSpeed.setText(getString(R.string.txtView_speed, speed));
+                loopEngine.setTempo(speed / 100f);
+                if (playheadAnimator != null) {
+                    playheadAnimator.poke();
+                }
+            }
 
-        // Start the MediaPlayer service
-        mediaPlayer = new MediaPlayer();
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+            }
+        });
+        txtViewSpeed.setText(getString(R.string.txtView_speed, MIN_SPEED_PERCENT + seekSpeed.getProgress()));
+
+        // Transpose the song without changing its speed
+        SeekBar.OnSeekBarChangeListener transposeListener = new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                updateTranspose();
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+            }
+        };
+        seekSemitones.setOnSeekBarChangeListener(transposeListener);
+        seekCents.setOnSeekBarChangeListener(transposeListener);
+
+        // Start the playback engine, which handles looping itself
+        loopEngine = new LoopEngine(new AudioTrackSink());
+        loopController = new LoopController(loopEngine);
+        loopEngine.setOnFirstAudioListener(new LoopEngine.OnFirstAudioListener() {
+            @Override
+            public void onFirstAudio(LoopEngine engine, PcmSource source) {
+                // time to first audio: from picking the song to hearing it
+                if (source == loadedSource) {
+                    timeToFirstAudioMillis = (System.nanoTime() - loadStartNanos) / 1000000;
+                    Log.i(TAG, "time to first audio: " + timeToFirstAudioMillis + " ms");
+                }
+            }
+        });
+        loopEngine.setCrossfade(DEFAULT_CROSSFADE_MS);
+        loopEngine.setStats(loopStats);
+        updateTranspose();
+
+        // Derived data (waveforms etc.) is kept across songs and sessions; opening the cache lists its directory, so it
+        // happens in the background, and songs picked before it is open are simply not cached
+        analysisExecutor = WaveformAnalyzer.newExecutor();
+        final File analysisCacheDirectory = new File(getCacheDir(), "analysis");
+        analysisExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                analysisCache = new AnalysisCache(analysisCacheDirectory, ANALYSIS_CACHE_BYTES);
+            }
+        });
+
+        // Saved loops are kept for good; opening the library reads all of them, so it happens in the background
+        final File loopLibraryFile = new File(getFilesDir(), "loops.log");
+        loopLibraryExecutor = LoopLibrary.newExecutor();
+        loopLibraryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    loopLibrary = new LoopLibrary(loopLibraryFile);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+
+        // A single scheduler updates the current position for as long as the activity is in the foreground
+        scheduler = new PlaybackScheduler(mHandler, 1000, new PlaybackScheduler.Callback() {
+            @Override
+            public void onPositionChanged(int currentPosition) {
+                if (curPosFormatter.format(currentPosition)) {
+                    txtCurPos.setText(curPosFormatter.getChars(), 0, curPosFormatter.getLength());
+                }
+            }
+        });
+
+        scheduler.setStats(loopStats);
+
+        // The playhead on the SeekBar moves every display frame, extrapolated from the engine's clock
+        playheadAnimator = new PlayheadAnimator(getWindowManager().getDefaultDisplay().getRefreshRate());
     }
 
     @Override
@@ -86,28 +268,28 @@ public class MainActivity extends ActionBarActivity implements View.OnClickListe
                 intent.setType("audio/*");
                 startActivityForResult(intent, SELECT_FILE_REQUEST);
                 break;
+            case R.id.btn_cancel_load:
+                if (songLoader != null) {
+                    songLoader.cancel();
+                    finishLoading();
+                }
+                break;
             case R.id.btn_set_loop_start:
-                // Set current position as new loopStart
-                int loopStart = mediaPlayer.getCurrentPosition();
-                updateLoopBounds(loopStart, this.loopStop);
-                seekBar.setSelectedMinValue(loopStart);
+                // Set current position as new loopStart, snapped to a spot where the wrap won't click
+                loopController.setLoopStartFrame(loopPointSnapper.snap(loopEngine.getCurrentFrame()));
+                onLoopBoundsChanged();
+                seekBar.setSelectedMinValue(loopController.getLoopStart());
                 break;
             case R.id.btn_set_loop_stop:
-                // Set current position as new loopStop
-                int loopStop = mediaPlayer.getCurrentPosition();
-                updateLoopBounds(this.loopStart, loopStop);
-                seekBar.setSelectedMaxValue(loopStop);
+                // Set current position as new loopStop, snapped the same way
+                loopController.setLoopStopFrame(loopPointSnapper.snap(loopEngine.getCurrentFrame()));
+                onLoopBoundsChanged();
+                seekBar.setSelectedMaxValue(loopController.getLoopStop());
                 break;
             case R.id.btn_play_pause:
-                if (songPaused) {
-                    songPaused = false;
-                    btnPlayPause.setText("Pause");
-                    mediaPlayer.start();
-                } else {
-                    songPaused = true;
-                    btnPlayPause.setText("Play");
-                    mediaPlayer.pause();
-                }
+                btnPlayPause.setText(loopController.togglePlayPause() ? "Play" : "Pause");
+                scheduler.poke();
+                playheadAnimator.poke();
         }
     }
 
@@ -117,75 +299,185 @@ public class MainActivity extends ActionBarActivity implements View.OnClickListe
         switch (requestCode) {
             case SELECT_FILE_REQUEST:
                 if (resultCode == RESULT_OK) {
-                    // only show hidden UI elements the first time
-                    if (firstLoad) {
-                        showInterface();
-                        firstLoad = false;
+                    // Open the song in the background; the current one keeps playing until the new one is ready
+                    startLoading(data.getData());
+                }
+                break;
+        }
+    }
+
+    // cancel any song still loading and start loading the given one, showing the progress
+    private void startLoading(Uri uri) {
+        if (songLoader != null) {
+            songLoader.cancel();
+        }
+        progressLoading.setProgress(0);
+        progressLoading.setVisibility(View.VISIBLE);
+        btnCancelLoad.setVisibility(View.VISIBLE);
+        songLoader = new SongLoader(this, uri, analysisCache, new SongLoader.Listener() {
+            @Override
+            public void onStageStarted(final SongLoader loader, final int stage) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (loader == songLoader) {
+                            progressLoading.setProgress(stage);
+                        }
                     }
+                });
+            }
 
-                    // load mediaPlayer with selected song
-                    Context context = this.getApplicationContext();
-                    Uri myUri = data.getData();
-                    mediaPlayer.reset();
-                    try {
-                        mediaPlayer.setDataSource(context, myUri);
-                        mediaPlayer.prepare();
-                    } catch (IOException e) {
-                        e.printStackTrace();
+            @Override
+            public void onLoaded(final SongLoader loader, final PcmSource source, final String fingerprint,
+                    final Mp3SeekIndex seekIndex) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (loader != songLoader || loopEngine == null) {
+                            source.release();   // cancelled after the loader finished
+                            return;
+                        }
+                        finishLoading();
+                        onSongLoaded(loader, source, fingerprint, seekIndex);
                     }
-                    mediaPlayer.setLooping(true);
-                    mediaPlayer.start();
-
-                    // Create a SeekBar with the width of the song's length, if it hasn't already been made
-                    RelativeLayout layout = (RelativeLayout) findViewById(R.id.rl1);
-                    if (seekBar != null) {
-                        layout.removeView(seekBar);
-                        seekBar = null;
+                });
+            }
+
+            @Override
+            public void onFailed(final SongLoader loader, IOException e) {
+                e.printStackTrace();
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (loader == songLoader) {
+                            finishLoading();
+                        }
                     }
-                    int songLength = mediaPlayer.getDuration();
-                    seekBar = new RangeSeekBar<Integer>(0, songLength, context);
-                    layout.addView(seekBar);
+                });
+            }
+        });
+        songLoader.start();
+    }
 
-                    updateLoopBounds(0, songLength);
+    // hide the loading progress, and forget the loader so that late callbacks from it are ignored
+    private void finishLoading() {
+        songLoader = null;
+        progressLoading.setVisibility(View.GONE);
+        btnCancelLoad.setVisibility(View.GONE);
+    }
 
-                    seekBar.setOnRangeSeekBarChangeListener(new RangeSeekBar.OnRangeSeekBarChangeListener<Integer>() {
-                        @Override
-                        public void onRangeSeekBarValuesChanged(RangeSeekBar<?> bar, Integer minValue, Integer maxValue) {
-                            updateLoopBounds(minValue, maxValue);
-                        }
-                    });
-
-                    // Multi-threaded looping operation checks if song position has exceeded loopStop
-                    new Thread(new Runnable() {
-                        @Override
-                        public void run() {
-                            while (true) {
-                                int currentPosition = mediaPlayer.getCurrentPosition();
-                                if (currentPosition > loopStop || currentPosition < loopStart) {
-                                    mediaPlayer.seekTo(loopStart);
-                                }
-
-                                mHandler.post(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        int currentPosition = mediaPlayer.getCurrentPosition();
-                                        txtCurPos.setText(
-                                                TimeUnit.MILLISECONDS.toMinutes(currentPosition) + ":" +
-                                                        String.format("%02d", TimeUnit.MILLISECONDS.toSeconds(currentPosition) % 60));
-                                    }
-                                });
-
-                                try {
-                                    Thread.sleep(250);
-                                } catch (InterruptedException e) {
-                                    e.printStackTrace();
-                                }
+    // switch playback over to a song that has finished loading, and set up the seek bar and analysis for it
+    private void onSongLoaded(SongLoader loader, PcmSource source, String fingerprint, Mp3SeekIndex seekIndex) {
+        // only show hidden UI elements the first time
+        if (firstLoad) {
+            showInterface();
+            firstLoad = false;
+        }
+
+        // load loopEngine with selected song; it starts playing as soon as the decoder puts out its first buffer
+        Context context = this.getApplicationContext();
+        Uri myUri = loader.getUri();
+        loopEngine.reset();
+        // after the first pass, the loop plays from decoded frames kept in memory
+        regionCache = new PcmRegionCache(source, getCacheDir(), PCM_CACHE_MEMORY_BYTES, PCM_CACHE_SPILL_BYTES);
+        loadStartNanos = loader.getStartNanos();
+        loadedSource = regionCache;
+        loopEngine.setDataSource(regionCache);
+        loopEngine.prepare();
+        loopController.onSongLoaded();
+        songFingerprint = fingerprint;
+        btnPlayPause.setText("Pause");
+
+        // Create a SeekBar with the width of the song's length, if it hasn't already been made
+        RelativeLayout layout = (RelativeLayout) findViewById(R.id.rl1);
+        if (seekBar != null) {
+            layout.removeView(seekBar);
+            seekBar = null;
+        }
+        int songLength = loopEngine.getDuration();
+        seekBar = new IntRangeSeekBar(0, songLength, context);
+        seekBar.setNotifyWhileDragging(true);
+        layout.addView(seekBar);
+        beatGrid = null;
+        txtViewTempo.setText(R.string.txtView_tempo_unknown);
+        txtViewKey.setText(R.string.txtView_key_unknown);
+
+        updateLoopBounds(0, songLength);
+
+        seekBar.setOnRangeChangeListener(new IntRangeSeekBar.OnRangeChangeListener() {
+            @Override
+            public void onRangeChanged(int minValue, int maxValue) {
+                updateLoopBounds(minValue, maxValue);
+            }
+        });
+
+        // Analyze the waveform in the background, drawing it behind the SeekBar as it comes in
+        if (waveformAnalyzer != null) {
+            waveformAnalyzer.cancel();
+        }
+        if (chordAnalyzer != null) {
+            chordAnalyzer.cancel();
+        }
+        loopPointSnapper.setPeaks(null);
+        WaveformAnalyzer.Listener waveformListener = new WaveformAnalyzer.Listener() {
+            @Override
+            public void onPeaksUpdated(final PeakPyramid peaks, final boolean done) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // ignore updates from the analyzer of a previous song
+                        if (seekBar != null && peaks == waveformAnalyzer.getPeaks()) {
+                            seekBar.setWaveform(peaks);
+                            loopPointSnapper.setPeaks(peaks);
+                            if (done) {
+                                // loops too long to analyze on demand were waiting for the whole track
+                                requestChords();
                             }
                         }
-                    }).start();
-                }
-                break;
-        }
+                    }
+                });
+            }
+
+            @Override
+            public void onBeatGridUpdated(final BeatGrid beats, boolean done) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (seekBar != null && beats == waveformAnalyzer.getBeatGrid()) {
+                            beatGrid = beats;
+                            txtViewTempo.setText(getString(R.string.txtView_tempo, beats.getBpm()));
+                            updateBeatSnap();
+                        }
+                    }
+                });
+            }
+        };
+        waveformAnalyzer = new WaveformAnalyzer(MediaCodecPcmSource.factory(context, myUri, seekIndex), analysisCache, fingerprint,
+                analysisExecutor, waveformListener);
+        waveformAnalyzer.start();
+
+        // Label the chords of the loop as it changes, reusing the chroma analyzed with the waveform
+        chordAnalyzer = new ChordAnalyzer(MediaCodecPcmSource.factory(context, myUri, seekIndex), new ChordAnalyzer.Listener() {
+            @Override
+            public void onChordsAnalyzed(final ChordSequence chords) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (seekBar != null && chords == chordAnalyzer.getChords()) {
+                            seekBar.setChordLabels(chords, loopEngine.getFrameCount());
+                            txtViewKey.setText(chords.getKey() < 0 ? getString(R.string.txtView_key_unknown)
+                                    : getString(R.string.txtView_key, ChordDetector.getKeyName(chords.getKey())));
+                        }
+                    }
+                });
+            }
+        });
+        chordAnalyzer.start();
+        requestChords();
+
+        // Show the position of the new song
+        scheduler.bind(loopEngine);
+        playheadAnimator.bind(loopEngine, seekBar);
     }
 
     // Make relevant buttons and fields appear in Activity
@@ -199,47 +491,128 @@ public class MainActivity extends ActionBarActivity implements View.OnClickListe
         txtViewCurPos.setVisibility(View.VISIBLE);
         txtViewLoopStart.setVisibility(View.VISIBLE);
         txtViewLoopStop.setVisibility(View.VISIBLE);
+        txtViewSpeed.setVisibility(View.VISIBLE);
+        seekSpeed.setVisibility(View.VISIBLE);
+        txtViewTranspose.setVisibility(View.VISIBLE);
+        seekSemitones.setVisibility(View.VISIBLE);
+        seekCents.setVisibility(View.VISIBLE);
+        txtViewTempo.setVisibility(View.VISIBLE);
+        txtViewKey.setVisibility(View.VISIBLE);
     }
 
-    // update global variables for loopStart and loopStop, update the UI, and seek new position
+    // pass the beat grid to the seek bar if its thumbs should snap to it
+    private void updateBeatSnap() {
+        if (seekBar != null) {
+            seekBar.setBeatSnap(snapToBeats && beatGrid != null && beatGrid.getBpm() > 0 ? beatGrid : null, snapToBars);
+        }
+    }
+
+    // let everything that follows the loop know it has moved
+    private void onLoopChanged() {
+        if (regionCache != null) {
+            long bounds = loopEngine.getLoopBounds();
+            regionCache.setRegion(LoopBounds.start(bounds), LoopBounds.stop(bounds));
+        }
+        requestChords();
+    }
+
+    // ask for the chords of the current loop, once the song's chromagram exists
+    private void requestChords() {
+        Chromagram chromagram = waveformAnalyzer != null ? waveformAnalyzer.getChromagram() : null;
+        if (chordAnalyzer != null && chromagram != null) {
+            long bounds = loopEngine.getLoopBounds();
+            chordAnalyzer.analyze(chromagram, LoopBounds.start(bounds), LoopBounds.stop(bounds));
+        }
+    }
+
+    // read the transposition off the seek bars, show it and pass it to the engine
+    private void updateTranspose() {
+        int semitones = MIN_SEMITONES + seekSemitones.getProgress();
+        int cents = MIN_CENTS + seekCents.getProgress();
+        txtViewTranspose.setText(getString(R.string.txtView_transpose, semitones, cents));
+        if (loopEngine != null) {
+            loopEngine.setTranspose(semitones, cents);
+        }
+    }
+
+    // move the loop (in ms from song start), which re-seeks if the start moved, and update the UI
     private void updateLoopBounds(int loopStart, int loopStop) {
-        // first update the UI, so it is accurate
-        txtLoopStart.setText(
-            TimeUnit.MILLISECONDS.toMinutes(loopStart) + ":" +
-                String.format("%02d", TimeUnit.MILLISECONDS.toSeconds(loopStart) % 60) + "." +
-                String.format("%03d", loopStart % 1000));
-        txtLoopStop.setText(
-            TimeUnit.MILLISECONDS.toMinutes(loopStop) + ":" +
-                String.format("%02d", TimeUnit.MILLISECONDS.toSeconds(loopStop) % 60) + "." +
-                String.format("%03d", loopStop % 1000));
-
-        // If the left slider has been moved, re-seek the mediaPlayer
-        if (this.loopStart != loopStart) {
-            mediaPlayer.seekTo(loopStart);
-        }
-
-        // Finally, update the stored values
-        this.loopStart = loopStart;     // again, in milliseconds
-        this.loopStop = loopStop;
+        loopController.setLoopBounds(loopStart, loopStop);
+        onLoopBoundsChanged();
+    }
+
+    // show the loop bounds of the controller, and let the position displays catch up with a seek
+    private void onLoopBoundsChanged() {
+        if (loopStartFormatter.format(loopController.getLoopStart())) {
+            txtLoopStart.setText(loopStartFormatter.getChars(), 0, loopStartFormatter.getLength());
+        }
+        if (loopStopFormatter.format(loopController.getLoopStop())) {
+            txtLoopStop.setText(loopStopFormatter.getChars(), 0, loopStopFormatter.getLength());
+        }
+        scheduler.poke();
+        playheadAnimator.poke();
+        mHandler.removeCallbacks(loopSettledNotifier);
+        mHandler.postDelayed(loopSettledNotifier, LOOP_SETTLE_MS);
     }
 
     @Override
     public void onPause() {
         super.onPause();
-        if (mediaPlayer != null && mediaPlayer.isPlaying()) {
-            mediaPlayer.pause();
+        scheduler.stop();
+        playheadAnimator.stop();
+        mHandler.removeCallbacks(loopStatsUpdater);
+        if (loopController != null) {
+            loopController.onPause();
         }
     }
 
     @Override
     public void onResume() {
         super.onResume();
-        if (mediaPlayer != null && !mediaPlayer.isPlaying()) {
-            if (songPaused) {
-                mediaPlayer.pause();
-            } else {
-                mediaPlayer.start();
+        if (loopController != null) {
+            loopController.onResume();
+        }
+        scheduler.start();
+        playheadAnimator.start();
+        if (showLoopStats) {
+            mHandler.post(loopStatsUpdater);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mHandler.removeCallbacks(loopSettledNotifier);
+        if (songLoader != null) {
+            songLoader.cancel();
+            songLoader = null;
+        }
+        if (waveformAnalyzer != null) {
+            waveformAnalyzer.cancel();
+        }
+        if (chordAnalyzer != null) {
+            chordAnalyzer.cancel();
+        }
+        analysisExecutor.shutdown();
+        // closed after the saves and deletes still queued, so that none of them is lost
+        loopLibraryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                LoopLibrary library = loopLibrary;
+                loopLibrary = null;
+                if (library != null) {
+                    try {
+                        library.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
             }
+        });
+        loopLibraryExecutor.shutdown();
+        if (loopEngine != null) {
+            loopEngine.release();
+            loopEngine = null;
         }
     }
 
@@ -259,6 +632,231 @@ public class MainActivity extends ActionBarActivity implements View.OnClickListe
         if (id == R.id.action_settings) {
             return true;
         }
+        if (id == R.id.action_save_loop) {
+            showSaveLoopDialog();
+            return true;
+        }
+        if (id == R.id.action_saved_loops) {
+            showSavedLoops();
+            return true;
+        }
+        if (id == R.id.action_snap_off || id == R.id.action_snap_zero_crossing || id == R.id.action_snap_onset) {
+            item.setChecked(true);
+            loopPointSnapper.setMode(id == R.id.action_snap_onset ? LoopPointSnapper.Mode.ONSET
+                    : id == R.id.action_snap_zero_crossing ? LoopPointSnapper.Mode.ZERO_CROSSING
+                    : LoopPointSnapper.Mode.OFF);
+            return true;
+        }
+        if (id == R.id.action_crossfade_off || id == R.id.action_crossfade_5 || id == R.id.action_crossfade_10
+                || id == R.id.action_crossfade_20 || id == R.id.action_crossfade_50) {
+            item.setChecked(true);
+            loopEngine.setCrossfade(id == R.id.action_crossfade_5 ? 5
+                    : id == R.id.action_crossfade_10 ? 10
+                    : id == R.id.action_crossfade_20 ? 20
+                    : id == R.id.action_crossfade_50 ? 50
+                    : 0);
+            return true;
+        }
+        if (id == R.id.action_beat_snap_off || id == R.id.action_beat_snap_beats || id == R.id.action_beat_snap_bars) {
+            item.setChecked(true);
+            snapToBeats = id != R.id.action_beat_snap_off;
+            snapToBars = id == R.id.action_beat_snap_bars;
+            updateBeatSnap();
+            return true;
+        }
+        if (id == R.id.action_debug_overlay) {
+            showLoopStats = !item.isChecked();
+            item.setChecked(showLoopStats);
+            txtViewDebug.setVisibility(showLoopStats ? View.VISIBLE : View.GONE);
+            mHandler.removeCallbacks(loopStatsUpdater);
+            if (showLoopStats) {
+                mHandler.post(loopStatsUpdater);
+            }
+            return true;
+        }
+        if (id == R.id.action_export_stats) {
+            exportLoopStats();
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
+
+    // ask for a name and notes, and save the current loop with its speed and transposition
+    private void showSaveLoopDialog() {
+        if (loopLibrary == null || songFingerprint == null || seekBar == null) {
+            Toast.makeText(this, R.string.toast_loops_unavailable, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        LinearLayout fields = new LinearLayout(this);
+        fields.setOrientation(LinearLayout.VERTICAL);
+        final EditText name = new EditText(this);
+        name.setHint(R.string.hint_loop_name);
+        name.setSingleLine(true);
+        fields.addView(name);
+        final EditText notes = new EditText(this);
+        notes.setHint(R.string.hint_loop_notes);
+        fields.addView(notes);
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.dialog_save_loop)
+                .setView(fields)
+                .setPositiveButton(R.string.dialog_save, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        saveLoop(name.getText().toString().trim(), notes.getText().toString().trim());
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    // the loop is taken as it is now, and written to the library in the background
+    private void saveLoop(String name, final String notes) {
+        final LoopLibrary library = loopLibrary;
+        final String fingerprint = songFingerprint;
+        if (library == null || fingerprint == null) {
+            return;
+        }
+        final String loopName = name.length() > 0 ? name
+                : getString(R.string.saved_loop_default_name, formatTime(loopController.getLoopStart()));
+        final long loopStart = loopController.getLoopStartFrame();
+        final long loopStop = loopController.getLoopStopFrame();
+        final int sampleRate = loopEngine.getSampleRate();
+        final float tempo = loopEngine.getTempo();
+        final int semitones = MIN_SEMITONES + seekSemitones.getProgress();
+        final int cents = MIN_CENTS + seekCents.getProgress();
+        loopLibraryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int message;
+                try {
+                    library.save(fingerprint, loopName, loopStart, loopStop, sampleRate, tempo, semitones, cents,
+                            notes);
+                    message = R.string.toast_loop_saved;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    message = R.string.toast_loop_save_failed;
+                }
+                showToast(message);
+            }
+        });
+    }
+
+    // callable from any thread
+    private void showToast(final int message) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    // list the loops saved for the current song; picking one restores it, a long press deletes it
+    private void showSavedLoops() {
+        final LoopLibrary library = loopLibrary;
+        if (library == null || songFingerprint == null || seekBar == null) {
+            Toast.makeText(this, R.string.toast_loops_unavailable, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        final List<SavedLoop> loops = library.getLoops(songFingerprint);
+        if (loops.isEmpty()) {
+            Toast.makeText(this, R.string.toast_no_saved_loops, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        CharSequence[] labels = new CharSequence[loops.size()];
+        for (int i = 0; i < labels.length; i++) {
+            SavedLoop loop = loops.get(i);
+            labels[i] = getString(R.string.saved_loop_label, loop.getName(),
+                    formatTime((int) (loop.getLoopStartFrame() * 1000 / loop.getSampleRate())),
+                    formatTime((int) (loop.getLoopStopFrame() * 1000 / loop.getSampleRate())));
+        }
+
+        final AlertDialog dialog = new AlertDialog.Builder(this)
+                .setTitle(R.string.dialog_saved_loops)
+                .setItems(labels, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        applySavedLoop(loops.get(which));
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .create();
+        dialog.getListView().setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+            @Override
+            public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
+                final long loopId = loops.get(position).getId();
+                loopLibraryExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            library.delete(loopId);
+                            showToast(R.string.toast_loop_deleted);
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                });
+                dialog.dismiss();
+                return true;
+            }
+        });
+        dialog.show();
+    }
+
+    // restore a saved loop's speed and transposition through the seek bars, which pass them on, then its bounds to the
+    // frame
+    private void applySavedLoop(SavedLoop loop) {
+        if (seekBar == null) {
+            return;
+        }
+        seekSpeed.setProgress(Math.round(loop.getTempo() * 100) - MIN_SPEED_PERCENT);
+        seekSemitones.setProgress(loop.getSemitones() - MIN_SEMITONES);
+        seekCents.setProgress(loop.getCents() - MIN_CENTS);
+        int sampleRate = loopEngine.getSampleRate();
+        long loopStop = loop.toSampleRate(loop.getLoopStopFrame(), sampleRate);
+        long frameCount = loopEngine.getFrameCount();
+        if (frameCount > 0) {
+            loopStop = Math.min(loopStop, frameCount);
+        }
+        loopController.setLoopBoundsFrames(Math.min(loop.toSampleRate(loop.getLoopStartFrame(), sampleRate), loopStop),
+                loopStop);
+        onLoopBoundsChanged();
+        seekBar.setSelectedMinValue(loopController.getLoopStart());
+        seekBar.setSelectedMaxValue(loopController.getLoopStop());
+    }
+
+    private String formatTime(int ms) {
+        TimeFormatter formatter = new TimeFormatter(true);
+        formatter.format(ms);
+        return new String(formatter.getChars(), 0, formatter.getLength());
+    }
+
+    // write the loop stats as CSV and in binary, to compare engines and devices off the device
+    private void exportLoopStats() {
+        File directory = getExternalFilesDir(null);
+        if (directory == null) {
+            directory = getFilesDir();
+        }
+        String name = "loop-stats-" + System.currentTimeMillis();
+        try {
+            Writer csv = new FileWriter(new File(directory, name + ".csv"));
+            try {
+                loopStats.writeCsv(csv);
+            } finally {
+                csv.close();
+            }
+            OutputStream binary = new BufferedOutputStream(new FileOutputStream(new File(directory, name + ".bin")));
+            try {
+                loopStats.writeBinary(binary);
+            } finally {
+                binary.close();
+            }
+            Toast.makeText(this, getString(R.string.toast_stats_exported, new File(directory, name).getPath()),
+                    Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            e.printStackTrace();
+            Toast.makeText(this, R.string.toast_stats_export_failed, Toast.LENGTH_SHORT).show();
+        }
+    }
 }
@@ -0,0 +1,289 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link PcmSource} that decodes the first audio track of a file with {@link MediaExtractor} and {@link MediaCodec}.
+ * Seeks land on the nearest preceding sync sample and decode forward, discarding output up to the requested frame.<br />
+ * <br />
+ * Given an {@link Mp3SeekIndex}, MP3 packets are read from the file directly rather than through the extractor, whose
+ * seeks in VBR files are estimates: a seek then decodes from the few packets before the target that the index says
+ * are needed, and output positions are counted from there instead of taken from timestamps. This assumes, as holds for
+ * the platform decoder, that the decoder treats a flush like the start of the stream.
+ */
+public class MediaCodecPcmSource implements PcmSource {
+
+    private static final long TIMEOUT_US = 10000;
+
+    private final MediaExtractor extractor = new MediaExtractor();
+    private final MediaCodec codec;
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    private final Mp3SeekIndex packets;     // or null to read through the extractor
+    private ParcelFileDescriptor descriptor = null;
+    private FileInputStream input = null;
+    private FileChannel channel = null;
+    private ByteBuffer[] inputBuffers;
+    private ShortBuffer[] outputBuffers;    // native-order views of the codec's output buffers, made once per buffer set
+
+    private int sampleRate;
+    private int channelCount;
+    private final long frameCount;
+
+    private boolean inputDone = false;
+    private boolean outputDone = false;
+    private int pendingIndex = -1;          // output buffer currently being handed out by read()
+    private ShortBuffer pending = null;
+    private long discardUntil = -1;         // frame a seek is decoding towards, or -1
+    private int nextPacket = 0;             // with an index, the packet to feed next
+    private long outputFrame = 0;           // with an index, the frame the next output buffer starts at
+
+    public MediaCodecPcmSource(Context context, Uri uri) throws IOException {
+        this(context, uri, null);
+    }
+
+    /**
+     * @param seekIndex
+     *            Index of the track's packets for exact seeks, or null. It is ignored if the track turns out not to
+     *            be MP3 after all.
+     */
+    public MediaCodecPcmSource(Context context, Uri uri, Mp3SeekIndex seekIndex) throws IOException {
+        extractor.setDataSource(context, uri, null);
+        MediaFormat format = null;
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            MediaFormat trackFormat = extractor.getTrackFormat(i);
+            if (trackFormat.getString(MediaFormat.KEY_MIME).startsWith("audio/")) {
+                extractor.selectTrack(i);
+                format = trackFormat;
+                break;
+            }
+        }
+        if (format == null) {
+            extractor.release();
+            throw new IOException("No audio track in " + uri);
+        }
+
+        sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        if (seekIndex != null && mime.equals("audio/mpeg") && seekIndex.getSampleRate() == sampleRate) {
+            descriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+            if (descriptor == null) {
+                extractor.release();
+                throw new FileNotFoundException(uri.toString());
+            }
+            input = new FileInputStream(descriptor.getFileDescriptor());
+            channel = input.getChannel();
+            packets = seekIndex;
+            frameCount = seekIndex.getFrameCount();
+        } else {
+            packets = null;
+            frameCount = format.containsKey(MediaFormat.KEY_DURATION)
+                    ? format.getLong(MediaFormat.KEY_DURATION) * sampleRate / 1000000 : 0;
+        }
+
+        codec = MediaCodec.createDecoderByType(mime);
+        codec.configure(format, null, null, 0);
+        codec.start();
+        inputBuffers = codec.getInputBuffers();
+        setOutputBuffers(codec.getOutputBuffers());
+    }
+
+    /**
+     * @param seekIndex
+     *            Index of the track's packets for exact seeks, or null.
+     * @return A factory that opens a new decoder for the given track each time.
+     */
+    public static PcmSourceFactory factory(Context context, final Uri uri, final Mp3SeekIndex seekIndex) {
+        final Context appContext = context.getApplicationContext();
+        return new PcmSourceFactory() {
+            @Override
+            public PcmSource open() throws IOException {
+                return new MediaCodecPcmSource(appContext, uri, seekIndex);
+            }
+        };
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    @Override
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public int read(short[] buffer, int frameOffset, int frames) throws IOException {
+        int read = 0;
+        while (read < frames) {
+            if (pending == null && !dequeueOutput()) {
+                break;
+            }
+            int n = Math.min(pending.remaining() / channelCount, frames - read);
+            pending.get(buffer, (frameOffset + read) * channelCount, n * channelCount);
+            read += n;
+            if (pending.remaining() < channelCount) {
+                releasePending();
+            }
+        }
+        return read == 0 && outputDone ? -1 : read;
+    }
+
+    @Override
+    public void seekTo(long frame) throws IOException {
+        releasePending();
+        if (packets != null) {
+            nextPacket = packets.getPrerollPacket(frame);
+            outputFrame = packets.getPacketStart(nextPacket);
+        } else {
+            extractor.seekTo(frame * 1000000 / sampleRate, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        }
+        codec.flush();
+        inputDone = false;
+        outputDone = false;
+        discardUntil = frame;
+    }
+
+    @Override
+    public void release() {
+        codec.stop();
+        codec.release();
+        extractor.release();
+        if (descriptor != null) {
+            try {
+                input.close();
+                descriptor.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Feeds the codec until it produces a non-empty output buffer, and makes that buffer {@link #pending}.
+     *
+     * @return false at the end of the stream.
+     */
+    private boolean dequeueOutput() throws IOException {
+        while (!outputDone) {
+            if (!inputDone) {
+                queueInput();
+            }
+
+            int index = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+            if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                setOutputBuffers(codec.getOutputBuffers());
+            } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                MediaFormat format = codec.getOutputFormat();
+                sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            } else if (index >= 0) {
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    outputDone = true;
+                }
+                ShortBuffer samples = outputBuffers[index];
+                samples.limit((info.offset + info.size) / 2);
+                samples.position(info.offset / 2);
+
+                // decoders may trim their delay off the first buffer without shifting the timestamps, so with an
+                // index, where the start of the output is known exactly, the frames are counted instead
+                long first = packets != null ? outputFrame : (info.presentationTimeUs * sampleRate + 500000) / 1000000;
+                outputFrame = first + samples.remaining() / channelCount;
+                if (discardUntil >= 0) {
+                    // decoding forward from the sync sample before a seek target; drop everything before the target
+                    long skip = Math.min(discardUntil - first, samples.remaining() / channelCount);
+                    if (skip > 0) {
+                        samples.position(samples.position() + (int) skip * channelCount);
+                    }
+                    if (samples.remaining() >= channelCount) {
+                        discardUntil = -1;
+                    }
+                }
+
+                if (samples.remaining() >= channelCount) {
+                    pendingIndex = index;
+                    pending = samples;
+                    return true;
+                }
+                codec.releaseOutputBuffer(index, false);
+            }
+        }
+        return false;
+    }
+
+    private void queueInput() throws IOException {
+        int index = codec.dequeueInputBuffer(0);
+        if (index < 0) {
+            return;
+        }
+        if (packets != null) {
+            queuePacket(index);
+            return;
+        }
+        int size = extractor.readSampleData(inputBuffers[index], 0);
+        if (size < 0) {
+            codec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            inputDone = true;
+        } else {
+            codec.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+            extractor.advance();
+        }
+    }
+
+    /**
+     * Reads the next packet from the file into the given input buffer.
+     */
+    private void queuePacket(int index) throws IOException {
+        if (nextPacket >= packets.getPacketCount()) {
+            codec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            inputDone = true;
+            return;
+        }
+        ByteBuffer buffer = inputBuffers[index];
+        buffer.clear();
+        buffer.limit(packets.getPacketSize(nextPacket));
+        long offset = packets.getPacketOffset(nextPacket);
+        while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+            // keep reading until the packet is complete or the file ends
+        }
+        long timeUs = packets.getPacketStart(nextPacket) * 1000000 / sampleRate;
+        codec.queueInputBuffer(index, 0, buffer.position(), timeUs, 0);
+        nextPacket++;
+    }
+
+    private void releasePending() {
+        if (pending != null) {
+            codec.releaseOutputBuffer(pendingIndex, false);
+            pending = null;
+            pendingIndex = -1;
+        }
+    }
+
+    private void setOutputBuffers(ByteBuffer[] buffers) {
+        outputBuffers = new ShortBuffer[buffers.length];
+        for (int i = 0; i < buffers.length; i++) {
+            ByteBuffer bytes = buffers[i].duplicate();
+            bytes.clear();
+            outputBuffers[i] = bytes.order(ByteOrder.nativeOrder()).asShortBuffer();
+        }
+    }
+}
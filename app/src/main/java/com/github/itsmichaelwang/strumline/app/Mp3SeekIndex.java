@@ -0,0 +1,369 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Byte offset of every MPEG audio frame (here called packets, to tell them from PCM frames) of an MP3 file, found by
+ * scanning the frame headers once. {@link android.media.MediaExtractor} seeks in MP3 estimate the byte position from
+ * the bitrate or the coarse Xing table of contents, so in VBR files they can land seconds away from the requested
+ * time; with this index a {@link MediaCodecPcmSource} feeds the decoder from an exact packet instead.<br />
+ * <br />
+ * Every packet of a stream decodes to the same number of PCM frames, so packet i starts at PCM frame
+ * i * {@link #getFramesPerPacket()}. A Xing, Info or VBRI header in the first packet is skipped, as it holds no audio.
+ * Layer III packets can take part of their data from the packets before them (the bit reservoir), so for each packet
+ * the index also records how many packets back that reaches; {@link #getPrerollPacket(long)} uses it to pick where
+ * decoding must start for a given frame to come out exactly as in a decode from the start.<br />
+ * <br />
+ * Seeks through the index are only exact if the decoder treats every flush like the start of the stream. Decoders drop
+ * the encoder delay from the start of their output, and the frames after a seek are counted from the first packet fed
+ * after the flush. So a decoder has to drop the delay again after every flush. One that drops it only once per stream
+ * would shift every indexed seek by the delay, about 1100 frames for common encoders. The platform decoder is assumed
+ * to do so, but nothing checks it, since that takes MediaCodec on a device. A check would compare the frames after a
+ * seek through the index with the same frames from a linear decode.
+ */
+public class Mp3SeekIndex {
+
+    /**
+     * Version of the format written by {@link #writeTo(ByteBuffer)}.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    private static final String CACHE_KIND = "seekindex";
+    private static final int MAX_SYNC_SEARCH = 64 * 1024;     // bytes past the ID3 tag the first packet must start in
+    private static final int LOCK_MASK = 0xfffe0c00;        // sync, version, layer and sample rate bits
+    private static final int MAX_RESERVOIR_PACKETS = 127;
+
+    private static final int[][] BITRATES = {   // in kbit/s, by bitrate index
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},    // MPEG-1 layer I
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},       // MPEG-1 layer II
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},        // MPEG-1 layer III
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},       // MPEG-2 and 2.5 layer I
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}             // MPEG-2 and 2.5 layers II, III
+    };
+    private static final int[] SAMPLE_RATES = {44100, 48000, 32000};   // MPEG-1; halved for MPEG-2, quartered for 2.5
+
+    private final int sampleRate;
+    private final int framesPerPacket;
+    private int count = 0;
+    private int[] offsets;
+    private short[] sizes;
+    private byte[] reservoirPackets;        // packets back the bit reservoir of each packet reaches
+
+    private Mp3SeekIndex(int sampleRate, int framesPerPacket, int capacity) {
+        this.sampleRate = sampleRate;
+        this.framesPerPacket = framesPerPacket;
+        offsets = new int[Math.max(1, capacity)];
+        sizes = new short[Math.max(1, capacity)];
+        reservoirPackets = new byte[Math.max(1, capacity)];
+    }
+
+    /**
+     * Looks the index of a track up in the cache, scanning the file and storing the result on a miss.
+     *
+     * @param cache
+     *            Cache to look the index up in and store it to, or null.
+     * @param fingerprint
+     *            The {@link ContentFingerprint} of the track, or null if it could not be computed.
+     * @return The index, or null if the file is not an MP3 file.
+     */
+    public static Mp3SeekIndex load(AnalysisCache cache, String fingerprint, ContentResolver resolver, Uri uri)
+            throws IOException {
+        if (cache == null || fingerprint == null) {
+            return of(resolver, uri);
+        }
+        ByteBuffer cached = cache.get(fingerprint, CACHE_KIND, FORMAT_VERSION);
+        if (cached != null) {
+            Mp3SeekIndex index = readFrom(cached);
+            return index.count > 0 ? index : null;
+        }
+        Mp3SeekIndex index = of(resolver, uri);
+        // an empty index records that the file is not MP3, so that it is not scanned again
+        Mp3SeekIndex entry = index != null ? index : new Mp3SeekIndex(0, 0, 0);
+        ByteBuffer payload = AnalysisCache.allocatePayload(entry.getSerializedSize());
+        entry.writeTo(payload);
+        payload.flip();
+        cache.put(fingerprint, CACHE_KIND, FORMAT_VERSION, payload);
+        return index;
+    }
+
+    /**
+     * @return The index of the file behind the given Uri, or null if it is not an MP3 file.
+     */
+    public static Mp3SeekIndex of(ContentResolver resolver, Uri uri) throws IOException {
+        ParcelFileDescriptor descriptor = resolver.openFileDescriptor(uri, "r");
+        if (descriptor == null) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        FileInputStream input = new FileInputStream(descriptor.getFileDescriptor());
+        try {
+            return scan(input.getChannel());
+        } finally {
+            input.close();
+            descriptor.close();
+        }
+    }
+
+    /**
+     * @return The index of the given file, or null if it is not an MP3 file.
+     */
+    public static Mp3SeekIndex scan(FileChannel channel) throws IOException {
+        long length = channel.size();
+        if (length > Integer.MAX_VALUE) {
+            return null;
+        }
+        // only the headers are touched, so mapping reads a small part of the file
+        ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        int limit = data.limit();
+        int syncStart = skipId3v2(data);
+        int position = syncStart;
+        int locked = 0;
+        Mp3SeekIndex index = null;
+        int[] payloads = new int[MAX_RESERVOIR_PACKETS];  // main data sizes of the last packets, as a ring
+        while (position + 4 <= limit) {
+            int header = data.getInt(position);
+            int size = packetSize(header);
+            if (size <= 0 || (locked != 0 && (header & LOCK_MASK) != locked)) {
+                if (locked == 0 && position - syncStart > MAX_SYNC_SEARCH) {
+                    return null;
+                }
+                position++;
+                continue;
+            }
+            if (locked == 0) {
+                // a false sync in junk is unlikely to be followed by a matching header where its packet would end
+                if (position + size + 4 <= limit) {
+                    int next = data.getInt(position + size);
+                    if (packetSize(next) <= 0 || (next & LOCK_MASK) != (header & LOCK_MASK)) {
+                        position++;
+                        continue;
+                    }
+                }
+                locked = header & LOCK_MASK;
+                index = new Mp3SeekIndex(sampleRate(header), framesPerPacket(header),
+                        (int) ((limit - position) / size + 16));
+                if (isInfoPacket(data, position, header)) {
+                    position += size;
+                    continue;
+                }
+            }
+            if (position + size > limit) {
+                break;      // truncated last packet
+            }
+            // count the packets back that hold the bytes the bit reservoir reaches into
+            int reservoir = 0;
+            for (int bytes = mainDataBegin(data, position, header); bytes > 0 && reservoir < Math.min(index.count,
+                    MAX_RESERVOIR_PACKETS); reservoir++) {
+                bytes -= payloads[(index.count - 1 - reservoir) % MAX_RESERVOIR_PACKETS];
+            }
+            payloads[index.count % MAX_RESERVOIR_PACKETS] = size - sideInfoEnd(header);
+            index.add(position, size, reservoir);
+            position += size;
+        }
+        return index != null && index.count > 0 ? index : null;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return The number of PCM frames every packet decodes to.
+     */
+    public int getFramesPerPacket() {
+        return framesPerPacket;
+    }
+
+    public int getPacketCount() {
+        return count;
+    }
+
+    /**
+     * @return The length of the track in PCM frames.
+     */
+    public long getFrameCount() {
+        return (long) count * framesPerPacket;
+    }
+
+    public long getPacketOffset(int packet) {
+        return offsets[packet];
+    }
+
+    public int getPacketSize(int packet) {
+        return sizes[packet];
+    }
+
+    /**
+     * @return The first PCM frame of the given packet.
+     */
+    public long getPacketStart(int packet) {
+        return (long) packet * framesPerPacket;
+    }
+
+    /**
+     * @return The packet to start decoding at for the given PCM frame to come out right. That is a few packets before
+     *         the one holding the frame: decoders delay their output by up to a packet, each packet overlaps with the
+     *         one before it, and the bit reservoirs of those packets may reach further back.
+     */
+    public int getPrerollPacket(long frame) {
+        int packet = (int) Math.min(count - 1, Math.max(0, frame / framesPerPacket));
+        int first = packet;
+        for (int i = Math.max(0, packet - 2); i <= Math.min(count - 1, packet + 1); i++) {
+            first = Math.min(first, i - reservoirPackets[i]);
+        }
+        return Math.max(0, first);
+    }
+
+    /**
+     * @return The number of bytes {@link #writeTo(ByteBuffer)} needs.
+     */
+    public int getSerializedSize() {
+        return 4 + 4 + 4 + 7 * count;
+    }
+
+    /**
+     * Writes the index in a compact binary format.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(sampleRate).putInt(framesPerPacket).putInt(count);
+        buffer.asIntBuffer().put(offsets, 0, count);
+        buffer.position(buffer.position() + 4 * count);
+        buffer.asShortBuffer().put(sizes, 0, count);
+        buffer.position(buffer.position() + 2 * count);
+        buffer.put(reservoirPackets, 0, count);
+    }
+
+    /**
+     * Reads an index written by {@link #writeTo(ByteBuffer)}.
+     */
+    public static Mp3SeekIndex readFrom(ByteBuffer buffer) {
+        int sampleRate = buffer.getInt();
+        int framesPerPacket = buffer.getInt();
+        int count = buffer.getInt();
+        Mp3SeekIndex index = new Mp3SeekIndex(sampleRate, framesPerPacket, count);
+        buffer.asIntBuffer().get(index.offsets, 0, count);
+        buffer.position(buffer.position() + 4 * count);
+        buffer.asShortBuffer().get(index.sizes, 0, count);
+        buffer.position(buffer.position() + 2 * count);
+        buffer.get(index.reservoirPackets, 0, count);
+        index.count = count;
+        return index;
+    }
+
+    private void add(int offset, int size, int reservoir) {
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, 2 * count);
+            sizes = Arrays.copyOf(sizes, 2 * count);
+            reservoirPackets = Arrays.copyOf(reservoirPackets, 2 * count);
+        }
+        offsets[count] = offset;
+        sizes[count] = (short) size;
+        reservoirPackets[count] = (byte) reservoir;
+        count++;
+    }
+
+    /**
+     * @return The size of the packet that starts with the given header in bytes, or 0 if it is not a valid header.
+     *         Free-format streams are not supported.
+     */
+    private static int packetSize(int header) {
+        int version = (header >>> 19) & 3;
+        int layer = (header >>> 17) & 3;
+        int bitrateIndex = (header >>> 12) & 15;
+        int sampleRateIndex = (header >>> 10) & 3;
+        if ((header & 0xffe00000) != 0xffe00000 || version == 1 || layer == 0 || bitrateIndex == 0
+                || bitrateIndex == 15 || sampleRateIndex == 3) {
+            return 0;
+        }
+        boolean mpeg1 = version == 3;
+        int padding = (header >>> 9) & 1;
+        int bitrate = 1000 * BITRATES[mpeg1 ? 3 - layer : layer == 3 ? 3 : 4][bitrateIndex];
+        int sampleRate = sampleRate(header);
+        if (layer == 3) {
+            return (12 * bitrate / sampleRate + padding) * 4;
+        }
+        return (layer == 1 && !mpeg1 ? 72 : 144) * bitrate / sampleRate + padding;
+    }
+
+    private static int sampleRate(int header) {
+        int version = (header >>> 19) & 3;
+        int rate = SAMPLE_RATES[(header >>> 10) & 3];
+        return version == 3 ? rate : version == 2 ? rate / 2 : rate / 4;
+    }
+
+    private static int framesPerPacket(int header) {
+        int version = (header >>> 19) & 3;
+        int layer = (header >>> 17) & 3;
+        return layer == 3 ? 384 : layer == 2 || version == 3 ? 1152 : 576;
+    }
+
+    /**
+     * @return The offset from the start of a layer III packet to the end of its side information, where the main data
+     *         starts.
+     */
+    private static int sideInfoEnd(int header) {
+        boolean mpeg1 = ((header >>> 19) & 3) == 3;
+        boolean mono = ((header >>> 6) & 3) == 3;
+        boolean crc = ((header >>> 16) & 1) == 0;
+        return 4 + (crc ? 2 : 0) + (mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17));
+    }
+
+    /**
+     * @return How many bytes before the packet its main data starts at, which is 0 for layers I and II.
+     */
+    private static int mainDataBegin(ByteBuffer data, int position, int header) {
+        int layer = (header >>> 17) & 3;
+        if (layer != 1) {
+            return 0;
+        }
+        boolean mpeg1 = ((header >>> 19) & 3) == 3;
+        boolean crc = ((header >>> 16) & 1) == 0;
+        int sideInfo = position + 4 + (crc ? 2 : 0);
+        int bits = ((data.get(sideInfo) & 0xff) << 8) | (data.get(sideInfo + 1) & 0xff);
+        return mpeg1 ? bits >>> 7 : bits >>> 8;
+    }
+
+    /**
+     * @return Whether the packet is a Xing, Info or VBRI header rather than audio.
+     */
+    private static boolean isInfoPacket(ByteBuffer data, int position, int header) {
+        int xing = position + sideInfoEnd(header);
+        return hasTag(data, xing, "Xing") || hasTag(data, xing, "Info") || hasTag(data, position + 36, "VBRI");
+    }
+
+    private static boolean hasTag(ByteBuffer data, int position, String tag) {
+        if (position + tag.length() > data.limit()) {
+            return false;
+        }
+        for (int i = 0; i < tag.length(); i++) {
+            if (data.get(position + i) != tag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The offset of the first byte after the ID3v2 tag at the start of the file, or 0 if there is none.
+     */
+    private static int skipId3v2(ByteBuffer data) {
+        if (!hasTag(data, 0, "ID3") || data.limit() < 10) {
+            return 0;
+        }
+        // the size is stored in four 7-bit bytes, and does not count the header or the footer
+        int size = 0;
+        for (int i = 6; i < 10; i++) {
+            size = (size << 7) | (data.get(i) & 0x7f);
+        }
+        boolean footer = (data.get(5) & 0x10) != 0;
+        return Math.min(data.limit(), 10 + size + (footer ? 10 : 0));
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.itsmichaelwang.strumline.app;
+
+/**
+ * Conversions between 16-bit and floating point PCM, used around the floating point processing stages, and the
+ * equal-power crossfade used at the loop wrap.
+ */
+public final class PcmMath {
+
+    private static final float SHORT_SCALE = 1f / 32768f;
+
+    // Equal-power fade: FADE_CURVE[i] = sin(i / FADE_CURVE_SIZE * pi / 2), so FADE_CURVE[FADE_CURVE_SIZE - i] is the cosine
+    private static final int FADE_CURVE_SIZE = 1024;
+    private static final float[] FADE_CURVE = new float[FADE_CURVE_SIZE + 1];
+
+    static {
+        for (int i = 0; i <= FADE_CURVE_SIZE; i++) {
+            FADE_CURVE[i] = (float) Math.sin(Math.PI / 2 * i / FADE_CURVE_SIZE);
+        }
+    }
+
+    private PcmMath() {
+    }
+
+    /**
+     * Converts samples to floats in [-1, 1).
+     */
+    public static void toFloat(short[] src, float[] dst, int samples) {
+        for (int i = 0; i < samples; i++) {
+            dst[i] = src[i] * SHORT_SCALE;
+        }
+    }
+
+    /**
+     * Converts floats back to samples, clipping anything outside [-1, 1).
+     */
+    public static void toShort(float[] src, short[] dst, int samples) {
+        for (int i = 0; i < samples; i++) {
+            float value = src[i] * 32768f;
+            dst[i] = value >= 32767f ? Short.MAX_VALUE : value <= -32768f ? Short.MIN_VALUE : (short) value;
+        }
+    }
+
+    /**
+     * Crossfades from one run of frames into another with equal power, in place: the tail frames fade out while the
+     * head frames fade in over fadeFrames frames in all.
+     *
+     * @param tailOffset
+     *            The first tail frame to mix.
+     * @param headOffset
+     *            The head frame mixed into it, which is also its position within the fade.
+     * @param frames
+     *            The number of frames to mix, up to the end of the fade.
+     */
+    public static void crossfade(short[] tail, int tailOffset, short[] head, int headOffset, int frames, int channelCount,
+            int fadeFrames) {
+        for (int i = 0; i < frames; i++) {
+            int curve = (int) ((long) (headOffset + i) * FADE_CURVE_SIZE / fadeFrames);
+            float headGain = FADE_CURVE[curve];
+            float tailGain = FADE_CURVE[FADE_CURVE_SIZE - curve];
+            int t = (tailOffset + i) * channelCount;
+            int h = (headOffset + i) * channelCount;
+            for (int c = 0; c < channelCount; c++) {
+                float mixed = tail[t + c] * tailGain + head[h + c] * headGain;
+                tail[t + c] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mixed));
+            }
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link PcmSource} that keeps the decoded frames of a region of another source, so that replaying a loop does not go
+ * through the decoder again: after the first pass, reads and seeks inside the region are plain memory copies, and the
+ * underlying source is only seeked once reading leaves the cached frames.<br />
+ * <br />
+ * The region is the loop plus {@link #MARGIN_SECONDS} on either side, so that nudging a loop point keeps what has been
+ * decoded. It is held in blocks of {@link #BLOCK_FRAMES} frames, each in a slot of its own; a table from block to slot
+ * covers the whole track, so moving the region only drops the blocks that fall out of it. The slots live in direct
+ * buffers up to the memory ceiling, and in memory-mapped temporary files beyond that, up to the spill limit; a region
+ * larger than that is cached only as far as the slots go.<br />
+ * <br />
+ * {@link #setRegion(long, long)} may be called from any thread but the reading one. When the region outgrows the slots
+ * it allocates more there, and hands them over together with the existing ones, which keep their blocks; the reading
+ * thread only ever picks up storage that is ready, so reads never allocate, map files or lose what is cached.
+ */
+public class PcmRegionCache implements PcmSource {
+
+    private static final String TAG = "PcmRegionCache";
+    private static final int BLOCK_FRAMES = 16384;
+    private static final int MARGIN_SECONDS = 2;
+    private static final int SPARE_SLOTS = 4;       // so that a region growing a little does not allocate again
+
+    /**
+     * The slots, and what each one holds. A new one extends the previous one: the slots keep their indexes.
+     */
+    private static class Storage {
+        final int channelCount;
+        final ShortBuffer[] slots;      // BLOCK_FRAMES frames each
+        final long[] slotBlocks;        // block held by each slot, or -1; reading thread only once handed over
+        final int[] validFrom;          // frames of the block held, relative to its start
+        final int[] validTo;
+        final long bytes;
+        final long memoryBytes;         // of those, held in direct buffers rather than mapped files
+
+        Storage(int channelCount, ShortBuffer[] slots, long bytes, long memoryBytes) {
+            this.channelCount = channelCount;
+            this.slots = slots;
+            this.bytes = bytes;
+            this.memoryBytes = memoryBytes;
+            slotBlocks = new long[slots.length];
+            validFrom = new int[slots.length];
+            validTo = new int[slots.length];
+            for (int slot = 0; slot < slots.length; slot++) {
+                slotBlocks[slot] = -1;
+            }
+        }
+    }
+
+    private final PcmSource source;
+    private final File spillDirectory;
+    private final long maxMemoryBytes;
+    private final long maxSpillBytes;
+
+    // Requested region packed by LoopBounds, so that the reading thread never sees a start and stop set apart
+    private final AtomicLong requestedRegion = new AtomicLong(LoopBounds.pack(0, 0));
+    private volatile Storage allocated = null;  // the latest storage, picked up by the reading thread on its next call
+
+    // Reading thread only
+    private long regionStart = 0;
+    private long regionStop = 0;
+    private Storage storage = null;
+    private final int[] blockSlots;         // slot of each block of the track, or -1
+    private int nextSlot = 0;               // where to start looking for a free slot
+    private long position = 0;              // next frame to read
+    private long sourcePosition = 0;        // next frame the source will put out, or -1 if unknown
+
+    private volatile long cachedFrames = 0;
+    private volatile long decodedFrames = 0;
+
+    /**
+     * @param spillDirectory
+     *            Directory for the temporary files of large regions.
+     * @param maxMemoryBytes
+     *            The most memory to hold the region in before spilling it to files.
+     * @param maxSpillBytes
+     *            The most to hold the region in altogether, in memory and in files.
+     */
+    public PcmRegionCache(PcmSource source, File spillDirectory, long maxMemoryBytes, long maxSpillBytes) {
+        this.source = source;
+        this.spillDirectory = spillDirectory;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxSpillBytes = maxSpillBytes;
+        // tracks of unknown length are not cached
+        long frameCount = source.getFrameCount();
+        blockSlots = new int[frameCount > 0 ? (int) ((frameCount - 1) / BLOCK_FRAMES + 1) : 0];
+        for (int block = 0; block < blockSlots.length; block++) {
+            blockSlots[block] = -1;
+        }
+    }
+
+    /**
+     * Sets the frames to cache, typically the loop; the margins are added here. Frames outside of it are dropped the
+     * next time the source is read. Allocates the slots for a region larger than the ones there are, so call it off the
+     * reading thread.
+     *
+     * @param stop
+     *            The frame after the region, or {@link LoopBounds#UNBOUNDED} if the end of the track is unknown, which
+     *            disables caching.
+     */
+    public synchronized void setRegion(long start, long stop) {
+        long margin = (long) MARGIN_SECONDS * source.getSampleRate();
+        long regionStart = Math.max(0, start - margin);
+        long regionStop = stop == LoopBounds.UNBOUNDED ? regionStart : stop + margin;
+        long blocks = regionStop > regionStart ? (regionStop - 1) / BLOCK_FRAMES - regionStart / BLOCK_FRAMES + 1 : 0;
+        grow((int) Math.min(blocks, blockSlots.length));
+        requestedRegion.set(LoopBounds.pack(regionStart, regionStop));
+    }
+
+    /**
+     * @return The frames read from the cache so far.
+     */
+    public long getCachedFrames() {
+        return cachedFrames;
+    }
+
+    /**
+     * @return The frames read from the underlying source so far.
+     */
+    public long getDecodedFrames() {
+        return decodedFrames;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return source.getSampleRate();
+    }
+
+    @Override
+    public int getChannelCount() {
+        return source.getChannelCount();
+    }
+
+    @Override
+    public long getFrameCount() {
+        return source.getFrameCount();
+    }
+
+    @Override
+    public int read(short[] buffer, int frameOffset, int frames) throws IOException {
+        applyRegion();
+        int cached = readCached(buffer, frameOffset, frames);
+        if (cached > 0) {
+            position += cached;
+            cachedFrames += cached;
+            return cached;
+        }
+
+        if (sourcePosition != position) {
+            source.seekTo(position);
+        }
+        int read = source.read(buffer, frameOffset, frames);
+        if (read <= 0) {
+            sourcePosition = -1;
+            return read;
+        }
+        store(buffer, frameOffset, read);
+        position += read;
+        sourcePosition = position;
+        decodedFrames += read;
+        return read;
+    }
+
+    @Override
+    public void seekTo(long frame) throws IOException {
+        // the source is only seeked once a read misses the cache
+        position = frame;
+    }
+
+    @Override
+    public void release() {
+        source.release();
+        storage = null;
+        allocated = null;
+    }
+
+    /**
+     * Adds slots so that there are at least as many as the given number of blocks plus {@link #SPARE_SLOTS}, as far
+     * as the limits allow, and publishes the result for the reading thread.
+     */
+    private void grow(int blocks) {
+        Storage current = allocated;
+        int channelCount = source.getChannelCount();
+        if (current != null && current.channelCount != channelCount) {
+            current = null;     // the blocks of another channel count are of no use
+        }
+        int have = current != null ? current.slots.length : 0;
+        if (blocks <= have || channelCount <= 0) {
+            return;
+        }
+        long slotBytes = (long) BLOCK_FRAMES * channelCount * 2;
+        long bytes = current != null ? current.bytes : 0;
+        long memoryBytes = current != null ? current.memoryBytes : 0;
+        int added = (int) Math.min(blocks + SPARE_SLOTS - have, (maxSpillBytes - bytes) / slotBytes);
+        if (added <= 0) {
+            return;     // as large as it may get; the rest of the region is not cached
+        }
+
+        ByteBuffer segment;
+        long segmentBytes = added * slotBytes;
+        boolean inMemory = memoryBytes + segmentBytes <= maxMemoryBytes;
+        try {
+            segment = inMemory ? ByteBuffer.allocateDirect((int) segmentBytes) : mapSpillFile(segmentBytes);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not spill the loop to a file", e);
+            return;
+        }
+
+        ShortBuffer[] slots = new ShortBuffer[have + added];
+        if (current != null) {
+            System.arraycopy(current.slots, 0, slots, 0, have);
+        }
+        for (int i = 0; i < added; i++) {
+            segment.limit((int) ((i + 1) * slotBytes)).position((int) (i * slotBytes));
+            slots[have + i] = segment.slice().order(ByteOrder.nativeOrder()).asShortBuffer();
+        }
+        allocated = new Storage(channelCount, slots, bytes + segmentBytes,
+                memoryBytes + (inMemory ? segmentBytes : 0));
+    }
+
+    private ByteBuffer mapSpillFile(long bytes) throws IOException {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException("Cannot map " + bytes + " bytes at once");
+        }
+        File file = File.createTempFile("pcm", ".raw", spillDirectory);
+        RandomAccessFile spill = new RandomAccessFile(file, "rw");
+        try {
+            spill.setLength(bytes);
+            return spill.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        } finally {
+            // the mapping stays valid after the file is closed and unlinked, which leaves nothing behind on a crash
+            spill.close();
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Picks up storage allocated since the last call, carrying over what the slots hold, and drops the blocks that have
+     * left the region.
+     */
+    private void applyRegion() {
+        Storage next = allocated;
+        if (next != storage) {
+            adopt(next);
+        }
+        long region = requestedRegion.get();
+        long start = LoopBounds.start(region);
+        long stop = LoopBounds.stop(region);
+        if (start == regionStart && stop == regionStop) {
+            return;
+        }
+        regionStart = start;
+        regionStop = stop;
+        if (storage == null) {
+            return;
+        }
+        for (int slot = 0; slot < storage.slots.length; slot++) {
+            long block = storage.slotBlocks[slot];
+            if (block >= 0 && !inRegion(block)) {
+                free(slot);
+            }
+        }
+    }
+
+    private void adopt(Storage next) {
+        Storage previous = storage;
+        storage = next;
+        if (previous == null) {
+            return;
+        }
+        if (next == null || next.channelCount != previous.channelCount) {
+            for (int slot = 0; slot < previous.slots.length; slot++) {
+                long block = previous.slotBlocks[slot];
+                if (block >= 0) {
+                    blockSlots[(int) block] = -1;
+                }
+            }
+            return;
+        }
+        // the slots of the previous storage are the first ones of the new one
+        int carried = previous.slots.length;
+        System.arraycopy(previous.slotBlocks, 0, next.slotBlocks, 0, carried);
+        System.arraycopy(previous.validFrom, 0, next.validFrom, 0, carried);
+        System.arraycopy(previous.validTo, 0, next.validTo, 0, carried);
+    }
+
+    private void free(int slot) {
+        blockSlots[(int) storage.slotBlocks[slot]] = -1;
+        storage.slotBlocks[slot] = -1;
+    }
+
+    /**
+     * @return A slot that holds nothing, or a block outside the region, or -1 if all of them are in use.
+     */
+    private int findFreeSlot() {
+        int slotCount = storage.slots.length;
+        for (int i = 0; i < slotCount; i++) {
+            int slot = (nextSlot + i) % slotCount;
+            long block = storage.slotBlocks[slot];
+            if (block < 0 || !inRegion(block)) {
+                if (block >= 0) {
+                    free(slot);
+                }
+                nextSlot = (slot + 1) % slotCount;
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private boolean inRegion(long block) {
+        return block >= regionStart / BLOCK_FRAMES && block * BLOCK_FRAMES < regionStop;
+    }
+
+    /**
+     * Copies cached frames from the current position on, up to the first one that is not cached.
+     *
+     * @return The number of frames copied.
+     */
+    private int readCached(short[] buffer, int frameOffset, int frames) {
+        if (storage == null) {
+            return 0;
+        }
+        int channelCount = storage.channelCount;
+        int copied = 0;
+        while (copied < frames) {
+            long frame = position + copied;
+            long block = frame / BLOCK_FRAMES;
+            if (block >= blockSlots.length || blockSlots[(int) block] < 0) {
+                break;
+            }
+            int slot = blockSlots[(int) block];
+            int offset = (int) (frame - block * BLOCK_FRAMES);
+            if (offset < storage.validFrom[slot] || offset >= storage.validTo[slot]) {
+                break;
+            }
+            int n = Math.min(frames - copied, storage.validTo[slot] - offset);
+            ShortBuffer samples = storage.slots[slot];
+            samples.position(offset * channelCount);
+            samples.get(buffer, (frameOffset + copied) * channelCount, n * channelCount);
+            copied += n;
+        }
+        return copied;
+    }
+
+    /**
+     * Keeps the frames just decoded at the current position that fall inside the region.
+     */
+    private void store(short[] buffer, int frameOffset, int frames) {
+        if (storage == null || source.getChannelCount() != storage.channelCount) {
+            return;
+        }
+        int channelCount = storage.channelCount;
+        int done = 0;
+        while (done < frames) {
+            long frame = position + done;
+            long block = frame / BLOCK_FRAMES;
+            int offset = (int) (frame - block * BLOCK_FRAMES);
+            int n = Math.min(frames - done, BLOCK_FRAMES - offset);
+            if (block < blockSlots.length && inRegion(block)) {
+                int slot = blockSlots[(int) block];
+                if (slot < 0) {
+                    slot = findFreeSlot();
+                    if (slot >= 0) {
+                        blockSlots[(int) block] = slot;
+                        storage.slotBlocks[slot] = block;
+                        storage.validFrom[slot] = offset;
+                        storage.validTo[slot] = offset;
+                    }
+                }
+                if (slot >= 0) {
+                    if (offset > storage.validTo[slot] || offset + n < storage.validFrom[slot]) {
+                        // a block is only kept as one run of valid frames; a disjoint run replaces it
+                        storage.validFrom[slot] = offset;
+                        storage.validTo[slot] = offset + n;
+                    } else {
+                        storage.validFrom[slot] = Math.min(storage.validFrom[slot], offset);
+                        storage.validTo[slot] = Math.max(storage.validTo[slot], offset + n);
+                    }
+                    ShortBuffer samples = storage.slots[slot];
+                    samples.position(offset * channelCount);
+                    samples.put(buffer, (frameOffset + done) * channelCount, n * channelCount);
+                }
+            }
+            done += n;
+        }
+    }
+}
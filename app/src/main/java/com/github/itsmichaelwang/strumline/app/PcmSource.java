@@ -0,0 +1,33 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import java.io.IOException;
+
+/**
+ * A seekable stream of decoded, interleaved 16-bit PCM frames. A frame holds one sample per channel, and all offsets and
+ * counts below are expressed in frames.
+ */
+public interface PcmSource {
+
+    public int getSampleRate();
+
+    public int getChannelCount();
+
+    /**
+     * @return The total number of frames in the stream, or 0 if it is not known up front.
+     */
+    public long getFrameCount();
+
+    /**
+     * Reads up to the given number of frames into the buffer.
+     *
+     * @return The number of frames read, or -1 once the end of the stream has been reached.
+     */
+    public int read(short[] buffer, int frameOffset, int frames) throws IOException;
+
+    /**
+     * Positions the stream so that the next {@link #read} starts exactly at the given frame.
+     */
+    public void seekTo(long frame) throws IOException;
+
+    public void release();
+}
@@ -0,0 +1,12 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import java.io.IOException;
+
+/**
+ * Opens independent {@link PcmSource}s over the same track, so that background analysis can decode it while the
+ * {@link LoopEngine} plays it.
+ */
+public interface PcmSourceFactory {
+
+    public PcmSource open() throws IOException;
+}
@@ -0,0 +1,389 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Min/max peak overview of a track at several resolutions. Level 0 holds one min/max pair per
+ * {@link #BASE_BUCKET_FRAMES} frames, and every level above combines {@link #LEVEL_FACTOR} buckets of the level below.
+ * Peaks are mixed down to mono and kept in primitive arrays. Level 0 also records where the mono mix first rises
+ * through zero in each bucket, so loop points can be snapped to zero crossings without decoding the track again.<br />
+ * <br />
+ * One thread appends decoded frames with {@link #add}, while any other thread may read the peaks analyzed so far with
+ * {@link #getPeaks}, which costs O(columns) whatever the length of the track. A track can also be analyzed in chunks,
+ * one pyramid each, that are joined with {@link #append(PeakPyramid, int)} while they are being filled.
+ */
+public class PeakPyramid {
+
+    /**
+     * Version of the format written by {@link #writeTo(ByteBuffer)}.
+     */
+    public static final int FORMAT_VERSION = 2;
+
+    public static final int BASE_BUCKET_FRAMES = 256;
+    public static final int LEVEL_FACTOR = 4;
+    private static final int MAX_LEVELS = 8;
+
+    private final int sampleRate;
+    private final long frameCount;
+    private final int levels;
+    private final short[][] mins;
+    private final short[][] maxs;
+    private short[] crossings;                  // per level 0 bucket, offset of the first rising zero crossing or -1
+    private final int[] counts;                 // complete buckets per level, written by the writer thread only
+
+    private volatile long completedFrames = 0;  // frames covered by complete level 0 buckets
+    private volatile boolean finished = false;
+
+    // Writer state for the level 0 bucket in progress
+    private short bucketMin = Short.MAX_VALUE;
+    private short bucketMax = Short.MIN_VALUE;
+    private int bucketFrames = 0;
+    private short bucketCrossing = -1;
+    private int previousMono = 0;
+
+    /**
+     * @param frameCount
+     *            The expected length of the track, used to size the levels. Peaks beyond it are still stored.
+     */
+    public PeakPyramid(int sampleRate, long frameCount) {
+        this(sampleRate, frameCount, levelsFor(frameCount));
+        long buckets = Math.max(1, (frameCount + BASE_BUCKET_FRAMES - 1) / BASE_BUCKET_FRAMES);
+        for (int level = 0; level < levels; level++) {
+            int capacity = (int) Math.max(1, (buckets + pow(level) - 1) / pow(level));
+            mins[level] = new short[capacity];
+            maxs[level] = new short[capacity];
+        }
+        crossings = new short[mins[0].length];
+    }
+
+    private PeakPyramid(int sampleRate, long frameCount, int levels) {
+        this.sampleRate = sampleRate;
+        this.frameCount = frameCount;
+        this.levels = levels;
+        mins = new short[levels][];
+        maxs = new short[levels][];
+        counts = new int[levels];
+    }
+
+    private static int levelsFor(long frameCount) {
+        long buckets = Math.max(1, (frameCount + BASE_BUCKET_FRAMES - 1) / BASE_BUCKET_FRAMES);
+        int levels = 1;
+        while (levels < MAX_LEVELS && buckets / pow(levels) >= 2) {
+            levels++;
+        }
+        return levels;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return The frame count the pyramid was created for, which is what the track's overview spans.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return The number of frames analyzed so far.
+     */
+    public long getCompletedFrames() {
+        return completedFrames;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Appends interleaved frames that directly follow the ones added before.
+     */
+    public void add(short[] buffer, int frames, int channelCount) {
+        short min = bucketMin;
+        short max = bucketMax;
+        int filled = bucketFrames;
+        short crossing = bucketCrossing;
+        int previous = previousMono;
+        int end = frames * channelCount;
+        for (int i = 0; i < end; i += channelCount) {
+            int mono = 0;
+            for (int c = 0; c < channelCount; c++) {
+                short sample = buffer[i + c];
+                if (sample < min) {
+                    min = sample;
+                }
+                if (sample > max) {
+                    max = sample;
+                }
+                mono += sample;
+            }
+            if (crossing < 0 && previous < 0 && mono >= 0) {
+                crossing = (short) filled;
+            }
+            previous = mono;
+            if (++filled == BASE_BUCKET_FRAMES) {
+                appendCrossing(crossing);
+                append(0, min, max);
+                min = Short.MAX_VALUE;
+                max = Short.MIN_VALUE;
+                filled = 0;
+                crossing = -1;
+            }
+        }
+        bucketMin = min;
+        bucketMax = max;
+        bucketFrames = filled;
+        bucketCrossing = crossing;
+        previousMono = previous;
+        completedFrames = (long) counts[0] * BASE_BUCKET_FRAMES;
+    }
+
+    /**
+     * Takes note of frames that come just before the ones to be added, without adding them, so that a zero crossing at
+     * the very first added frame is still found. Used for chunks that start in the middle of a track.
+     */
+    public void skip(short[] buffer, int frames, int channelCount) {
+        if (frames == 0) {
+            return;
+        }
+        int mono = 0;
+        for (int c = 0; c < channelCount; c++) {
+            mono += buffer[(frames - 1) * channelCount + c];
+        }
+        previousMono = mono;
+    }
+
+    /**
+     * Appends the level 0 buckets of a chunk pyramid for the frames that directly follow the ones added before, from the
+     * given bucket of the chunk up to the last one it has completed so far. The chunk may still be filled on another
+     * thread, so that its peaks can be shown as they come in rather than once it is finished; the frames added so far
+     * must fill whole buckets.
+     *
+     * @param firstBucket
+     *            The number of buckets of the chunk appended before, 0 on the first call.
+     * @return The number of buckets of the chunk appended so far, to pass in on the next call.
+     */
+    public int append(PeakPyramid chunk, int firstBucket) {
+        if (bucketFrames > 0) {
+            throw new IllegalStateException("Chunks must start on a bucket boundary");
+        }
+        // read the chunk's volatile state first, so that its arrays read below are at least as new
+        boolean done = chunk.finished;
+        long chunkFrames = chunk.completedFrames;
+        int count = done ? chunk.counts[0] : (int) (chunkFrames / BASE_BUCKET_FRAMES);
+        if (!done) {
+            chunkFrames = (long) count * BASE_BUCKET_FRAMES;
+        }
+        short[] chunkCrossings = chunk.crossings;
+        short[] chunkMins = chunk.mins[0];
+        short[] chunkMaxs = chunk.maxs[0];
+        for (int i = firstBucket; i < count; i++) {
+            appendCrossing(chunkCrossings[i]);
+            append(0, chunkMins[i], chunkMaxs[i]);
+        }
+        completedFrames += chunkFrames - Math.min(chunkFrames, (long) firstBucket * BASE_BUCKET_FRAMES);
+        return Math.max(firstBucket, count);
+    }
+
+    /**
+     * Stores the partially filled buckets at the end of the track and marks the pyramid as complete.
+     */
+    public void finish() {
+        long frames = completedFrames + bucketFrames;
+        if (bucketFrames > 0) {
+            appendCrossing(bucketCrossing);
+            append(0, bucketMin, bucketMax);
+            bucketFrames = 0;
+        }
+        for (int level = 1; level < levels; level++) {
+            int expected = (counts[level - 1] + LEVEL_FACTOR - 1) / LEVEL_FACTOR;
+            if (counts[level] < expected) {
+                append(level, combinedMin(level - 1, counts[level]), combinedMax(level - 1, counts[level]));
+            }
+        }
+        completedFrames = frames;
+        finished = true;
+    }
+
+    /**
+     * Computes one min/max pair per screen column for the given span of the track, from the coarsest level that still
+     * has at least one bucket per column.
+     *
+     * @return The number of leading columns that could be filled; the rest of the span has not been analyzed yet.
+     */
+    public int getPeaks(long startFrame, long endFrame, int columns, short[] outMin, short[] outMax) {
+        // read the volatile state first, so that the arrays read below are at least as new
+        boolean done = finished;
+        long completed = completedFrames;
+        if (columns <= 0 || endFrame <= startFrame || completed == 0) {
+            return 0;
+        }
+        double framesPerColumn = (double) (endFrame - startFrame) / columns;
+        int level = 0;
+        while (level + 1 < levels && pow(level + 1) * BASE_BUCKET_FRAMES <= framesPerColumn) {
+            level++;
+        }
+        long levelBucketFrames = pow(level) * BASE_BUCKET_FRAMES;
+        int count = done ? counts[level] : (int) (completed / levelBucketFrames);
+        short[] levelMins = mins[level];
+        short[] levelMaxs = maxs[level];
+
+        for (int column = 0; column < columns; column++) {
+            long from = startFrame + (long) (column * framesPerColumn);
+            long to = startFrame + (long) ((column + 1) * framesPerColumn);
+            int first = (int) (from / levelBucketFrames);
+            int last = (int) Math.max(first, (to - 1) / levelBucketFrames);
+            if (last >= count) {
+                return column;
+            }
+            short min = Short.MAX_VALUE;
+            short max = Short.MIN_VALUE;
+            for (int bucket = first; bucket <= last; bucket++) {
+                if (levelMins[bucket] < min) {
+                    min = levelMins[bucket];
+                }
+                if (levelMaxs[bucket] > max) {
+                    max = levelMaxs[bucket];
+                }
+            }
+            outMin[column] = min;
+            outMax[column] = max;
+        }
+        return columns;
+    }
+
+    /**
+     * @return The number of level 0 buckets analyzed so far.
+     */
+    public int getBucketCount() {
+        return finished ? counts[0] : (int) (completedFrames / BASE_BUCKET_FRAMES);
+    }
+
+    /**
+     * @return The peak-to-peak amplitude of the given level 0 bucket, from 0 to 65535.
+     */
+    public int getBucketRange(int bucket) {
+        return maxs[0][bucket] - mins[0][bucket];
+    }
+
+    /**
+     * @return The frame at which the mono mix first rises through zero in the given level 0 bucket, or -1 if it does
+     *         not.
+     */
+    public long getZeroCrossing(int bucket) {
+        short offset = crossings[bucket];
+        return offset < 0 ? -1 : (long) bucket * BASE_BUCKET_FRAMES + offset;
+    }
+
+    // called before the bucket itself is appended, so that readers never see a bucket without its crossing
+    private void appendCrossing(short crossing) {
+        int index = counts[0];
+        if (index == crossings.length) {
+            crossings = Arrays.copyOf(crossings, 2 * index);
+        }
+        crossings[index] = crossing;
+    }
+
+    private void append(int level, short min, short max) {
+        int index = counts[level];
+        if (index == mins[level].length) {
+            // the track turned out longer than announced
+            mins[level] = Arrays.copyOf(mins[level], 2 * index);
+            maxs[level] = Arrays.copyOf(maxs[level], 2 * index);
+        }
+        mins[level][index] = min;
+        maxs[level][index] = max;
+        counts[level] = index + 1;
+
+        if (level + 1 < levels && (index + 1) % LEVEL_FACTOR == 0) {
+            int parent = index / LEVEL_FACTOR;
+            append(level + 1, combinedMin(level, parent), combinedMax(level, parent));
+        }
+    }
+
+    private short combinedMin(int level, int parent) {
+        short min = Short.MAX_VALUE;
+        int end = Math.min(counts[level], (parent + 1) * LEVEL_FACTOR);
+        for (int i = parent * LEVEL_FACTOR; i < end; i++) {
+            min = (short) Math.min(min, mins[level][i]);
+        }
+        return min;
+    }
+
+    private short combinedMax(int level, int parent) {
+        short max = Short.MIN_VALUE;
+        int end = Math.min(counts[level], (parent + 1) * LEVEL_FACTOR);
+        for (int i = parent * LEVEL_FACTOR; i < end; i++) {
+            max = (short) Math.max(max, maxs[level][i]);
+        }
+        return max;
+    }
+
+    /**
+     * @return The number of bytes {@link #writeTo(ByteBuffer)} needs. Only valid once finished.
+     */
+    public int getSerializedSize() {
+        int size = 4 + 8 + 8 + 4 + 2 * counts[0];
+        for (int level = 0; level < levels; level++) {
+            size += 4 + 4 * counts[level];
+        }
+        return size;
+    }
+
+    /**
+     * Writes a finished pyramid in a compact binary format.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        if (!finished) {
+            throw new IllegalStateException("Pyramid is still being built");
+        }
+        buffer.putInt(sampleRate).putLong(frameCount).putLong(completedFrames).putInt(levels);
+        for (int level = 0; level < levels; level++) {
+            buffer.putInt(counts[level]);
+            buffer.asShortBuffer().put(mins[level], 0, counts[level]);
+            buffer.position(buffer.position() + 2 * counts[level]);
+            buffer.asShortBuffer().put(maxs[level], 0, counts[level]);
+            buffer.position(buffer.position() + 2 * counts[level]);
+        }
+        buffer.asShortBuffer().put(crossings, 0, counts[0]);
+        buffer.position(buffer.position() + 2 * counts[0]);
+    }
+
+    /**
+     * Reads a pyramid written by {@link #writeTo(ByteBuffer)}.
+     */
+    public static PeakPyramid readFrom(ByteBuffer buffer) {
+        int sampleRate = buffer.getInt();
+        long frameCount = buffer.getLong();
+        long completedFrames = buffer.getLong();
+        int levels = buffer.getInt();
+
+        PeakPyramid pyramid = new PeakPyramid(sampleRate, frameCount, levels);
+        for (int level = 0; level < levels; level++) {
+            int count = buffer.getInt();
+            pyramid.mins[level] = new short[Math.max(1, count)];
+            pyramid.maxs[level] = new short[Math.max(1, count)];
+            buffer.asShortBuffer().get(pyramid.mins[level], 0, count);
+            buffer.position(buffer.position() + 2 * count);
+            buffer.asShortBuffer().get(pyramid.maxs[level], 0, count);
+            buffer.position(buffer.position() + 2 * count);
+            pyramid.counts[level] = count;
+        }
+        pyramid.crossings = new short[Math.max(1, pyramid.counts[0])];
+        buffer.asShortBuffer().get(pyramid.crossings, 0, pyramid.counts[0]);
+        buffer.position(buffer.position() + 2 * pyramid.counts[0]);
+        pyramid.completedFrames = completedFrames;
+        pyramid.finished = true;
+        return pyramid;
+    }
+
+    private static long pow(int level) {
+        long result = 1;
+        for (int i = 0; i < level; i++) {
+            result *= LEVEL_FACTOR;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,150 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Reports the playback position of a {@link LoopEngine} to the UI. Instead of polling at a fixed rate it wakes up right
+ * when the displayed value can next change: at the next multiple of the display resolution, or at the loop stop, where
+ * the position jumps back to the loop start. Those deadlines are in track time, so they are scaled by the engine's
+ * playback rate to get the delay. Nothing is scheduled while the engine is paused or the scheduler is stopped.
+ */
+public class PlaybackScheduler {
+
+    private static final String TAG = "PlaybackScheduler";
+    private static final long MIN_DELAY_MS = 10;
+    private static final long MAX_DELAY_MS = 1000;
+
+    /**
+     * Receives position updates on the handler's thread.
+     */
+    public interface Callback {
+        public void onPositionChanged(int position);
+    }
+
+    private final Handler handler;
+    private final Callback callback;
+    private final int resolution;
+    private LoopEngine engine = null;
+    private boolean running = false;
+    private int lastStep = -1;
+    private LoopStats stats = null;
+    private long tickDueNanos = 0;      // when the delayed tick should run, or 0 if it was posted without a delay
+
+    // Statistics since the scheduler was created
+    private long wakeups = 0;
+    private long uiPosts = 0;
+    private long runningMillis = 0;
+    private long startedAt;
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            onTick();
+        }
+    };
+
+    /**
+     * @param handler
+     *            The handler of the thread that should receive the callbacks, usually the main thread.
+     * @param resolution
+     *            The smallest position change, in milliseconds, that the UI displays.
+     */
+    public PlaybackScheduler(Handler handler, int resolution, Callback callback) {
+        this.handler = handler;
+        this.resolution = resolution;
+        this.callback = callback;
+    }
+
+    /**
+     * Follows the given engine, for example after a new track has been loaded into it, and reports its position right
+     * away.
+     */
+    public void bind(LoopEngine engine) {
+        this.engine = engine;
+        lastStep = -1;
+        poke();
+    }
+
+    /**
+     * Records how late each delayed tick runs into the given stats.
+     *
+     * @param stats
+     *            The stats to record into, or null to stop recording.
+     */
+    public void setStats(LoopStats stats) {
+        this.stats = stats;
+    }
+
+    public void start() {
+        if (!running) {
+            running = true;
+            startedAt = SystemClock.elapsedRealtime();
+            poke();
+        }
+    }
+
+    public void stop() {
+        if (running) {
+            running = false;
+            runningMillis += SystemClock.elapsedRealtime() - startedAt;
+            handler.removeCallbacks(tick);
+            Log.i(TAG, "wakeups/min: " + getWakeupsPerMinute() + ", UI posts/min: " + getUiPostsPerMinute());
+        }
+    }
+
+    /**
+     * Re-evaluates the position now. Call this when the engine was started, paused or seeked, since those change the
+     * next deadline.
+     */
+    public void poke() {
+        handler.removeCallbacks(tick);
+        tickDueNanos = 0;
+        if (running && engine != null) {
+            handler.post(tick);
+        }
+    }
+
+    public float getWakeupsPerMinute() {
+        return perMinute(wakeups);
+    }
+
+    public float getUiPostsPerMinute() {
+        return perMinute(uiPosts);
+    }
+
+    private float perMinute(long count) {
+        long elapsed = runningMillis + (running ? SystemClock.elapsedRealtime() - startedAt : 0);
+        return elapsed == 0 ? 0 : count * 60000f / elapsed;
+    }
+
+    private void onTick() {
+        if (!running || engine == null) {
+            return;
+        }
+        wakeups++;
+        if (stats != null && tickDueNanos != 0) {
+            stats.recordCallbackJitter(Math.max(0, System.nanoTime() - tickDueNanos) / 1000);
+        }
+        tickDueNanos = 0;
+
+        int position = engine.getCurrentPosition();
+        int step = position / resolution;
+        if (step != lastStep) {
+            lastStep = step;
+            uiPosts++;
+            callback.onPositionChanged(position);
+        }
+
+        if (engine.isPlaying()) {
+            long sourceDelay = Math.min((step + 1) * (long) resolution, engine.getLoopStop()) - position;
+            // the deadline is in track time, which passes faster or slower than wall time away from normal speed
+            double rate = engine.getPlaybackRate() / engine.getSampleRate();
+            long delay = rate > 0 ? (long) Math.ceil(sourceDelay / rate) : MAX_DELAY_MS;
+            delay = Math.max(MIN_DELAY_MS, Math.min(MAX_DELAY_MS, delay));
+            tickDueNanos = System.nanoTime() + delay * 1000000;
+            handler.postDelayed(tick, delay);
+        }
+    }
+}
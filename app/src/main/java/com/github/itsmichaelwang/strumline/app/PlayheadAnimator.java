@@ -0,0 +1,166 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import android.util.Log;
+import android.view.Choreographer;
+
+/**
+ * Moves the playhead of a seek bar smoothly while a {@link LoopEngine} plays. Asking the engine for its position goes
+ * down to the audio sink, so rather than doing that on every display frame, the engine's sample clock is read every
+ * {@link #RESYNC_NANOS} and extrapolated from there on each vsync, wrapping at the loop stop like the engine does.
+ * The bar only invalidates the strips the playhead left and entered, and no frames are requested while the engine is
+ * paused or the animator is stopped.<br />
+ * <br />
+ * Frames that were dropped, meaning vsyncs that went by without a callback, are counted and logged together with the
+ * time the bar spent drawing when the animator stops.
+ */
+public class PlayheadAnimator {
+
+    private static final String TAG = "PlayheadAnimator";
+    private static final long RESYNC_NANOS = 250000000L;
+
+    private final Choreographer choreographer = Choreographer.getInstance();
+    private final long frameIntervalNanos;
+    private LoopEngine engine = null;
+    private AbstractRangeSeekBar bar = null;
+    private boolean running = false;
+    private boolean scheduled = false;
+
+    // The last reading of the engine's clock: source frame syncFrame was audible at syncNanos (System.nanoTime(), the
+    // time base of the frame times), and the position advances by framesPerNano from there
+    private long syncNanos;
+    private long syncFrame;
+    private double framesPerNano;
+    private long syncBounds;        // packed by LoopBounds
+    private long syncLoopStart;
+    private long syncLoopStop;
+    private long frameCount;
+
+    // Statistics since the animator was created
+    private long frames = 0;
+    private long droppedFrames = 0;
+    private long lastFrameTimeNanos = 0;    // or 0 if the previous vsync was not animated
+
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            scheduled = false;
+            onFrame(frameTimeNanos);
+        }
+    };
+
+    /**
+     * @param refreshRate
+     *            The refresh rate of the display, in frames per second, for telling dropped frames.
+     */
+    public PlayheadAnimator(float refreshRate) {
+        frameIntervalNanos = (long) (1e9 / (refreshRate > 0 ? refreshRate : 60f));
+    }
+
+    /**
+     * Follows the given engine on the given bar, for example after a new track has been loaded, and shows its position
+     * right away.
+     */
+    public void bind(LoopEngine engine, AbstractRangeSeekBar bar) {
+        this.engine = engine;
+        this.bar = bar;
+        poke();
+    }
+
+    public void start() {
+        if (!running) {
+            running = true;
+            poke();
+        }
+    }
+
+    public void stop() {
+        if (running) {
+            running = false;
+            unschedule();
+            Log.i(TAG, "frames: " + frames + ", dropped: " + droppedFrames
+                    + (bar != null ? ", draw mean: " + bar.getMeanDrawMicros() + " us, max: " + bar.getMaxDrawMicros() + " us" : ""));
+        }
+    }
+
+    /**
+     * Reads the engine's clock again now. Call this when the engine was started, paused or seeked, or its tempo changed.
+     */
+    public void poke() {
+        if (!running || engine == null || bar == null) {
+            return;
+        }
+        sync(System.nanoTime());
+        if (engine.isPlaying()) {
+            schedule();
+        } else {
+            unschedule();
+            show(syncFrame);
+        }
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            choreographer.postFrameCallback(frameCallback);
+        }
+    }
+
+    private void unschedule() {
+        if (scheduled) {
+            scheduled = false;
+            choreographer.removeFrameCallback(frameCallback);
+        }
+        lastFrameTimeNanos = 0;
+    }
+
+    private void sync(long nanos) {
+        syncNanos = nanos;
+        syncFrame = engine.getCurrentFrame();
+        framesPerNano = engine.getPlaybackRate() / 1e9;
+        syncBounds = engine.getLoopBounds();
+        syncLoopStart = LoopBounds.start(syncBounds);
+        syncLoopStop = LoopBounds.stop(syncBounds);
+        frameCount = engine.getFrameCount();
+    }
+
+    private void onFrame(long frameTimeNanos) {
+        if (!running || engine == null || bar == null) {
+            return;
+        }
+        if (!engine.isPlaying()) {
+            poke();
+            return;
+        }
+
+        frames++;
+        if (lastFrameTimeNanos != 0) {
+            long missed = Math.round((double) (frameTimeNanos - lastFrameTimeNanos) / frameIntervalNanos) - 1;
+            droppedFrames += Math.max(0, missed);
+        }
+        lastFrameTimeNanos = frameTimeNanos;
+
+        // the loop bounds are cheap to read, and a change means the engine is about to seek
+        if (frameTimeNanos - syncNanos >= RESYNC_NANOS || engine.getLoopBounds() != syncBounds) {
+            sync(System.nanoTime());
+        }
+
+        long frame = syncFrame + (long) ((frameTimeNanos - syncNanos) * framesPerNano);
+        if (syncLoopStop != LoopBounds.UNBOUNDED && syncLoopStop > syncLoopStart && frame >= syncLoopStop) {
+            frame = syncLoopStart + (frame - syncLoopStart) % (syncLoopStop - syncLoopStart);
+        }
+        show(frame);
+        schedule();
+    }
+
+    private void show(long frame) {
+        bar.setPlayhead(frameCount > 0 ? (double) Math.max(0, frame) / frameCount : -1d);
+    }
+}
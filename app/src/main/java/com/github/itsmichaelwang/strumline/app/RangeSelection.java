@@ -0,0 +1,115 @@
+package com.github.itsmichaelwang.strumline.app;
+
+/**
+ * The selected range of a range seek bar in normalized space, and how a dragged thumb moves it: the x-coordinate of the
+ * touch is mapped through the {@link SeekBarGeometry}, snapped to the {@link BeatGrid} if there is one, and clamped so
+ * that the minimum never passes the maximum. {@link AbstractRangeSeekBar} moves its thumbs through this for every move
+ * event; it holds no Android state, so the same code can be driven on the desktop JVM.
+ */
+public class RangeSelection {
+
+    private final SeekBarGeometry geometry;
+    private double normalizedMin = 0d;
+    private double normalizedMax = 1d;
+    private BeatGrid beatGrid = null;
+    private boolean snapToBars = false;
+
+    /**
+     * @param geometry
+     *            The mapping of the bar the range is selected on.
+     */
+    public RangeSelection(SeekBarGeometry geometry) {
+        this.geometry = geometry;
+    }
+
+    public SeekBarGeometry getGeometry() {
+        return geometry;
+    }
+
+    /**
+     * Makes dragged thumbs snap to the beats or bars of the given grid, which spans the whole bar.
+     *
+     * @param beatGrid
+     *            The grid to snap to, or null to move freely.
+     * @param bars
+     *            Whether to snap to the first beat of each bar only.
+     */
+    public void setBeatSnap(BeatGrid beatGrid, boolean bars) {
+        this.beatGrid = beatGrid;
+        this.snapToBars = bars;
+    }
+
+    /**
+     * @return The selected normalized min value, between 0 and 1.
+     */
+    public double getNormalizedMin() {
+        return normalizedMin;
+    }
+
+    /**
+     * @return The selected normalized max value, between 0 and 1.
+     */
+    public double getNormalizedMax() {
+        return normalizedMax;
+    }
+
+    /**
+     * Sets the normalized min value, clamped so that 0 <= value <= normalized max value.
+     *
+     * @return Whether the value changed.
+     */
+    public boolean setNormalizedMin(double value) {
+        double oldValue = normalizedMin;
+        normalizedMin = Math.max(0d, Math.min(1d, Math.min(value, normalizedMax)));
+        return normalizedMin != oldValue;
+    }
+
+    /**
+     * Sets the normalized max value, clamped so that normalized min value <= value <= 1.
+     *
+     * @return Whether the value changed.
+     */
+    public boolean setNormalizedMax(double value) {
+        double oldValue = normalizedMax;
+        normalizedMax = Math.max(0d, Math.min(1d, Math.max(value, normalizedMin)));
+        return normalizedMax != oldValue;
+    }
+
+    /**
+     * Sets both normalized values at once, as when restoring a saved state, so that neither is clamped to the other's
+     * old value.
+     */
+    public void setNormalized(double min, double max) {
+        normalizedMin = Math.max(0d, Math.min(1d, min));
+        normalizedMax = Math.max(normalizedMin, Math.min(1d, max));
+    }
+
+    /**
+     * Moves the min thumb to the given x-coordinate of a touch.
+     *
+     * @return Whether the value changed.
+     */
+    public boolean dragMin(float touchX) {
+        return setNormalizedMin(snapToBeat(geometry.screenToNormalized(touchX)));
+    }
+
+    /**
+     * Moves the max thumb to the given x-coordinate of a touch.
+     *
+     * @return Whether the value changed.
+     */
+    public boolean dragMax(float touchX) {
+        return setNormalizedMax(snapToBeat(geometry.screenToNormalized(touchX)));
+    }
+
+    /**
+     * @return The given normalized value snapped to the closest beat or bar of the grid, or unchanged if there is none.
+     */
+    public double snapToBeat(double normalized) {
+        if (beatGrid == null || beatGrid.getFrameCount() <= 0) {
+            return normalized;
+        }
+        long frameCount = beatGrid.getFrameCount();
+        return (double) beatGrid.snap((long) (normalized * frameCount), snapToBars) / frameCount;
+    }
+}
@@ -0,0 +1,116 @@
+package com.github.itsmichaelwang.strumline.app;
+
+/**
+ * Resamples a stream of interleaved float frames by an arbitrary, changeable ratio with 4-point Hermite interpolation.
+ * Played back at the original rate, the output sounds the ratio higher and is the ratio shorter, which together with a
+ * {@link TimeStretcher} makes a pitch shifter.<br />
+ * <br />
+ * All buffers are allocated up front; {@link #put} and {@link #receive} never allocate. Not thread-safe, except for
+ * {@link #setRatio(double)}.
+ */
+public class Resampler {
+
+    public static final double MIN_RATIO = 0.5d;
+    public static final double MAX_RATIO = 2d;
+
+    private final int channelCount;
+    private final int inputCapacity;
+    private final float[] input;
+    private int inputFrames;
+    private double position;            // of the next output frame in input, always at least 1
+    private volatile double ratio = 1d;
+
+    /**
+     * @param maxPutFrames
+     *            The largest number of frames that will be passed to a single {@link #put} call.
+     */
+    public Resampler(int channelCount, int maxPutFrames) {
+        this.channelCount = channelCount;
+        inputCapacity = maxPutFrames + 4;
+        input = new float[inputCapacity * channelCount];
+        clear();
+    }
+
+    /**
+     * @param ratio
+     *            Input frames consumed per output frame, between {@link #MIN_RATIO} and {@link #MAX_RATIO}.
+     */
+    public void setRatio(double ratio) {
+        this.ratio = Math.max(MIN_RATIO, Math.min(MAX_RATIO, ratio));
+    }
+
+    public double getRatio() {
+        return ratio;
+    }
+
+    public void clear() {
+        // start with one frame of silence, so that the first real frame has a predecessor to interpolate from
+        for (int c = 0; c < channelCount; c++) {
+            input[c] = 0f;
+        }
+        inputFrames = 1;
+        position = 1d;
+    }
+
+    public int getInputSpace() {
+        compact();
+        return inputCapacity - inputFrames;
+    }
+
+    /**
+     * @return The number of output frames that will be produced before the frames put next come out.
+     */
+    public long getLatencyFrames() {
+        return (long) ((inputFrames - position) / ratio);
+    }
+
+    /**
+     * @return The number of frames accepted.
+     */
+    public int put(float[] frames, int count) {
+        int accepted = Math.min(count, getInputSpace());
+        System.arraycopy(frames, 0, input, inputFrames * channelCount, accepted * channelCount);
+        inputFrames += accepted;
+        return accepted;
+    }
+
+    /**
+     * @return The number of frames written to the buffer, 0 if more input is needed first.
+     */
+    public int receive(float[] frames, int maxFrames) {
+        double ratio = this.ratio;
+        int received = 0;
+        while (received < maxFrames && (int) position + 2 < inputFrames) {
+            int i = (int) position;
+            float t = (float) (position - i);
+            int o = received * channelCount;
+            for (int c = 0; c < channelCount; c++) {
+                int x = i * channelCount + c;
+                frames[o + c] = hermite(input[x - channelCount], input[x], input[x + channelCount], input[x + 2 * channelCount], t);
+            }
+            position += ratio;
+            received++;
+        }
+        return received;
+    }
+
+    private static float hermite(float x0, float x1, float x2, float x3, float t) {
+        float c1 = 0.5f * (x2 - x0);
+        float c2 = x0 - 2.5f * x1 + 2f * x2 - 0.5f * x3;
+        float c3 = 0.5f * (x3 - x0) + 1.5f * (x1 - x2);
+        return ((c3 * t + c2) * t + c1) * t + x1;
+    }
+
+    /**
+     * Moves the frames that are still needed, starting one before the current position, to the front of the buffer.
+     */
+    private void compact() {
+        int drop = Math.min((int) position - 1, inputFrames);
+        if (drop <= 0) {
+            return;
+        }
+        System.arraycopy(input, drop * channelCount, input, 0, (inputFrames - drop) * channelCount);
+        inputFrames -= drop;
+        position -= drop;
+    }
+}
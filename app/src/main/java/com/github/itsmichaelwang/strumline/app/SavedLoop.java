@@ -0,0 +1,99 @@
+package com.github.itsmichaelwang.strumline.app;
+
+/**
+ * A loop the user saved in the {@link LoopLibrary}: its bounds on the track with the given {@link ContentFingerprint},
+ * the speed and transposition it was practiced at, and a name and notes. Immutable; saving changes creates a new one
+ * with the same id.
+ */
+public class SavedLoop {
+
+    private final long id;
+    private final String fingerprint;
+    private final String name;
+    private final long loopStart;
+    private final long loopStop;
+    private final int sampleRate;
+    private final float tempo;
+    private final int semitones;
+    private final int cents;
+    private final String notes;
+    private final long savedAt;
+
+    /**
+     * @param loopStart
+     *            The loop start in frames from the start of the track, so that it is restored sample-accurately.
+     * @param loopStop
+     *            The loop stop in frames from the start of the track.
+     * @param sampleRate
+     *            The sample rate the frames are counted at.
+     * @param tempo
+     *            The playback speed, as passed to {@link LoopEngine#setTempo(float)}.
+     * @param savedAt
+     *            When the loop was saved, in milliseconds since the epoch.
+     */
+    public SavedLoop(long id, String fingerprint, String name, long loopStart, long loopStop, int sampleRate,
+            float tempo, int semitones, int cents, String notes, long savedAt) {
+        this.id = id;
+        this.fingerprint = fingerprint;
+        this.name = name;
+        this.loopStart = loopStart;
+        this.loopStop = loopStop;
+        this.sampleRate = sampleRate;
+        this.tempo = tempo;
+        this.semitones = semitones;
+        this.cents = cents;
+        this.notes = notes;
+        this.savedAt = savedAt;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLoopStartFrame() {
+        return loopStart;
+    }
+
+    public long getLoopStopFrame() {
+        return loopStop;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return The given frame of this loop counted at another sample rate, rounded to the nearest frame.
+     */
+    public long toSampleRate(long frame, int sampleRate) {
+        return sampleRate == this.sampleRate ? frame : Math.round((double) frame * sampleRate / this.sampleRate);
+    }
+
+    public float getTempo() {
+        return tempo;
+    }
+
+    public int getSemitones() {
+        return semitones;
+    }
+
+    public int getCents() {
+        return cents;
+    }
+
+    public String getNotes() {
+        return notes;
+    }
+
+    public long getSavedAt() {
+        return savedAt;
+    }
+}
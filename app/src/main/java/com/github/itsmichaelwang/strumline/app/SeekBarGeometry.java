@@ -0,0 +1,157 @@
+package com.github.itsmichaelwang.strumline.app;
+
+/**
+ * Maps between normalized values, where 0 and 1 are the ends of a range seek bar, and screen x-coordinates. Only a
+ * window of the normalized range is visible at a time; zooming in narrows the window, which makes each pixel stand for
+ * a smaller step of the value, so precision grows with the zoom level.
+ */
+public class SeekBarGeometry {
+
+    /**
+     * The narrowest visible window, as a fraction of the whole range.
+     */
+    public static final double MIN_SPAN = 1e-5;
+
+    private final float padding;
+    private int width = 0;
+    private double viewStart = 0d;
+    private double viewEnd = 1d;
+
+    /**
+     * @param padding
+     *            The space left free on either side of the bar, in pixels.
+     */
+    public SeekBarGeometry(float padding) {
+        this.padding = padding;
+    }
+
+    /**
+     * Converts a value of a range seek bar between min and max to a normalized value.
+     */
+    public static double valueToNormalized(double value, double min, double max) {
+        return (value - min) / (max - min);
+    }
+
+    /**
+     * Converts a normalized value back to a value between min and max, before rounding to the bar's value type.
+     */
+    public static double normalizedToValue(double normalized, double min, double max) {
+        return min + normalized * (max - min);
+    }
+
+    /**
+     * Converts a normalized value to the closest int value between min and max.
+     */
+    public static int normalizedToInt(double normalized, int min, int max) {
+        return (int) Math.round(normalizedToValue(normalized, min, max));
+    }
+
+    /**
+     * Converts a normalized value to the closest long value between min and max.
+     */
+    public static long normalizedToLong(double normalized, long min, long max) {
+        return Math.round(normalizedToValue(normalized, min, max));
+    }
+
+    /**
+     * @return The space left free on either side of the bar, in pixels.
+     */
+    public float getPadding() {
+        return padding;
+    }
+
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    /**
+     * @return The width of the bar between the paddings, in pixels.
+     */
+    public int getTrackWidth() {
+        return Math.max(0, (int) (width - 2 * padding));
+    }
+
+    public double getViewStart() {
+        return viewStart;
+    }
+
+    public double getViewEnd() {
+        return viewEnd;
+    }
+
+    public boolean isZoomed() {
+        return viewEnd - viewStart < 1d;
+    }
+
+    /**
+     * Converts a normalized value into screen space. Values outside of the visible window map to coordinates beyond the
+     * paddings.
+     */
+    public float normalizedToScreen(double normalized) {
+        return (float) (padding + (normalized - viewStart) / (viewEnd - viewStart) * (width - 2 * padding));
+    }
+
+    /**
+     * Converts screen space x-coordinates into normalized values, clamped to the visible window.
+     */
+    public double screenToNormalized(float screenCoord) {
+        if (width <= 2 * padding) {
+            // prevent division by zero, simply return the start of the window.
+            return viewStart;
+        }
+        double result = viewStart + (screenCoord - padding) / (width - 2 * padding) * (viewEnd - viewStart);
+        return Math.min(viewEnd, Math.max(viewStart, result));
+    }
+
+    /**
+     * Zooms by the given factor, keeping the value under the focus coordinate in place.
+     *
+     * @param factor
+     *            Greater than 1 to zoom in, less than 1 to zoom out.
+     * @return true if the visible window changed.
+     */
+    public boolean zoom(float focusX, double factor) {
+        double span = viewEnd - viewStart;
+        double newSpan = Math.max(MIN_SPAN, Math.min(1d, span / factor));
+        if (newSpan == span || width <= 2 * padding) {
+            return false;
+        }
+        double focus = viewStart + (focusX - padding) / (width - 2 * padding) * span;
+        double ratio = (focus - viewStart) / span;
+        return setWindow(focus - ratio * newSpan, newSpan);
+    }
+
+    /**
+     * Shows a window of the given span centered on the given normalized value, as far as the ends of the range allow.
+     */
+    public boolean zoomTo(double center, double span) {
+        span = Math.max(MIN_SPAN, Math.min(1d, span));
+        return setWindow(center - 0.5d * span, span);
+    }
+
+    /**
+     * Moves the visible window by the given number of pixels; positive values reveal what lies to the left.
+     */
+    public boolean pan(float dx) {
+        if (width <= 2 * padding) {
+            return false;
+        }
+        double span = viewEnd - viewStart;
+        return setWindow(viewStart - dx / (width - 2 * padding) * span, span);
+    }
+
+    public boolean reset() {
+        return setWindow(0d, 1d);
+    }
+
+    private boolean setWindow(double start, double span) {
+        start = Math.max(0d, Math.min(1d - span, start));
+        double end = start + span;
+        if (start == viewStart && end == viewEnd) {
+            return false;
+        }
+        viewStart = start;
+        viewEnd = end;
+        return true;
+    }
+}
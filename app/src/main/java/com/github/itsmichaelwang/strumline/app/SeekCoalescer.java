@@ -0,0 +1,70 @@
+package com.github.itsmichaelwang.strumline.app;
+
+/**
+ * Funnels seek requests into a {@link Transport} so that at most one seek is in flight at a time. Requests that arrive
+ * while a seek is in flight replace each other, and only the latest one is executed once the transport reports
+ * completion. This turns a drag of the loop start thumb into a handful of seeks instead of one per update.
+ */
+public class SeekCoalescer implements Transport.OnSeekCompleteListener {
+
+    private final Transport transport;
+    private boolean inFlight = false;
+    private long inFlightSeek;     // the number the transport gave the seek in flight
+    private int pending = -1;
+    private long requestedSeeks = 0;
+    private long executedSeeks = 0;
+
+    public SeekCoalescer(Transport transport) {
+        this.transport = transport;
+        transport.setOnSeekCompleteListener(this);
+    }
+
+    public synchronized void seekTo(int msec) {
+        requestedSeeks++;
+        if (inFlight) {
+            pending = msec;
+        } else {
+            execute(msec);
+        }
+    }
+
+    @Override
+    public synchronized void onSeekComplete(Transport transport, long seek) {
+        if (!inFlight || seek != inFlightSeek) {
+            // a seek from before cancel() that the transport carried out anyway
+            return;
+        }
+        if (pending >= 0) {
+            execute(pending);
+            pending = -1;
+        } else {
+            inFlight = false;
+        }
+    }
+
+    /**
+     * Forgets a pending seek, for when the transport was reset and the in-flight seek may never complete.
+     */
+    public synchronized void cancel() {
+        inFlight = false;
+        pending = -1;
+    }
+
+    public synchronized boolean isInFlight() {
+        return inFlight;
+    }
+
+    public synchronized long getRequestedSeeks() {
+        return requestedSeeks;
+    }
+
+    public synchronized long getExecutedSeeks() {
+        return executedSeeks;
+    }
+
+    private void execute(int msec) {
+        inFlight = true;
+        executedSeeks++;
+        inFlightSeek = transport.seekTo(msec);
+    }
+}
@@ -0,0 +1,140 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.IOException;
+
+/**
+ * Gets a picked song ready to play on a background thread, since content providers can be slow and opening a decoder
+ * takes a while: it fingerprints the file, loads or builds its {@link Mp3SeekIndex} and opens and starts the decoder.
+ * Progress is reported stage by stage, and loading can be cancelled at any point, in which case a decoder that was
+ * already opened is released again.<br />
+ * <br />
+ * Nothing is decoded ahead: the source is handed over as soon as its decoder is running, and the {@link LoopEngine}
+ * starts playing from its first output buffer.
+ */
+public class SongLoader {
+
+    public static final int STAGE_FINGERPRINT = 0;
+    public static final int STAGE_INDEX = 1;
+    public static final int STAGE_DECODER = 2;
+    public static final int STAGES = 3;
+
+    /**
+     * Receives the progress of a loader on its own thread.
+     */
+    public interface Listener {
+        /**
+         * @param stage
+         *            The stage that has just begun, one of the STAGE constants.
+         */
+        public void onStageStarted(SongLoader loader, int stage);
+
+        /**
+         * Hands over the opened source, which the listener then owns.
+         *
+         * @param fingerprint
+         *            The {@link ContentFingerprint} of the song, or null if it could not be computed.
+         * @param seekIndex
+         *            The song's seek index, or null if it is not an MP3 file.
+         */
+        public void onLoaded(SongLoader loader, PcmSource source, String fingerprint, Mp3SeekIndex seekIndex);
+
+        public void onFailed(SongLoader loader, IOException e);
+    }
+
+    private final Context context;
+    private final Uri uri;
+    private final AnalysisCache cache;
+    private final Listener listener;
+    private final Thread thread;
+    private final long startNanos;
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param cache
+     *            Cache to look the seek index up in and store it to, or null.
+     */
+    public SongLoader(Context context, Uri uri, AnalysisCache cache, Listener listener) {
+        this.context = context.getApplicationContext();
+        this.uri = uri;
+        this.cache = cache;
+        this.listener = listener;
+        startNanos = System.nanoTime();
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        }, "SongLoader");
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Abandons loading. No further callbacks are made unless one is already under way.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public Uri getUri() {
+        return uri;
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} the loader was created at, for measuring the time to first audio.
+     */
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    private void load() {
+        String fingerprint = null;
+        Mp3SeekIndex seekIndex = null;
+
+        listener.onStageStarted(this, STAGE_FINGERPRINT);
+        try {
+            fingerprint = ContentFingerprint.of(context.getContentResolver(), uri);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (cancelled) {
+            return;
+        }
+
+        listener.onStageStarted(this, STAGE_INDEX);
+        try {
+            // MP3 seeks are estimates unless the packets have been indexed
+            seekIndex = Mp3SeekIndex.load(cache, fingerprint, context.getContentResolver(), uri);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (cancelled) {
+            return;
+        }
+
+        listener.onStageStarted(this, STAGE_DECODER);
+        PcmSource source;
+        try {
+            source = new MediaCodecPcmSource(context, uri, seekIndex);
+        } catch (IOException e) {
+            if (!cancelled) {
+                listener.onFailed(this, e);
+            }
+            return;
+        }
+        if (cancelled) {
+            source.release();
+            return;
+        }
+        listener.onLoaded(this, source, fingerprint, seekIndex);
+    }
+}
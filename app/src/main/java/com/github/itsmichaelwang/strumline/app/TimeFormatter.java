@@ -0,0 +1,71 @@
+package com.github.itsmichaelwang.strumline.app;
+
+/**
+ * Formats times as m:ss or m:ss.mmm into a reusable char array, for {@link android.widget.TextView#setText(char[],
+ * int, int)}. Unlike building the text with String.format, this allocates nothing, and {@link #format(long)} tells
+ * whether the text changed at all, so that a view updated many times a second is only touched when it has to be.
+ */
+public class TimeFormatter {
+
+    private static final int MAX_LENGTH = 20 + 1 + 2 + 1 + 3;   // the minutes of Long.MAX_VALUE ms, then :ss.mmm
+
+    private final boolean showMillis;
+    private final char[] chars = new char[MAX_LENGTH];
+    private int length = 0;
+    private long shown = -1;        // the time shown, in units of the last digit, or -1 if nothing has been formatted
+
+    /**
+     * @param showMillis
+     *            Whether to add the milliseconds after the seconds.
+     */
+    public TimeFormatter(boolean showMillis) {
+        this.showMillis = showMillis;
+    }
+
+    /**
+     * Formats the given time, in milliseconds, unless the text would be the same as the last one.
+     *
+     * @return Whether the text changed.
+     */
+    public boolean format(long ms) {
+        ms = Math.max(0, ms);
+        long units = showMillis ? ms : ms / 1000;
+        if (units == shown) {
+            return false;
+        }
+        shown = units;
+
+        // written from the end backwards, then moved to the front
+        int i = MAX_LENGTH;
+        if (showMillis) {
+            int millis = (int) (ms % 1000);
+            chars[--i] = (char) ('0' + millis % 10);
+            chars[--i] = (char) ('0' + millis / 10 % 10);
+            chars[--i] = (char) ('0' + millis / 100);
+            chars[--i] = '.';
+        }
+        int seconds = (int) (ms / 1000 % 60);
+        chars[--i] = (char) ('0' + seconds % 10);
+        chars[--i] = (char) ('0' + seconds / 10);
+        chars[--i] = ':';
+        long minutes = ms / 60000;
+        do {
+            chars[--i] = (char) ('0' + minutes % 10);
+            minutes /= 10;
+        } while (minutes > 0);
+        length = MAX_LENGTH - i;
+        System.arraycopy(chars, i, chars, 0, length);
+        return true;
+    }
+
+    /**
+     * @return The characters of the last text formatted, starting at index 0. The array is reused.
+     */
+    public char[] getChars() {
+        return chars;
+    }
+
+    public int getLength() {
+        return length;
+    }
+}
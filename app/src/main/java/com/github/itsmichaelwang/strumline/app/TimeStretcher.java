@@ -0,0 +1,238 @@
+package com.github.itsmichaelwang.strumline.app;
+
+/**
+ * Changes the tempo of a stream of interleaved float frames without changing its pitch, using WSOLA (waveform
+ * similarity overlap-add). Output is built from Hann-windowed segments of the input that overlap by half. Segments are
+ * taken at nominal positions that advance by tempo times the output hop, each shifted by up to {@link #seekRange}
+ * frames so that it lines up best with the natural continuation of the previous segment.<br />
+ * <br />
+ * All buffers are allocated up front; {@link #put} and {@link #receive} never allocate. Not thread-safe, except for
+ * {@link #setTempo(double)} which takes effect at the next segment.
+ */
+public class TimeStretcher {
+
+    /**
+     * The range of playback speeds offered to the user.
+     */
+    public static final double MIN_TEMPO = 0.25d;
+    public static final double MAX_TEMPO = 1.5d;
+
+    /**
+     * The range accepted by {@link #setTempo(double)}, which is wider since pitch shifting stretches by an extra factor.
+     */
+    public static final double MIN_RATIO = MIN_TEMPO / 2;
+    public static final double MAX_RATIO = MAX_TEMPO * 2;
+
+    private static final int COARSE_STEP = 4;       // offsets and samples skipped by the coarse similarity search
+
+    private final int channelCount;
+    private final int overlap;                      // output hop, and overlap between consecutive segments
+    private final int seekRange;
+    private final float[] window;                   // rising half of the Hann window; the falling half is 1 - window
+    private final int inputCapacity;
+
+    private final float[] input;                    // interleaved frames not consumed yet
+    private final float[] mono;                     // mono mix of input, for the similarity search
+    private int inputFrames = 0;
+    private final float[] tail;                     // windowed second half of the previous segment
+    private final float[] output;
+    private int outputStart = 0;
+    private int outputFrames = 0;
+
+    private double nominal = 0d;                    // ideal start of the next segment in input
+    private int previous = -1;                      // start of the previous segment in input, or -1
+    private volatile double tempo = 1d;
+
+    /**
+     * @param maxPutFrames
+     *            The largest number of frames that will be passed to a single {@link #put} call.
+     */
+    public TimeStretcher(int sampleRate, int channelCount, int maxPutFrames) {
+        this.channelCount = channelCount;
+        overlap = Math.max(64, sampleRate / 43);     // about 23 ms, 1024 frames at 44.1 kHz
+        seekRange = overlap / 2;
+        window = new float[overlap];
+        for (int i = 0; i < overlap; i++) {
+            double sin = Math.sin(Math.PI * (i + 0.5d) / (2 * overlap));
+            window[i] = (float) (sin * sin);
+        }
+        inputCapacity = 2 * seekRange + (int) Math.ceil(MAX_RATIO + 3) * overlap + maxPutFrames;
+        input = new float[inputCapacity * channelCount];
+        mono = new float[inputCapacity];
+        tail = new float[overlap * channelCount];
+        output = new float[overlap * channelCount];
+    }
+
+    /**
+     * @param tempo
+     *            The speed-up factor, between {@link #MIN_RATIO} and {@link #MAX_RATIO}; 1 leaves the input unchanged.
+     */
+    public void setTempo(double tempo) {
+        this.tempo = Math.max(MIN_RATIO, Math.min(MAX_RATIO, tempo));
+    }
+
+    public double getTempo() {
+        return tempo;
+    }
+
+    /**
+     * Drops all buffered frames, for example after a seek.
+     */
+    public void clear() {
+        inputFrames = 0;
+        outputStart = 0;
+        outputFrames = 0;
+        nominal = 0d;
+        previous = -1;
+    }
+
+    /**
+     * @return How many frames {@link #put} accepts right now.
+     */
+    public int getInputSpace() {
+        compact();
+        return inputCapacity - inputFrames;
+    }
+
+    /**
+     * @return The number of output frames that will be produced before the frames put next come out.
+     */
+    public long getLatencyFrames() {
+        return outputFrames + (long) ((inputFrames - nominal) / tempo);
+    }
+
+    /**
+     * Appends frames to the input.
+     *
+     * @return The number of frames accepted, which is less than requested if {@link #getInputSpace()} was exceeded.
+     */
+    public int put(float[] frames, int count) {
+        int accepted = Math.min(count, getInputSpace());
+        System.arraycopy(frames, 0, input, inputFrames * channelCount, accepted * channelCount);
+        for (int frame = 0; frame < accepted; frame++) {
+            float sum = 0f;
+            for (int c = 0; c < channelCount; c++) {
+                sum += frames[frame * channelCount + c];
+            }
+            mono[inputFrames + frame] = sum;
+        }
+        inputFrames += accepted;
+        return accepted;
+    }
+
+    /**
+     * Takes up to the given number of stretched frames.
+     *
+     * @return The number of frames written to the buffer, 0 if more input is needed first.
+     */
+    public int receive(float[] frames, int maxFrames) {
+        int received = 0;
+        while (received < maxFrames) {
+            if (outputFrames == 0) {
+                if (!canProcessSegment()) {
+                    break;
+                }
+                processSegment();
+            }
+            int n = Math.min(outputFrames, maxFrames - received);
+            System.arraycopy(output, outputStart * channelCount, frames, received * channelCount, n * channelCount);
+            outputStart += n;
+            outputFrames -= n;
+            received += n;
+        }
+        return received;
+    }
+
+    private boolean canProcessSegment() {
+        return (int) nominal + seekRange + 2 * overlap <= inputFrames;
+    }
+
+    private void processSegment() {
+        double tempo = this.tempo;
+        int start;
+        if (previous < 0) {
+            // nothing to line up with; start the stream unfaded
+            start = (int) nominal;
+            System.arraycopy(input, start * channelCount, output, 0, overlap * channelCount);
+        }
+        else {
+            start = tempo == 1d ? previous + overlap : findBestStart(previous + overlap, (int) nominal);
+            for (int i = 0; i < overlap; i++) {
+                float fadeIn = window[i];
+                int o = i * channelCount;
+                int in = (start + i) * channelCount;
+                for (int c = 0; c < channelCount; c++) {
+                    output[o + c] = tail[o + c] + input[in + c] * fadeIn;
+                }
+            }
+        }
+        for (int i = 0; i < overlap; i++) {
+            float fadeOut = 1f - window[i];
+            int o = i * channelCount;
+            int in = (start + overlap + i) * channelCount;
+            for (int c = 0; c < channelCount; c++) {
+                tail[o + c] = input[in + c] * fadeOut;
+            }
+        }
+        outputStart = 0;
+        outputFrames = overlap;
+        previous = start;
+        nominal += overlap * tempo;
+    }
+
+    /**
+     * Finds the start within seekRange of the nominal position whose first overlap frames are most similar to the
+     * template, by normalized cross-correlation: first on a coarse grid, then refined around the best coarse match.
+     */
+    private int findBestStart(int template, int nominal) {
+        int from = Math.max(0, nominal - seekRange);
+        int to = nominal + seekRange;
+        int best = nominal;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int candidate = from; candidate <= to; candidate += COARSE_STEP) {
+            double score = similarity(template, candidate, COARSE_STEP);
+            if (score > bestScore) {
+                bestScore = score;
+                best = candidate;
+            }
+        }
+        int coarse = best;
+        bestScore = Double.NEGATIVE_INFINITY;
+        for (int candidate = Math.max(from, coarse - COARSE_STEP + 1); candidate < Math.min(to + 1, coarse + COARSE_STEP); candidate++) {
+            double score = similarity(template, candidate, 1);
+            if (score > bestScore) {
+                bestScore = score;
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private double similarity(int template, int candidate, int step) {
+        float correlation = 0f;
+        float energy = 1e-9f;
+        for (int i = 0; i < overlap; i += step) {
+            float value = mono[candidate + i];
+            correlation += mono[template + i] * value;
+            energy += value * value;
+        }
+        return correlation / Math.sqrt(energy);
+    }
+
+    /**
+     * Moves the frames that are still needed to the front of the input buffer.
+     */
+    private void compact() {
+        int drop = Math.min(previous < 0 ? (int) nominal : previous + overlap, (int) nominal - seekRange);
+        if (drop < overlap) {
+            return;
+        }
+        System.arraycopy(input, drop * channelCount, input, 0, (inputFrames - drop) * channelCount);
+        System.arraycopy(mono, drop, mono, 0, inputFrames - drop);
+        inputFrames -= drop;
+        nominal -= drop;
+        if (previous >= 0) {
+            previous -= drop;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.itsmichaelwang.strumline.app;
+
+/**
+ * The part of a player that the {@link LoopController} drives: starting, pausing, seeking and the loop bounds. The app
+ * plays through a {@link LoopEngine}; in the JVM tests a simulated transport stands in for it on a virtual clock, so
+ * that the controller can be exercised headless.
+ */
+public interface Transport {
+
+    /**
+     * Called once a {@link Transport#seekTo(int)} has been carried out, on whatever thread carried it out.
+     */
+    public interface OnSeekCompleteListener {
+        /**
+         * @param seek
+         *            The number {@link Transport#seekTo(int)} returned for the seek.
+         */
+        public void onSeekComplete(Transport transport, long seek);
+    }
+
+    public void start();
+
+    public void pause();
+
+    public boolean isPlaying();
+
+    /**
+     * Seeks asynchronously, calling the listener once done.
+     *
+     * @param msec
+     *            The position to continue playback from, in milliseconds from the start of the track.
+     * @return A number identifying the seek. Seeks merged into a later one are reported under the later one's number.
+     */
+    public long seekTo(int msec);
+
+    /**
+     * Sets the loop bounds, in milliseconds from the start of the track.
+     */
+    public void setLoopBounds(int loopStart, int loopStop);
+
+    /**
+     * Sets the loop bounds in frames, for sample-accurate loops.
+     */
+    public void setLoopFrames(long loopStart, long loopStop);
+
+    public long getLoopStartFrame();
+
+    public long getLoopStopFrame();
+
+    /**
+     * @return The source frame that is currently audible.
+     */
+    public long getCurrentFrame();
+
+    public int getSampleRate();
+
+    public void setOnSeekCompleteListener(OnSeekCompleteListener listener);
+}
@@ -0,0 +1,396 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import android.os.Process;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes a track once on a background thread and builds its {@link PeakPyramid}, {@link BeatGrid} and
+ * {@link Chromagram}. The pyramid is handed out as soon as the track is opened and fills up while decoding runs, so the
+ * waveform can be drawn progressively; a provisional beat grid follows once the first
+ * {@link #PROVISIONAL_BEATS_SECONDS} seconds have been analyzed. Finished results are kept in an {@link AnalysisCache},
+ * so reopening a track skips decoding altogether.<br />
+ * <br />
+ * Decoding and analysis are spread over the cores: the track is cut into chunks that are decoded and analyzed in
+ * parallel, each by its own {@link PcmSource} seeked to the chunk, on an executor from {@link #newExecutor()}. Each
+ * chunk also decodes some frames before its start, so that decoders settle after the seek and the beat tracker's
+ * windows straddling the seam see the same audio as in a single pass; chunks also decode half a chroma window past
+ * their end. The chunk results are joined in order on the analyzer's own thread while the chunks are still being
+ * analyzed, so the peaks and the provisional beat grid follow the first chunks block by block rather than waiting for
+ * each to finish; that thread also reports progress as they come in. Chroma frames go straight into the shared
+ * chromagram, which may be filled further by a {@link ChordAnalyzer} at the same time.
+ */
+public class WaveformAnalyzer {
+
+    private static final String CACHE_KIND_PEAKS = "peaks";
+    private static final String CACHE_KIND_BEATS = "beats";
+    private static final String CACHE_KIND_CHROMA = "chroma";
+    private static final int PROVISIONAL_BEATS_SECONDS = 20;
+    private static final int BLOCK_FRAMES = 4096;
+    private static final int MAX_THREADS = 4;           // every thread holds a hardware decoder, and devices have few
+    private static final int CHUNKS_PER_THREAD = 4;     // smaller chunks even out the load between threads
+    private static final int MIN_CHUNK_SECONDS = 15;
+    private static final int SEEK_PREROLL_FRAMES = 4096;
+    private static final long PROGRESS_INTERVAL_MS = 250;
+
+    /**
+     * Called on the analyzer thread.
+     */
+    public interface Listener {
+        /**
+         * New peaks are available. Called at most four times a second, and once more when done.
+         */
+        public void onPeaksUpdated(PeakPyramid peaks, boolean done);
+
+        /**
+         * A beat grid is available: a provisional one estimated from the start of the track, then the final one.
+         */
+        public void onBeatGridUpdated(BeatGrid beats, boolean done);
+    }
+
+    private final PcmSourceFactory sourceFactory;
+    private final AnalysisCache cache;
+    private final String fingerprint;
+    private final Listener listener;
+    private final ExecutorService executor;
+    private final Thread thread;
+    private volatile boolean cancelled = false;
+    private volatile PeakPyramid peaks = null;
+    private volatile BeatGrid beats = null;
+    private volatile Chromagram chromagram = null;
+
+    /**
+     * @param cache
+     *            Cache to look the peaks up in and store them to, or null.
+     * @param fingerprint
+     *            The {@link ContentFingerprint} of the track, or null if it could not be computed.
+     * @param executor
+     *            Executor to analyze the chunks of the track on, typically from {@link #newExecutor()}.
+     */
+    public WaveformAnalyzer(PcmSourceFactory sourceFactory, AnalysisCache cache, String fingerprint,
+            ExecutorService executor, Listener listener) {
+        this.sourceFactory = sourceFactory;
+        this.cache = fingerprint != null ? cache : null;
+        this.fingerprint = fingerprint;
+        this.executor = executor;
+        this.listener = listener;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                analyze();
+            }
+        }, "WaveformAnalyzer");
+    }
+
+    /**
+     * @return An executor with a background thread per core, up to {@link #MAX_THREADS}, that can be shared by all
+     *         analyzers. Its threads stop when idle.
+     */
+    public static ExecutorService newExecutor() {
+        int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "WaveformAnalyzer-" + count.incrementAndGet());
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops decoding on all threads, for example because another song was picked. The peaks joined so far stay
+     * readable.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return The pyramid being built, or null if the track has not been opened yet.
+     */
+    public PeakPyramid getPeaks() {
+        return peaks;
+    }
+
+    /**
+     * @return The latest beat grid, or null if there is none yet.
+     */
+    public BeatGrid getBeatGrid() {
+        return beats;
+    }
+
+    /**
+     * @return The chromagram being filled, or null if the track has not been opened yet.
+     */
+    public Chromagram getChromagram() {
+        return chromagram;
+    }
+
+    private void analyze() {
+        if (cache != null) {
+            ByteBuffer cachedPeaks = cache.get(fingerprint, CACHE_KIND_PEAKS, PeakPyramid.FORMAT_VERSION);
+            ByteBuffer cachedBeats = cache.get(fingerprint, CACHE_KIND_BEATS, BeatGrid.FORMAT_VERSION);
+            ByteBuffer cachedChroma = cache.get(fingerprint, CACHE_KIND_CHROMA, Chromagram.FORMAT_VERSION);
+            if (cachedPeaks != null && cachedBeats != null && cachedChroma != null) {
+                chromagram = Chromagram.readFrom(cachedChroma);
+                peaks = PeakPyramid.readFrom(cachedPeaks);
+                listener.onPeaksUpdated(peaks, true);
+                beats = BeatGrid.readFrom(cachedBeats);
+                listener.onBeatGridUpdated(beats, true);
+                return;
+            }
+        }
+
+        PcmSource source = null;
+        List<Future<Chunk>> futures = new ArrayList<Future<Chunk>>();
+        try {
+            source = sourceFactory.open();
+            int sampleRate = source.getSampleRate();
+            long frameCount = source.getFrameCount();
+            chromagram = new Chromagram(sampleRate, frameCount);
+            PeakPyramid peaks = new PeakPyramid(sampleRate, frameCount);
+            this.peaks = peaks;
+            BeatTracker beatTracker = new BeatTracker(sampleRate, frameCount);
+            long provisionalFrames = (long) PROVISIONAL_BEATS_SECONDS * sampleRate;
+
+            // the first chunk reuses the source opened above, the others open their own
+            long[] starts = planChunks(sampleRate, frameCount);
+            List<Chunk> chunks = new ArrayList<Chunk>();
+            for (int i = 0; i < starts.length; i++) {
+                long end = i + 1 < starts.length ? starts[i + 1] : Long.MAX_VALUE;
+                Chunk chunk = new Chunk(i == 0 ? source : null, starts[i], end);
+                chunks.add(chunk);
+                futures.add(executor.submit(chunk));
+            }
+
+            // the chunks are joined in order, each block by block while it is analyzed rather than once it is finished
+            long lastProgress = System.currentTimeMillis();
+            for (int i = 0; i < chunks.size() && !cancelled; i++) {
+                Chunk chunk = chunks.get(i);
+                int joinedBuckets = 0;
+                int joinedEnvelope = 0;
+                boolean done = false;
+                while (!done && !cancelled) {
+                    try {
+                        futures.get(i).get(PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                        done = true;
+                    } catch (TimeoutException e) {
+                        // join whatever the chunk has analyzed so far
+                    }
+                    PeakPyramid chunkPeaks = chunk.peaks;
+                    BeatTracker chunkBeatTracker = chunk.beatTracker;
+                    if (chunkPeaks != null) {
+                        joinedBuckets = peaks.append(chunkPeaks, joinedBuckets);
+                        joinedEnvelope = beatTracker.append(chunkBeatTracker, joinedEnvelope);
+                    }
+                    if (beats == null && beatTracker.getAnalyzedFrames() >= provisionalFrames) {
+                        updateBeats(beatTracker.estimate(), false);
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now - lastProgress >= PROGRESS_INTERVAL_MS) {
+                        lastProgress = now;
+                        listener.onPeaksUpdated(peaks, false);
+                    }
+                }
+            }
+            if (!cancelled) {
+                peaks.finish();
+                listener.onPeaksUpdated(peaks, true);
+                BeatGrid grid = beatTracker.estimate();
+                if (grid == null) {
+                    // too short to find a tempo in
+                    grid = new BeatGrid(sampleRate, frameCount, 0f, new long[0], 0);
+                }
+                updateBeats(grid, true);
+                if (cache != null) {
+                    ByteBuffer payload = AnalysisCache.allocatePayload(peaks.getSerializedSize());
+                    peaks.writeTo(payload);
+                    payload.flip();
+                    cache.put(fingerprint, CACHE_KIND_PEAKS, PeakPyramid.FORMAT_VERSION, payload);
+                    payload = AnalysisCache.allocatePayload(grid.getSerializedSize());
+                    grid.writeTo(payload);
+                    payload.flip();
+                    cache.put(fingerprint, CACHE_KIND_BEATS, BeatGrid.FORMAT_VERSION, payload);
+                    payload = AnalysisCache.allocatePayload(chromagram.getSerializedSize());
+                    chromagram.writeTo(payload);
+                    payload.flip();
+                    cache.put(fingerprint, CACHE_KIND_CHROMA, Chromagram.FORMAT_VERSION, payload);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // the chunks still running must be done with the first source before it is released
+            cancelled = true;
+            for (Future<Chunk> future : futures) {
+                future.cancel(false);
+            }
+            for (Future<Chunk> future : futures) {
+                awaitQuietly(future);
+            }
+            if (source != null) {
+                source.release();
+            }
+        }
+    }
+
+    /**
+     * @return The first frame of each chunk, which are all multiples of the bucket and envelope sizes so that the
+     *         chunk results join up exactly.
+     */
+    private long[] planChunks(int sampleRate, long frameCount) {
+        int alignment = Math.max(PeakPyramid.BASE_BUCKET_FRAMES, BeatTracker.getFrameAlignment(sampleRate));
+        long minChunkFrames = (long) MIN_CHUNK_SECONDS * sampleRate;
+        int threads = executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getMaximumPoolSize() : 1;
+        int count = frameCount <= 0 ? 1
+                : (int) Math.max(1, Math.min(threads * CHUNKS_PER_THREAD, frameCount / minChunkFrames));
+        long chunkFrames = roundUp((frameCount + count - 1) / count, alignment);
+        long[] starts = new long[count];
+        for (int i = 0; i < count; i++) {
+            starts[i] = i * chunkFrames;
+        }
+        return starts;
+    }
+
+    private static long roundUp(long value, long multiple) {
+        return (value + multiple - 1) / multiple * multiple;
+    }
+
+    private static void awaitQuietly(Future<?> future) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                future.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (CancellationException e) {
+                break;
+            } catch (ExecutionException e) {
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void updateBeats(BeatGrid grid, boolean done) {
+        if (grid != null) {
+            beats = grid;
+            listener.onBeatGridUpdated(grid, done);
+        }
+    }
+
+    /**
+     * Decodes and analyzes the frames from start up to end, or to the end of the track for the last chunk.
+     */
+    private class Chunk implements Callable<Chunk> {
+        private final PcmSource sharedSource;
+        private final long start;
+        private final long end;
+        // set once the chunk's source is open, and then filled block by block
+        private volatile PeakPyramid peaks;
+        private volatile BeatTracker beatTracker;
+
+        /**
+         * @param sharedSource
+         *            A source positioned at the start of the track to use for the first chunk, which is not released.
+         */
+        Chunk(PcmSource sharedSource, long start, long end) {
+            this.sharedSource = sharedSource;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Chunk call() throws IOException {
+            PcmSource source = sharedSource != null ? sharedSource : sourceFactory.open();
+            try {
+                int sampleRate = source.getSampleRate();
+                int channelCount = source.getChannelCount();
+                int alignment = BeatTracker.getFrameAlignment(sampleRate);
+                int halfWindow = ChromaExtractor.getHalfWindowFrames(sampleRate);
+                long warmUp = Math.min(start, roundUp(SEEK_PREROLL_FRAMES
+                        + Math.max(BeatTracker.getMinWarmUpFrames(sampleRate), halfWindow), alignment));
+                if (start > 0) {
+                    source.seekTo(start - warmUp);
+                }
+                long length = end == Long.MAX_VALUE ? Math.max(0, source.getFrameCount() - start) : end - start;
+                // the chroma frames near the seams are computed by both chunks, from the same settled audio
+                long chromaStart = start - Math.min(start, halfWindow);
+                long chromaEnd = end == Long.MAX_VALUE ? end : end + halfWindow;
+                beatTracker = new BeatTracker(sampleRate, length, warmUp);
+                peaks = new PeakPyramid(sampleRate, length);
+                ChromaExtractor chromaExtractor = new ChromaExtractor(chromagram, chromaStart);
+
+                short[] buffer = new short[BLOCK_FRAMES * channelCount];
+                long position = start - warmUp;
+                boolean ended = false;
+                while (!cancelled && position < chromaEnd) {
+                    // blocks never straddle the start or end of the chunk, outside of which only some analyses run
+                    long limit = position < chromaStart ? chromaStart
+                            : position < start ? start : position < end ? end : chromaEnd;
+                    int read = source.read(buffer, 0, (int) Math.min(BLOCK_FRAMES, limit - position));
+                    if (read < 0) {
+                        ended = true;
+                        break;
+                    }
+                    if (position >= chromaStart) {
+                        chromaExtractor.add(buffer, read, channelCount);
+                    }
+                    if (position < start) {
+                        beatTracker.add(buffer, read, channelCount);
+                        peaks.skip(buffer, read, channelCount);
+                    } else if (position < end) {
+                        beatTracker.add(buffer, read, channelCount);
+                        peaks.add(buffer, read, channelCount);
+                    }
+                    position += read;
+                }
+                if (ended) {
+                    chromaExtractor.finish();
+                }
+                peaks.finish();
+                return this;
+            } finally {
+                if (sharedSource == null) {
+                    source.release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.github.itsmichaelwang.strumline.app;
+
+/**
+ * The lines a waveform is drawn with behind a range seek bar: one vertical line from the minimum to the maximum sample
+ * of each pixel column of the visible window, in the {@code x0, y0, x1, y1} layout that
+ * {@code Canvas.drawLines(float[], int, int, Paint)} takes. The arrays are kept between builds and only reallocated
+ * when the width of the bar changes, so rebuilding the lines while zooming or panning does not allocate.
+ */
+public class WaveformLines {
+
+    private short[] columnMins = new short[0];
+    private short[] columnMaxs = new short[0];
+    private float[] lines = new float[0];
+
+    /**
+     * Builds the lines of the part of the waveform that the geometry shows. Only the visible window is fetched, so the
+     * cost stays O(pixels) at any zoom level.
+     *
+     * @param waveform
+     *            The peaks of the whole track, which spans the whole bar.
+     * @param geometry
+     *            The mapping of the bar to draw on.
+     * @param height
+     *            The height of the bar in pixels; the waveform is centered on it.
+     * @return The number of floats of {@link #getLines()} to draw.
+     */
+    public int build(PeakPyramid waveform, SeekBarGeometry geometry, float height) {
+        int trackWidth = geometry.getTrackWidth();
+        if (trackWidth != columnMins.length) {
+            columnMins = new short[trackWidth];
+            columnMaxs = new short[trackWidth];
+            lines = new float[4 * trackWidth];
+        }
+        long frameCount = waveform.getFrameCount();
+        int columns = waveform.getPeaks((long) (geometry.getViewStart() * frameCount),
+                (long) (geometry.getViewEnd() * frameCount), trackWidth, columnMins, columnMaxs);
+        float padding = geometry.getPadding();
+        float center = 0.5f * height;
+        float scale = center / 32768f;
+        for (int column = 0; column < columns; column++) {
+            int i = 4 * column;
+            lines[i] = lines[i + 2] = padding + column + 0.5f;
+            lines[i + 1] = center - scale * columnMaxs[column];
+            lines[i + 3] = center - scale * columnMins[column] + 1;
+        }
+        return 4 * columns;
+    }
+
+    /**
+     * @return The lines of the last build, of which only as many floats as it returned are valid.
+     */
+    public float[] getLines() {
+        return lines;
+    }
+}
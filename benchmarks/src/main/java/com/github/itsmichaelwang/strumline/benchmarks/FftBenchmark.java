@@ -0,0 +1,54 @@
+package com.github.itsmichaelwang.strumline.benchmarks;
+
+import com.github.itsmichaelwang.strumline.app.Fft;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A forward {@link Fft} and the magnitude spectrum of one block, as the onset, beat and chroma analysis compute them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FftBenchmark {
+
+    @Param({"1024", "4096"})
+    public int size;
+
+    private Fft fft;
+    private float[] signal;
+    private float[] re;
+    private float[] im;
+    private float[] magnitudes;
+
+    @Setup
+    public void setUp() {
+        fft = new Fft(size);
+        signal = Signals.musicFloats(size / Signals.CHANNELS, 1);
+        re = new float[size];
+        im = new float[size];
+        magnitudes = new float[size / 2 + 1];
+    }
+
+    @Benchmark
+    public float[] magnitudes() {
+        System.arraycopy(signal, 0, re, 0, size);
+        fft.magnitudes(re, im, magnitudes);
+        return magnitudes;
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.itsmichaelwang.strumline.benchmarks;
+
+import com.github.itsmichaelwang.strumline.app.LoopLibrary;
+import com.github.itsmichaelwang.strumline.app.SavedLoop;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opening a {@link LoopLibrary} of thousands of tracks with ten loops each, which the app does once at startup, and
+ * listing the loops of one track, which it does whenever a song is opened. A tenth of the loops saved are deleted
+ * again, so that the log holds tombstones and dead records like one that has been in use for a while.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class LoopLibraryBenchmark {
+
+    private static final int LOOPS_PER_TRACK = 10;
+    private static final int LOOKUPS = 1024;
+
+    @Param({"10000", "50000"})
+    public int loops;
+
+    private File file;
+    private LoopLibrary library;
+    private final String[] lookups = new String[LOOKUPS];
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("loops", ".log");
+        file.delete();
+        Random random = new Random(1);
+        String[] tracks = new String[loops / LOOPS_PER_TRACK];
+        for (int i = 0; i < tracks.length; i++) {
+            tracks[i] = String.format("%016x", random.nextLong());
+        }
+        LoopLibrary writer = new LoopLibrary(file);
+        for (int i = 0; i < loops * 10 / 9; i++) {
+            long start = random.nextInt(300) * (long) Signals.SAMPLE_RATE;
+            SavedLoop loop = writer.save(tracks[random.nextInt(tracks.length)], "Loop " + i, start,
+                    start + (2 + random.nextInt(20)) * (long) Signals.SAMPLE_RATE, Signals.SAMPLE_RATE,
+                    0.5f + random.nextInt(100) / 100f, random.nextInt(5) - 2, 0,
+                    random.nextInt(4) == 0 ? "Watch the slide into the chorus, keep the strumming even" : "");
+            if (random.nextInt(10) == 0) {
+                writer.delete(loop.getId());
+            }
+        }
+        writer.close();
+
+        library = new LoopLibrary(file);
+        for (int i = 0; i < LOOKUPS; i++) {
+            lookups[i] = tracks[random.nextInt(tracks.length)];
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        library.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public int open() throws IOException {
+        LoopLibrary opened = new LoopLibrary(file);
+        opened.close();
+        return opened.getLoopCount();
+    }
+
+    @Benchmark
+    public List<SavedLoop> getLoops() {
+        return library.getLoops(lookups[next++ & (LOOKUPS - 1)]);
+    }
+}
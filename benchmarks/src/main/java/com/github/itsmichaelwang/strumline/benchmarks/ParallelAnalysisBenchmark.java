@@ -0,0 +1,170 @@
+package com.github.itsmichaelwang.strumline.benchmarks;
+
+import com.github.itsmichaelwang.strumline.app.BeatTracker;
+import com.github.itsmichaelwang.strumline.app.ChromaExtractor;
+import com.github.itsmichaelwang.strumline.app.Chromagram;
+import com.github.itsmichaelwang.strumline.app.PeakPyramid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-track analysis of a four-minute track on 1 to 8 threads, to show how it scales with the cores: the track is cut
+ * into chunks the way the WaveformAnalyzer cuts it, four per thread with the same warm-up before each, and every chunk
+ * builds its peaks, beat envelope and chroma frames. The chunks are joined in order while they run, as in the app.
+ * Decoding, which the app spreads over the threads as well, is left out, since MediaCodec is not available here.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelAnalysisBenchmark {
+
+    private static final long TRACK_FRAMES = 4L * 60 * Signals.SAMPLE_RATE;
+    private static final int BLOCK_FRAMES = 4096;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int SEEK_PREROLL_FRAMES = 4096;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    // a second of audio that the track repeats, so that setting up does not take minutes
+    private short[] second;
+    private ExecutorService executor;
+
+    @Setup
+    public void setUp() {
+        second = Signals.music(Signals.SAMPLE_RATE, 1);
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public PeakPyramid analyzeTrack() throws InterruptedException, ExecutionException {
+        int sampleRate = Signals.SAMPLE_RATE;
+        Chromagram chromagram = new Chromagram(sampleRate, TRACK_FRAMES);
+        int alignment = Math.max(PeakPyramid.BASE_BUCKET_FRAMES, BeatTracker.getFrameAlignment(sampleRate));
+        int count = threads * CHUNKS_PER_THREAD;
+        long chunkFrames = roundUp((TRACK_FRAMES + count - 1) / count, alignment);
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        List<Future<Chunk>> futures = new ArrayList<Future<Chunk>>();
+        for (int i = 0; i < count; i++) {
+            Chunk chunk = new Chunk(chromagram, i * chunkFrames, Math.min(TRACK_FRAMES, (i + 1) * chunkFrames));
+            chunks.add(chunk);
+            futures.add(executor.submit(chunk));
+        }
+
+        PeakPyramid peaks = new PeakPyramid(sampleRate, TRACK_FRAMES);
+        BeatTracker beatTracker = new BeatTracker(sampleRate, TRACK_FRAMES);
+        for (int i = 0; i < count; i++) {
+            Chunk chunk = chunks.get(i);
+            int joinedBuckets = 0;
+            int joinedEnvelope = 0;
+            boolean done = false;
+            while (!done) {
+                done = futures.get(i).isDone();
+                PeakPyramid chunkPeaks = chunk.peaks;
+                if (chunkPeaks != null) {
+                    joinedBuckets = peaks.append(chunkPeaks, joinedBuckets);
+                    joinedEnvelope = beatTracker.append(chunk.beatTracker, joinedEnvelope);
+                }
+                if (!done) {
+                    Thread.sleep(1);
+                }
+            }
+            futures.get(i).get();
+        }
+        peaks.finish();
+        return peaks;
+    }
+
+    private static long roundUp(long value, long multiple) {
+        return (value + multiple - 1) / multiple * multiple;
+    }
+
+    /**
+     * Analyzes the frames from start to end, after the same warm-up and with the same chroma margins as in the app.
+     */
+    private class Chunk implements Callable<Chunk> {
+        private final Chromagram chromagram;
+        private final long start;
+        private final long end;
+        volatile PeakPyramid peaks;
+        volatile BeatTracker beatTracker;
+
+        Chunk(Chromagram chromagram, long start, long end) {
+            this.chromagram = chromagram;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Chunk call() {
+            int sampleRate = Signals.SAMPLE_RATE;
+            int channelCount = Signals.CHANNELS;
+            int halfWindow = ChromaExtractor.getHalfWindowFrames(sampleRate);
+            long warmUp = Math.min(start, roundUp(SEEK_PREROLL_FRAMES
+                    + Math.max(BeatTracker.getMinWarmUpFrames(sampleRate), halfWindow),
+                    BeatTracker.getFrameAlignment(sampleRate)));
+            long chromaStart = start - Math.min(start, halfWindow);
+            long chromaEnd = Math.min(TRACK_FRAMES, end + halfWindow);
+            beatTracker = new BeatTracker(sampleRate, end - start, warmUp);
+            peaks = new PeakPyramid(sampleRate, end - start);
+            ChromaExtractor chromaExtractor = new ChromaExtractor(chromagram, chromaStart);
+
+            short[] buffer = new short[BLOCK_FRAMES * channelCount];
+            long position = start - warmUp;
+            while (position < chromaEnd) {
+                long limit = position < chromaStart ? chromaStart
+                        : position < start ? start : position < end ? end : chromaEnd;
+                int read = (int) Math.min(BLOCK_FRAMES, limit - position);
+                // stands in for decoding: the frames of the repeated second at this position
+                int offset = (int) (position % sampleRate);
+                int first = Math.min(read, sampleRate - offset);
+                System.arraycopy(second, offset * channelCount, buffer, 0, first * channelCount);
+                System.arraycopy(second, 0, buffer, first * channelCount, (read - first) * channelCount);
+                if (position >= chromaStart) {
+                    chromaExtractor.add(buffer, read, channelCount);
+                }
+                if (position < start) {
+                    beatTracker.add(buffer, read, channelCount);
+                    peaks.skip(buffer, read, channelCount);
+                } else if (position < end) {
+                    beatTracker.add(buffer, read, channelCount);
+                    peaks.add(buffer, read, channelCount);
+                }
+                position += read;
+            }
+            if (end == TRACK_FRAMES) {
+                chromaExtractor.finish();
+            }
+            peaks.finish();
+            return this;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.github.itsmichaelwang.strumline.benchmarks;
+
+import com.github.itsmichaelwang.strumline.app.PcmMath;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-sample kernels of the render loop, one block of stereo frames per call: the conversions around the float
+ * stages, and the crossfade mixed in at the loop wrap.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PcmMathBenchmark {
+
+    private static final int SAMPLES = Signals.BLOCK_FRAMES * Signals.CHANNELS;
+
+    private short[] tail;
+    private short[] head;
+    private short[] mixed;
+    private float[] floats;
+    private short[] shorts;
+
+    @Setup
+    public void setUp() {
+        tail = Signals.music(Signals.BLOCK_FRAMES, 1);
+        head = Signals.music(Signals.BLOCK_FRAMES, 2);
+        mixed = new short[SAMPLES];
+        floats = Signals.musicFloats(Signals.BLOCK_FRAMES, 3);
+        shorts = new short[SAMPLES];
+    }
+
+    @Benchmark
+    public float[] toFloat() {
+        PcmMath.toFloat(tail, floats, SAMPLES);
+        return floats;
+    }
+
+    @Benchmark
+    public short[] toShort() {
+        PcmMath.toShort(floats, shorts, SAMPLES);
+        return shorts;
+    }
+
+    @Benchmark
+    public short[] crossfade() {
+        // a fresh copy of the tail each time, since the fade mixes in place
+        System.arraycopy(tail, 0, mixed, 0, SAMPLES);
+        PcmMath.crossfade(mixed, 0, head, 0, Signals.BLOCK_FRAMES, Signals.CHANNELS, Signals.BLOCK_FRAMES);
+        return mixed;
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.itsmichaelwang.strumline.benchmarks;
+
+import com.github.itsmichaelwang.strumline.app.PeakPyramid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Peak extraction: adding a block of decoded frames to a {@link PeakPyramid}, and fetching the peaks of a whole
+ * four-minute track for one redraw of the waveform.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PeakPyramidBenchmark {
+
+    private static final long TRACK_FRAMES = 4L * 60 * Signals.SAMPLE_RATE;
+    private static final int COLUMNS = 1032;     // the track width of a 1080 pixel bar
+
+    private short[] block;
+    private PeakPyramid growing;
+    private PeakPyramid complete;
+    private final short[] mins = new short[COLUMNS];
+    private final short[] maxs = new short[COLUMNS];
+    private long zoomStart = 0;
+
+    @Setup
+    public void setUp() {
+        block = Signals.music(Signals.BLOCK_FRAMES, 1);
+        growing = new PeakPyramid(Signals.SAMPLE_RATE, TRACK_FRAMES);
+        complete = new PeakPyramid(Signals.SAMPLE_RATE, TRACK_FRAMES);
+        for (long frame = 0; frame < TRACK_FRAMES; frame += Signals.BLOCK_FRAMES) {
+            complete.add(block, Signals.BLOCK_FRAMES, Signals.CHANNELS);
+        }
+        complete.finish();
+    }
+
+    @Benchmark
+    public PeakPyramid addBlock() {
+        if (growing.getCompletedFrames() >= TRACK_FRAMES) {
+            // start over rather than let the levels grow past the track
+            growing = new PeakPyramid(Signals.SAMPLE_RATE, TRACK_FRAMES);
+        }
+        growing.add(block, Signals.BLOCK_FRAMES, Signals.CHANNELS);
+        return growing;
+    }
+
+    @Benchmark
+    public int getPeaksWholeTrack() {
+        return complete.getPeaks(0, TRACK_FRAMES, COLUMNS, mins, maxs);
+    }
+
+    @Benchmark
+    public int getPeaksZoomedIn() {
+        // a window of a hundredth of the track, panned a little on every call
+        long span = TRACK_FRAMES / 100;
+        zoomStart = (zoomStart + span / 50) % (TRACK_FRAMES - span);
+        return complete.getPeaks(zoomStart, zoomStart + span, COLUMNS, mins, maxs);
+    }
+}
@@ -0,0 +1,55 @@
+package com.github.itsmichaelwang.strumline.benchmarks;
+
+import com.github.itsmichaelwang.strumline.app.Resampler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One block of stereo frames through the {@link Resampler}, at the ratios of transposing two semitones down and up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ResamplerBenchmark {
+
+    @Param({"0.8909", "1.1225"})
+    public double ratio;
+
+    private Resampler resampler;
+    private float[] input;
+    private float[] output;
+
+    @Setup
+    public void setUp() {
+        resampler = new Resampler(Signals.CHANNELS, Signals.BLOCK_FRAMES);
+        resampler.setRatio(ratio);
+        input = Signals.musicFloats(Signals.BLOCK_FRAMES, 1);
+        output = new float[Signals.BLOCK_FRAMES * Signals.CHANNELS];
+    }
+
+    @Benchmark
+    public int resampleBlock() {
+        resampler.put(input, Math.min(Signals.BLOCK_FRAMES, resampler.getInputSpace()));
+        int total = 0;
+        int received;
+        while ((received = resampler.receive(output, Signals.BLOCK_FRAMES)) > 0) {
+            total += received;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,127 @@
+package com.github.itsmichaelwang.strumline.benchmarks;
+
+import com.github.itsmichaelwang.strumline.app.BeatGrid;
+import com.github.itsmichaelwang.strumline.app.PeakPyramid;
+import com.github.itsmichaelwang.strumline.app.RangeSelection;
+import com.github.itsmichaelwang.strumline.app.SeekBarGeometry;
+import com.github.itsmichaelwang.strumline.app.TimeFormatter;
+import com.github.itsmichaelwang.strumline.app.WaveformLines;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame time of a scripted drag on the loop seek bar: a thumb dragged back and forth across a zoomed-in bar with a
+ * waveform and beat grid, one move event per frame, and a pan of the same bar. Each frame runs the seek bar's own
+ * code outside of the canvas calls, which cannot run on the desktop JVM: the {@link RangeSelection} maps the touch to a
+ * value and snaps it to the beat grid, the activity formats the loop bound, and the range, playhead and thumbs are laid
+ * out; a pan also rebuilds the {@link WaveformLines} of the cached track layer.<br />
+ * <br />
+ * Sampled, so that the results show the frame time percentiles rather than just the mean. Run with
+ * {@code -Pjmh.prof=gc} to get the bytes allocated per frame as well, which should be 0 for both.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ScriptedDragBenchmark {
+
+    private static final long TRACK_FRAMES = 4L * 60 * Signals.SAMPLE_RATE;
+    private static final int SONG_MS = 4 * 60 * 1000;
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 144;
+    private static final float PADDING = 24f;
+    private static final int DRAG_FRAMES = 120;  // a two-second sweep at 60 frames per second, each way
+
+    private final SeekBarGeometry geometry = new SeekBarGeometry(PADDING);
+    private final RangeSelection selection = new RangeSelection(geometry);
+    private final WaveformLines waveformLines = new WaveformLines();
+    private final TimeFormatter formatter = new TimeFormatter(true);
+    private final float[] layout = new float[8];     // what a frame hands to the canvas: range, playhead and thumbs
+    private PeakPyramid waveform;
+    private double normalizedPlayhead = 0.39d;
+    private int frame = 0;
+
+    @Setup
+    public void setUp() {
+        short[] block = Signals.music(Signals.BLOCK_FRAMES, 1);
+        waveform = new PeakPyramid(Signals.SAMPLE_RATE, TRACK_FRAMES);
+        for (long frame = 0; frame < TRACK_FRAMES; frame += Signals.BLOCK_FRAMES) {
+            waveform.add(block, Signals.BLOCK_FRAMES, Signals.CHANNELS);
+        }
+        waveform.finish();
+        // 120 bpm
+        long[] beats = new long[SONG_MS / 500];
+        for (int i = 0; i < beats.length; i++) {
+            beats[i] = (long) i * Signals.SAMPLE_RATE / 2;
+        }
+        selection.setBeatSnap(new BeatGrid(Signals.SAMPLE_RATE, TRACK_FRAMES, 120f, beats, 0), false);
+        selection.setNormalized(0.38d, 0.42d);
+        geometry.setWidth(WIDTH);
+        geometry.zoomTo(0.4d, 0.125d);
+        waveformLines.build(waveform, geometry, HEIGHT);
+    }
+
+    /**
+     * One frame of dragging the minimum thumb: the track layer is drawn from its cache.
+     */
+    @Benchmark
+    public float[] dragFrame() {
+        float x = scriptedX();
+        float oldX = geometry.normalizedToScreen(selection.getNormalizedMin());
+        selection.dragMin(x);
+        formatter.format(SeekBarGeometry.normalizedToInt(selection.getNormalizedMin(), 0, SONG_MS));
+        normalizedPlayhead = selection.getNormalizedMin();
+        float newX = geometry.normalizedToScreen(selection.getNormalizedMin());
+        // the dirty region spans the thumb's old and new positions
+        layout[0] = Math.min(oldX, newX);
+        layout[1] = Math.max(oldX, newX);
+        layoutFrame();
+        return layout;
+    }
+
+    /**
+     * One frame of panning the zoomed-in bar: the track layer and its waveform are rebuilt.
+     */
+    @Benchmark
+    public float[] panFrame() {
+        float dx = frame++ % (2 * DRAG_FRAMES) < DRAG_FRAMES ? 8f : -8f;
+        if (geometry.pan(dx)) {
+            waveformLines.build(waveform, geometry, HEIGHT);
+        }
+        layoutFrame();
+        return waveformLines.getLines();
+    }
+
+    /**
+     * @return The x-coordinate of the touch in the current frame of the script, sweeping across the bar and back.
+     */
+    private float scriptedX() {
+        int step = frame++ % (2 * DRAG_FRAMES);
+        float progress = step < DRAG_FRAMES ? step : 2 * DRAG_FRAMES - step;
+        return PADDING + progress / DRAG_FRAMES * (WIDTH - 2 * PADDING);
+    }
+
+    private void layoutFrame() {
+        float minX = geometry.normalizedToScreen(selection.getNormalizedMin());
+        float maxX = geometry.normalizedToScreen(selection.getNormalizedMax());
+        layout[2] = Math.max(PADDING, minX);
+        layout[3] = Math.min(WIDTH - PADDING, maxX);
+        layout[4] = geometry.normalizedToScreen(normalizedPlayhead);
+        layout[5] = minX;
+        layout[6] = maxX;
+        layout[7] = formatter.getLength();
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.itsmichaelwang.strumline.benchmarks;
+
+import com.github.itsmichaelwang.strumline.app.SeekBarGeometry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The value mapping a range seek bar does for every touch event and every thumb it draws, on a zoomed-in bar.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SeekBarGeometryBenchmark {
+
+    private static final int INPUTS = 1024;     // cycled through, so that results cannot be folded into constants
+    private static final int SONG_MS = 4 * 60 * 1000;
+
+    private final SeekBarGeometry geometry = new SeekBarGeometry(24f);
+    private final int[] values = new int[INPUTS];
+    private final double[] normalized = new double[INPUTS];
+    private final float[] screen = new float[INPUTS];
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        geometry.setWidth(1080);
+        geometry.zoomTo(0.4d, 0.125d);
+        Random random = new Random(1);
+        for (int i = 0; i < INPUTS; i++) {
+            values[i] = random.nextInt(SONG_MS);
+            normalized[i] = random.nextDouble();
+            screen[i] = random.nextFloat() * 1080f;
+        }
+    }
+
+    @Benchmark
+    public double valueToNormalized() {
+        return SeekBarGeometry.valueToNormalized(values[next++ & (INPUTS - 1)], 0, SONG_MS);
+    }
+
+    @Benchmark
+    public int normalizedToValue() {
+        return (int) Math.round(SeekBarGeometry.normalizedToValue(normalized[next++ & (INPUTS - 1)], 0, SONG_MS));
+    }
+
+    @Benchmark
+    public double screenToNormalized() {
+        return geometry.screenToNormalized(screen[next++ & (INPUTS - 1)]);
+    }
+
+    @Benchmark
+    public float normalizedToScreen() {
+        return geometry.normalizedToScreen(normalized[next++ & (INPUTS - 1)]);
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.itsmichaelwang.strumline.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Test signals for the benchmarks, from fixed seeds so that every run processes the same samples.
+ */
+final class Signals {
+
+    static final int SAMPLE_RATE = 44100;
+    static final int CHANNELS = 2;
+    static final int BLOCK_FRAMES = 1024;   // the block size of the engine's render loop
+
+    private Signals() {
+    }
+
+    /**
+     * @return Interleaved stereo frames of a 440 Hz tone with some noise on top, at about half of full scale.
+     */
+    static short[] music(int frames, long seed) {
+        Random random = new Random(seed);
+        short[] samples = new short[frames * CHANNELS];
+        for (int i = 0; i < frames; i++) {
+            double tone = Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE);
+            for (int c = 0; c < CHANNELS; c++) {
+                samples[i * CHANNELS + c] = (short) (12000 * tone + 4000 * random.nextGaussian());
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * @return The same as {@link #music(int, long)}, as floats in [-1, 1).
+     */
+    static float[] musicFloats(int frames, long seed) {
+        short[] samples = music(frames, seed);
+        float[] floats = new float[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            floats[i] = samples[i] / 32768f;
+        }
+        return floats;
+    }
+}
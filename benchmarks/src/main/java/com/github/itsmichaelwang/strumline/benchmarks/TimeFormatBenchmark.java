@@ -0,0 +1,45 @@
+package com.github.itsmichaelwang.strumline.benchmarks;
+
+import com.github.itsmichaelwang.strumline.app.TimeFormatter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The loop bound text updateLoopBounds() shows, formatted by {@link TimeFormatter} and, as a baseline, the way it was
+ * built before with String.format. The time changes on every call, so the formatter never gets to skip the work.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TimeFormatBenchmark {
+
+    private final TimeFormatter formatter = new TimeFormatter(true);
+    private long ms = 123456;
+
+    @Benchmark
+    public char[] timeFormatter() {
+        formatter.format(ms++);
+        return formatter.getChars();
+    }
+
+    @Benchmark
+    public String stringFormat() {
+        long time = ms++;
+        return TimeUnit.MILLISECONDS.toMinutes(time) + ":"
+                + String.format("%02d", TimeUnit.MILLISECONDS.toSeconds(time) % 60) + "."
+                + String.format("%03d", time % 1000);
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.itsmichaelwang.strumline.benchmarks;
+
+import com.github.itsmichaelwang.strumline.app.TimeStretcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One block of stereo frames through the {@link TimeStretcher}, at the slowest and fastest tempos the engine supports
+ * and in between. A block is 1024 frames, about 23220 microseconds of audio at 44.1 kHz, so the realtime factor of a
+ * tempo is 23220 divided by its score.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TimeStretcherBenchmark {
+
+    @Param({"0.25", "0.5", "0.75", "1.25", "1.5"})
+    public double tempo;
+
+    private TimeStretcher stretcher;
+    private float[] input;
+    private float[] output;
+
+    @Setup
+    public void setUp() {
+        stretcher = new TimeStretcher(Signals.SAMPLE_RATE, Signals.CHANNELS, Signals.BLOCK_FRAMES);
+        stretcher.setTempo(tempo);
+        input = Signals.musicFloats(Signals.BLOCK_FRAMES, 1);
+        output = new float[Signals.BLOCK_FRAMES * Signals.CHANNELS];
+    }
+
+    @Benchmark
+    public int stretchBlock() {
+        stretcher.put(input, Math.min(Signals.BLOCK_FRAMES, stretcher.getInputSpace()));
+        int total = 0;
+        int received;
+        while ((received = stretcher.receive(output, Signals.BLOCK_FRAMES)) > 0) {
+            total += received;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.itsmichaelwang.strumline.benchmarks;
+
+import com.github.itsmichaelwang.strumline.app.PcmMath;
+import com.github.itsmichaelwang.strumline.app.Resampler;
+import com.github.itsmichaelwang.strumline.app.TimeStretcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A second of stereo audio through the {@link TimeStretcher} and then the {@link Resampler}, block by block the way the
+ * engine renders it when the tempo or the pitch is changed, over the whole range of both. Each operation consumes a
+ * second of the track, so the score is the milliseconds of CPU time per second of audio processed, the same measure as
+ * {@link com.github.itsmichaelwang.strumline.app.LoopEngine#getDspCostMillisPerSecond()}; 1000 divided by it is the
+ * realtime factor.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TransposeStretchBenchmark {
+
+    @Param({"0.25", "0.5", "0.75", "1", "1.25", "1.5"})
+    public float tempo;
+
+    @Param({"-12", "-5", "0", "7", "12"})
+    public int semitones;
+
+    private TimeStretcher stretcher;
+    private Resampler resampler;
+    private short[] second;
+    private short[] buffer;
+    private float[] floatBuffer;
+
+    @Setup
+    public void setUp() {
+        // the pitch and the stretch that make up for it, as the engine sets them
+        double ratio = Math.pow(2, semitones / 12d);
+        float pitch = (float) Math.max(Resampler.MIN_RATIO, Math.min(Resampler.MAX_RATIO, ratio));
+        stretcher = new TimeStretcher(Signals.SAMPLE_RATE, Signals.CHANNELS, Signals.BLOCK_FRAMES);
+        resampler = new Resampler(Signals.CHANNELS, Signals.BLOCK_FRAMES);
+        stretcher.setTempo(tempo / pitch);
+        resampler.setRatio(pitch);
+        second = Signals.music(Signals.SAMPLE_RATE, 1);
+        buffer = new short[Signals.BLOCK_FRAMES * Signals.CHANNELS];
+        floatBuffer = new float[Signals.BLOCK_FRAMES * Signals.CHANNELS];
+    }
+
+    /**
+     * @return The number of frames played for the second of audio.
+     */
+    @Benchmark
+    public int processSecond() {
+        int channelCount = Signals.CHANNELS;
+        int consumed = 0;
+        int played = 0;
+        while (consumed < Signals.SAMPLE_RATE) {
+            int space = Math.min(Signals.BLOCK_FRAMES, stretcher.getInputSpace());
+            int read = Math.min(space, Signals.SAMPLE_RATE - consumed);
+            if (read > 0) {
+                System.arraycopy(second, consumed * channelCount, buffer, 0, read * channelCount);
+                PcmMath.toFloat(buffer, floatBuffer, read * channelCount);
+                stretcher.put(floatBuffer, read);
+                consumed += read;
+            }
+            int stretched = stretcher.receive(floatBuffer, Math.min(Signals.BLOCK_FRAMES, resampler.getInputSpace()));
+            resampler.put(floatBuffer, stretched);
+            int resampled = resampler.receive(floatBuffer, Signals.BLOCK_FRAMES);
+            PcmMath.toShort(floatBuffer, buffer, resampled * channelCount);
+            played += resampled;
+        }
+        return played;
+    }
+}
@@ -0,0 +1,227 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the bytes allocated by the paths that run for every touch event and every audio block, after a warm-up that
+ * lets the JIT settle, and requires them to be zero.<br />
+ * <br />
+ * The seek bars themselves are views and cannot be created on the desktop JVM, so the drag goes through the code they
+ * run per move event without the view: the thumb is moved by the bar's {@link RangeSelection}, its value is read as
+ * {@link IntRangeSeekBar} reads it, and the activity hands it to the {@link LoopController} and formats it with a
+ * {@link TimeFormatter}.
+ */
+public class AllocationTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int DURATION_MS = 240000;
+    private static final int WIDTH = 1080;
+    private static final int WARM_UP_EVENTS = 200000;
+    private static final int MEASURED_EVENTS = 100000;
+    private static final int WARM_UP_BLOCKS = 20000;
+    private static final int MEASURED_BLOCKS = 5000;
+
+    private com.sun.management.ThreadMXBean threads;
+    // what reading the counter costs by itself, taken off every measurement
+    private long overhead;
+
+    @Before
+    public void setUp() {
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assertTrue("allocation counting is not supported by this JVM", threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long id = Thread.currentThread().getId();
+        long first = threads.getThreadAllocatedBytes(id);
+        overhead = threads.getThreadAllocatedBytes(id) - first;
+    }
+
+    @Test
+    public void dragAllocatesNothingPerMoveEvent() {
+        LoopEngine engine = new LoopEngine(null);
+        engine.setDataSource(new SilentSource());
+        LoopController controller = new LoopController(engine);
+        controller.onSongLoaded();
+        SeekBarGeometry geometry = new SeekBarGeometry(20f);
+        geometry.setWidth(WIDTH);
+        geometry.zoomTo(0.3d, 0.1d);
+        RangeSelection selection = new RangeSelection(geometry);
+        selection.setBeatSnap(new BeatGrid(SAMPLE_RATE, (long) DURATION_MS * SAMPLE_RATE / 1000, 120f, beats(), 0),
+                false);
+        TimeFormatter formatter = new TimeFormatter(true);
+
+        drag(selection, controller, formatter, WARM_UP_EVENTS);
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        int changed = drag(selection, controller, formatter, MEASURED_EVENTS);
+        long allocated = threads.getThreadAllocatedBytes(id) - before - overhead;
+
+        assertTrue("the drag never moved the loop, which proves nothing", changed > 0);
+        assertEquals("bytes allocated by " + MEASURED_EVENTS + " move events", 0, allocated);
+    }
+
+    /**
+     * Renders blocks while the loop is moved under the render thread, and counts what the render thread allocates
+     * between two writes to the sink far apart, on the sink's write call itself.
+     */
+    @Test
+    public void renderLoopAllocatesNothingPerBlock() throws InterruptedException {
+        CountingSink sink = new CountingSink();
+        LoopEngine engine = new LoopEngine(sink);
+        engine.setDataSource(new SilentSource());
+        engine.setCrossfade(20);
+        engine.setLoopFrames(SAMPLE_RATE, 2 * SAMPLE_RATE);
+        engine.prepare();
+        engine.start();
+        for (int i = 0; sink.done.getCount() > 0 && i < 100000; i++) {
+            // drags of the whole loop, and a change of tempo halfway through the warm-up that starts the stretcher
+            long loopStart = SAMPLE_RATE + (i % 100) * 441;
+            engine.setLoopFrames(loopStart, loopStart + SAMPLE_RATE);
+            if (sink.blocks > WARM_UP_BLOCKS / 2) {
+                engine.setTempo(0.75f);
+            }
+            Thread.sleep(1);
+        }
+        boolean done = sink.done.await(60, TimeUnit.SECONDS);
+        engine.release();
+
+        assertTrue("the engine only wrote " + sink.blocks + " blocks", done);
+        assertEquals("bytes allocated by the render thread in " + MEASURED_BLOCKS + " blocks", 0, sink.allocated);
+    }
+
+    /**
+     * Drags the loop start back and forth across the bar, one move event per pixel.
+     *
+     * @return How many move events changed the loop start.
+     */
+    private static int drag(RangeSelection selection, LoopController controller, TimeFormatter formatter,
+            int events) {
+        int changed = 0;
+        for (int i = 0; i < events; i++) {
+            int step = i % (2 * WIDTH);
+            float x = step < WIDTH ? step : 2 * WIDTH - step;
+            selection.dragMin(x);
+            int loopStart = SeekBarGeometry.normalizedToInt(selection.getNormalizedMin(), 0, DURATION_MS);
+            int loopStop = SeekBarGeometry.normalizedToInt(selection.getNormalizedMax(), 0, DURATION_MS);
+            int previous = controller.getLoopStart();
+            controller.setLoopBounds(loopStart, loopStop);
+            if (formatter.format(controller.getLoopStart()) && controller.getLoopStart() != previous) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    private static long[] beats() {
+        // 120 bpm
+        long[] beats = new long[DURATION_MS / 500];
+        for (int i = 0; i < beats.length; i++) {
+            beats[i] = (long) i * SAMPLE_RATE / 2;
+        }
+        return beats;
+    }
+
+    /**
+     * Mono source of silence, as long as the test track.
+     */
+    private static class SilentSource implements PcmSource {
+
+        private long position = 0;
+
+        @Override
+        public int getSampleRate() {
+            return SAMPLE_RATE;
+        }
+
+        @Override
+        public int getChannelCount() {
+            return 1;
+        }
+
+        @Override
+        public long getFrameCount() {
+            return (long) DURATION_MS * SAMPLE_RATE / 1000;
+        }
+
+        @Override
+        public int read(short[] buffer, int frameOffset, int frames) {
+            if (position >= getFrameCount()) {
+                return -1;
+            }
+            int read = (int) Math.min(frames, getFrameCount() - position);
+            for (int i = 0; i < read; i++) {
+                buffer[frameOffset + i] = 0;
+            }
+            position += read;
+            return read;
+        }
+
+        @Override
+        public void seekTo(long frame) {
+            position = frame;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    /**
+     * Sink that plays whatever it is written right away, and reads the render thread's allocation counter on the writes
+     * that start and end the measurement.
+     */
+    private class CountingSink implements AudioSink {
+
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile int blocks = 0;
+        volatile long allocated = -1;
+        private volatile long written = 0;
+        private long before;
+
+        @Override
+        public void open(int sampleRate, int channelCount) {
+        }
+
+        @Override
+        public int write(short[] buffer, int frameOffset, int frames) {
+            int block = blocks;
+            if (block == WARM_UP_BLOCKS) {
+                before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            } else if (block == WARM_UP_BLOCKS + MEASURED_BLOCKS) {
+                allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before - overhead;
+                done.countDown();
+            }
+            blocks = block + 1;
+            written += frames;
+            return frames;
+        }
+
+        @Override
+        public void play() {
+        }
+
+        @Override
+        public void pause() {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public long getPlaybackFrame() {
+            return written;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
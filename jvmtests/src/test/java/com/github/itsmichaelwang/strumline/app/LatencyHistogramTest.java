@@ -0,0 +1,187 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link LatencyHistogram} buckets and percentiles, its binary form, and what a reader sees while the single writer
+ * records.
+ */
+public class LatencyHistogramTest {
+
+    private static final long HIGHEST = 10000000L;
+    private static final int WRITES = 5000000;
+
+    /**
+     * Records values one at a time and checks the bucket each lands in, as listed by writeCsv: it must hold the value,
+     * and be no wider than 1/64 of it.
+     */
+    @Test
+    public void bucketsHoldValuesToWithinTheirPrecision() {
+        for (long value = 0; value < HIGHEST; value = value < 1000 ? value + 1 : value + value / 97) {
+            for (long nearby = value - 1; nearby <= value + 1; nearby++) {
+                LatencyHistogram histogram = new LatencyHistogram(HIGHEST);
+                histogram.record(nearby);
+                long[] bucket = onlyBucket(histogram);
+                long recorded = Math.max(0, nearby);
+                assertTrue(recorded + " recorded in " + bucket[0] + ".." + bucket[1],
+                        bucket[0] <= recorded && recorded <= bucket[1]);
+                assertTrue("bucket " + bucket[0] + ".." + bucket[1] + " is too wide",
+                        bucket[1] - bucket[0] + 1 <= Math.max(1, recorded / 64));
+            }
+        }
+    }
+
+    @Test
+    public void countsValuesAboveTheHighestInTheLastBucket() {
+        LatencyHistogram histogram = new LatencyHistogram(HIGHEST);
+        histogram.record(HIGHEST);
+        long[] last = onlyBucket(histogram);
+        histogram = new LatencyHistogram(HIGHEST);
+        histogram.record(50 * HIGHEST);
+        long[] above = onlyBucket(histogram);
+        assertEquals(last[0], above[0]);
+        assertEquals(50 * HIGHEST, histogram.getMax());
+        assertEquals(50 * HIGHEST, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void percentilesAreAccurate() {
+        LatencyHistogram histogram = new LatencyHistogram(HIGHEST);
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(0, histogram.getMin());
+        for (long value = 1; value <= 100000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(100000, histogram.getTotalCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(100000, histogram.getMax());
+        assertEquals(50000.5, histogram.getMean(), 1e-9);
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(100000, histogram.getValueAtPercentile(100));
+        double[] percentiles = { 1, 10, 50, 90, 99, 99.9 };
+        for (double percentile : percentiles) {
+            long exact = (long) Math.ceil(percentile * 1000);
+            long value = histogram.getValueAtPercentile(percentile);
+            assertTrue("p" + percentile + " was " + value + " rather than " + exact,
+                    value >= exact && value - exact <= exact / 64);
+        }
+
+        histogram.reset();
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals("", csv(histogram));
+    }
+
+    @Test
+    public void roundTripsThroughItsBinaryForm() throws IOException {
+        LatencyHistogram histogram = new LatencyHistogram(HIGHEST);
+        for (long value = 0; value < 5000; value++) {
+            histogram.record(value * value % 123457);
+        }
+        histogram.record(20 * HIGHEST);
+        LatencyHistogram copy = roundTrip(histogram);
+
+        assertEquals(histogram.getTotalCount(), copy.getTotalCount());
+        assertEquals(histogram.getMin(), copy.getMin());
+        assertEquals(histogram.getMax(), copy.getMax());
+        assertEquals(histogram.getMean(), copy.getMean(), 0d);
+        for (double percentile = 0; percentile <= 100; percentile += 0.5) {
+            assertEquals("p" + percentile, histogram.getValueAtPercentile(percentile),
+                    copy.getValueAtPercentile(percentile));
+        }
+        assertEquals(csv(histogram), csv(copy));
+
+        LatencyHistogram empty = roundTrip(new LatencyHistogram(HIGHEST));
+        assertEquals(0, empty.getTotalCount());
+        assertEquals(0, empty.getMin());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherData() throws IOException {
+        LatencyHistogram.readFrom(new DataInputStream(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5, 6 })));
+    }
+
+    /**
+     * Reads the total count and then the buckets, through writeTo, while another thread records: since every value is
+     * stored in its bucket before the total, the buckets read afterwards must cover at least the total read before.
+     */
+    @Test
+    public void readerNeverSeesTotalsAheadOfTheBuckets() throws InterruptedException, IOException {
+        final LatencyHistogram histogram = new LatencyHistogram(HIGHEST);
+        final AtomicBoolean started = new AtomicBoolean(false);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                started.set(true);
+                for (int i = 0; i < WRITES; i++) {
+                    histogram.record(i % 20000);
+                }
+            }
+        });
+        writer.start();
+        while (!started.get()) {
+            Thread.yield();
+        }
+
+        int reads = 0;
+        int racing = 0;
+        while (writer.isAlive()) {
+            long total = histogram.getTotalCount();
+            LatencyHistogram snapshot = roundTrip(histogram);
+            long buckets = snapshot.getTotalCount();
+            assertTrue("buckets counted " + buckets + " of a total of " + total, buckets >= total);
+            assertTrue(snapshot.getValueAtPercentile(100) <= 20000);
+            reads++;
+            if (total > 0 && total < WRITES) {
+                racing++;
+            }
+        }
+        writer.join();
+
+        assertTrue("the reader never overlapped the writer", racing > 0);
+        assertEquals(WRITES, histogram.getTotalCount());
+        assertEquals(WRITES, roundTrip(histogram).getTotalCount());
+        assertEquals(19999, histogram.getMax());
+        assertTrue(reads > 0);
+    }
+
+    private static LatencyHistogram roundTrip(LatencyHistogram histogram) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        histogram.writeTo(out);
+        out.flush();
+        return LatencyHistogram.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private static String csv(LatencyHistogram histogram) {
+        StringWriter csv = new StringWriter();
+        PrintWriter out = new PrintWriter(csv);
+        histogram.writeCsv(out, "h");
+        out.flush();
+        return csv.toString();
+    }
+
+    /**
+     * @return The lowest and highest value of the only non-empty bucket.
+     */
+    private static long[] onlyBucket(LatencyHistogram histogram) {
+        String[] lines = csv(histogram).trim().split("\n");
+        assertEquals(1, lines.length);
+        String[] fields = lines[0].trim().split(",");
+        assertEquals("1", fields[3]);
+        return new long[] { Long.parseLong(fields[1]), Long.parseLong(fields[2]) };
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link LoopBounds} packing, and that the {@link LoopEngine}'s render thread cannot read a loop start and stop that
+ * were never set together.
+ */
+public class LoopBoundsTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int WRITES = 5000000;
+
+    @Test
+    public void packsStartAndStop() {
+        long bounds = LoopBounds.pack(123456789L, 987654321L);
+        assertEquals(123456789L, LoopBounds.start(bounds));
+        assertEquals(987654321L, LoopBounds.stop(bounds));
+        bounds = LoopBounds.pack(0, LoopBounds.UNBOUNDED);
+        assertEquals(0, LoopBounds.start(bounds));
+        assertEquals(LoopBounds.UNBOUNDED, LoopBounds.stop(bounds));
+        // past what fits in 32 bits, the stop is unbounded rather than wrapped
+        assertEquals(LoopBounds.UNBOUNDED, LoopBounds.stop(LoopBounds.pack(0, 1L << 40)));
+        assertEquals(0, LoopBounds.start(LoopBounds.pack(-5, 10)));
+    }
+
+    /**
+     * Moves loop bounds that belong together from one thread while another reads them the way the render thread does,
+     * as one packed value, and counts the pairs read that were never set together.
+     */
+    @Test
+    public void renderThreadNeverReadsTornBounds() throws InterruptedException {
+        // the engine is never prepared, so it needs no sink
+        final LoopEngine engine = new LoopEngine(null);
+        final long length = 10L * SAMPLE_RATE;
+        final long step = SAMPLE_RATE / 10;
+        engine.setLoopFrames(0, length);
+        final AtomicBoolean started = new AtomicBoolean(false);
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final long[] counts = new long[3];      // reads, changes seen and torn pairs
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long previous = engine.getLoopBounds();
+                started.set(true);
+                while (true) {
+                    boolean last = done.get();
+                    long bounds = engine.getLoopBounds();
+                    counts[0]++;
+                    if (bounds != previous) {
+                        counts[1]++;
+                        previous = bounds;
+                    }
+                    if (LoopBounds.stop(bounds) - LoopBounds.start(bounds) != length) {
+                        counts[2]++;
+                    }
+                    if (last) {
+                        return;
+                    }
+                }
+            }
+        }, "LoopBoundsTest reader");
+        reader.start();
+        while (!started.get()) {
+            // let the reader get going first, or the writes may be over before it reads anything
+            Thread.yield();
+        }
+        for (int i = 0; i < WRITES; i++) {
+            // a drag of the whole loop: both bounds move, and the length stays the same
+            long loopStart = (i % 1000) * step;
+            engine.setLoopFrames(loopStart, loopStart + length);
+        }
+        done.set(true);
+        reader.join();
+
+        // the reader's counts are visible here, since it was joined
+        assertTrue("the reader never saw the loop bounds move, which proves nothing", counts[1] > 0);
+        assertEquals("torn pairs in " + counts[0] + " reads", 0, counts[2]);
+    }
+}
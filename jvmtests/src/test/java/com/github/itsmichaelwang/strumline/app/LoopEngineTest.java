@@ -0,0 +1,157 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loops a ramp through the {@link LoopEngine} into a sink that records what it is given, and checks the wrap frame by
+ * frame: the frame after stop - 1 must be the loop start, and no frame at or past the stop may ever be written.
+ */
+public class LoopEngineTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    // short enough for every frame index to fit in a sample
+    private static final int FRAME_COUNT = 30000;
+    // neither bound nor the length falls on a block boundary, so the wrap happens in the middle of a block
+    private static final long LOOP_START = 5000;
+    private static final long LOOP_STOP = 12345;
+    private static final int RECORDED_FRAMES = 100000;
+
+    @Test
+    public void wrapsSampleExactly() throws InterruptedException {
+        RecordingSink sink = new RecordingSink(RECORDED_FRAMES);
+        LoopStats stats = new LoopStats();
+        LoopEngine engine = new LoopEngine(sink);
+        engine.setStats(stats);
+        engine.setDataSource(new RampSource());
+        engine.setLoopFrames(LOOP_START, LOOP_STOP);
+        engine.prepare();
+        engine.start();
+        boolean full = sink.full.await(10, TimeUnit.SECONDS);
+        engine.release();
+        assertTrue("the engine only wrote " + sink.recorded + " frames", full);
+
+        short[] frames = sink.frames;
+        assertEquals(LOOP_START, frames[0]);
+        int wraps = 0;
+        for (int i = 0; i < RECORDED_FRAMES; i++) {
+            assertTrue("frame " + frames[i] + " written at " + i + " is outside of the loop",
+                    frames[i] >= LOOP_START && frames[i] < LOOP_STOP);
+            if (i + 1 == RECORDED_FRAMES) {
+                break;
+            }
+            if (frames[i] == LOOP_STOP - 1) {
+                assertEquals("frame written after the loop stop at " + i, LOOP_START, frames[i + 1]);
+                wraps++;
+            } else {
+                assertEquals("frame written at " + (i + 1), frames[i] + 1, frames[i + 1]);
+            }
+        }
+        assertEquals(RECORDED_FRAMES / (LOOP_STOP - LOOP_START), wraps);
+        assertTrue(stats.getOvershoot().getTotalCount() >= wraps);
+        assertEquals(0, stats.getOvershoot().getMax());
+    }
+
+    /**
+     * Mono source whose every sample is its own frame index.
+     */
+    private static class RampSource implements PcmSource {
+
+        private long position = 0;
+
+        @Override
+        public int getSampleRate() {
+            return SAMPLE_RATE;
+        }
+
+        @Override
+        public int getChannelCount() {
+            return 1;
+        }
+
+        @Override
+        public long getFrameCount() {
+            return FRAME_COUNT;
+        }
+
+        @Override
+        public int read(short[] buffer, int frameOffset, int frames) {
+            if (position >= FRAME_COUNT) {
+                return -1;
+            }
+            int read = (int) Math.min(frames, FRAME_COUNT - position);
+            for (int i = 0; i < read; i++) {
+                buffer[frameOffset + i] = (short) (position + i);
+            }
+            position += read;
+            return read;
+        }
+
+        @Override
+        public void seekTo(long frame) {
+            position = frame;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    /**
+     * Mono sink that keeps the first frames written to it, and plays them the moment they are written.
+     */
+    private static class RecordingSink implements AudioSink {
+
+        final short[] frames;
+        final CountDownLatch full = new CountDownLatch(1);
+        volatile int recorded = 0;
+        private volatile long written = 0;
+
+        RecordingSink(int capacity) {
+            frames = new short[capacity];
+        }
+
+        @Override
+        public void open(int sampleRate, int channelCount) {
+            assertEquals(1, channelCount);
+        }
+
+        @Override
+        public int write(short[] buffer, int frameOffset, int frameCount) {
+            int count = Math.min(frameCount, frames.length - recorded);
+            System.arraycopy(buffer, frameOffset, frames, recorded, count);
+            recorded += count;
+            if (recorded == frames.length) {
+                full.countDown();
+            }
+            written += frameCount;
+            return frameCount;
+        }
+
+        @Override
+        public void play() {
+        }
+
+        @Override
+        public void pause() {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public long getPlaybackFrame() {
+            return written;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+/**
+ * The {@link LoopLibrary}'s log across reopening: what a crash in the middle of an append leaves behind, tombstones,
+ * compaction, ids and the order loops are listed in.
+ */
+public class LoopLibraryTest {
+
+    private static final String TRACK = "track";
+    private static final String OTHER_TRACK = "other track";
+    private static final int SAMPLE_RATE = 44100;
+
+    private File directory;
+    private File file;
+    private LoopLibrary library;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("loops", "");
+        directory.delete();
+        file = new File(directory, "loops.log");
+        library = new LoopLibrary(file);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        library.close();
+        for (File child : directory.listFiles()) {
+            child.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void keepsLoopsAcrossReopening() throws IOException {
+        SavedLoop saved = library.save(TRACK, "verse", 12345, 67890, SAMPLE_RATE, 0.75f, -2, 15, "slow");
+        reopen();
+
+        SavedLoop loop = library.getLoop(saved.getId());
+        assertEquals(TRACK, loop.getFingerprint());
+        assertEquals("verse", loop.getName());
+        assertEquals(12345, loop.getLoopStartFrame());
+        assertEquals(67890, loop.getLoopStopFrame());
+        assertEquals(SAMPLE_RATE, loop.getSampleRate());
+        assertEquals(0.75f, loop.getTempo(), 0f);
+        assertEquals(-2, loop.getSemitones());
+        assertEquals(15, loop.getCents());
+        assertEquals("slow", loop.getNotes());
+        assertEquals(saved.getSavedAt(), loop.getSavedAt());
+    }
+
+    @Test
+    public void cutsOffTornTailRecord() throws IOException {
+        save(TRACK, 1000);
+        save(TRACK, 2000);
+        long intact = file.length();
+        save(TRACK, 3000);
+        library.close();
+        // the process died halfway through writing the last record
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 5);
+        raf.close();
+
+        library = new LoopLibrary(file);
+        assertEquals(2, library.getLoopCount());
+        assertEquals(intact, file.length());
+        // appending goes on where the intact records end
+        SavedLoop loop = save(TRACK, 4000);
+        reopen();
+        assertEquals(3, library.getLoopCount());
+        assertEquals(4000, library.getLoop(loop.getId()).getLoopStartFrame());
+    }
+
+    @Test
+    public void tombstonesDeleteAcrossReopening() throws IOException {
+        SavedLoop deleted = save(TRACK, 1000);
+        SavedLoop kept = save(TRACK, 2000);
+        assertTrue(library.delete(deleted.getId()));
+        assertNull(library.getLoop(deleted.getId()));
+        reopen();
+
+        assertNull(library.getLoop(deleted.getId()));
+        assertEquals(kept.getId(), library.getLoop(kept.getId()).getId());
+        assertEquals(1, library.getLoopCount());
+        assertFalse(library.delete(deleted.getId()));
+        // deleting the last loop of a track forgets the track
+        assertTrue(library.delete(kept.getId()));
+        assertEquals(0, library.getTrackCount());
+        assertTrue(library.getLoops(TRACK).isEmpty());
+    }
+
+    @Test
+    public void compactsOnceMostRecordsAreDead() throws IOException {
+        SavedLoop[] loops = new SavedLoop[200];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = save(TRACK, i * 1000);
+        }
+        // every delete leaves a dead record and a tombstone, so the 128th makes 256 dead records against 72 live ones
+        for (int i = 0; i < 127; i++) {
+            library.delete(loops[i].getId());
+        }
+        long uncompacted = file.length();
+        library.delete(loops[127].getId());
+        assertTrue("the log was not compacted", file.length() < uncompacted / 2);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        // the compacted log is the live loops, and still takes appends
+        SavedLoop appended = save(TRACK, 1);
+        reopen();
+        assertEquals(73, library.getLoopCount());
+        assertNull(library.getLoop(loops[0].getId()));
+        assertEquals(loops[128].getLoopStartFrame(), library.getLoop(loops[128].getId()).getLoopStartFrame());
+        assertEquals(1, library.getLoop(appended.getId()).getLoopStartFrame());
+    }
+
+    @Test
+    public void neverReusesIdsAfterReopening() throws IOException {
+        save(TRACK, 1000);
+        SavedLoop last = save(TRACK, 2000);
+        library.delete(last.getId());
+        reopen();
+
+        // the id of the deleted loop is still taken by its records
+        assertEquals(last.getId() + 1, save(TRACK, 3000).getId());
+    }
+
+    @Test
+    public void listsLoopsOfEachTrackByStart() throws IOException {
+        SavedLoop third = save(TRACK, 3 * SAMPLE_RATE);
+        SavedLoop first = save(TRACK, SAMPLE_RATE);
+        save(OTHER_TRACK, 0);
+        // the same second, counted at another sample rate, and then a tie broken by id
+        SavedLoop second = library.save(TRACK, "", 96000, 192000, 48000, 1f, 0, 0, "");
+        SavedLoop alsoSecond = save(TRACK, 2 * SAMPLE_RATE);
+        assertOrder(library.getLoops(TRACK), first, second, alsoSecond, third);
+        assertEquals(1, library.getLoops(OTHER_TRACK).size());
+
+        reopen();
+        assertOrder(library.getLoops(TRACK), first, second, alsoSecond, third);
+        assertEquals(2, library.getTrackCount());
+    }
+
+    private SavedLoop save(String fingerprint, long loopStart) throws IOException {
+        return library.save(fingerprint, "", loopStart, loopStart + SAMPLE_RATE, SAMPLE_RATE, 1f, 0, 0, "");
+    }
+
+    private void reopen() throws IOException {
+        library.close();
+        library = new LoopLibrary(file);
+    }
+
+    private static void assertOrder(List<SavedLoop> loops, SavedLoop... expected) {
+        assertEquals(expected.length, loops.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("id of loop " + i, expected[i].getId(), loops.get(i).getId());
+        }
+    }
+}
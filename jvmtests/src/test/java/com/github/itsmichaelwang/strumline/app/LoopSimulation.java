@@ -0,0 +1,257 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Headless stress harness for the {@link LoopController}, run by {@link LoopSimulationTest}; for longer runs, run it
+ * with {@code java com.github.itsmichaelwang.strumline.app.LoopSimulation [sessions] [seed]}.<br />
+ * <br />
+ * Each session drives a controller over a {@link SimulatedTransport} on a {@link VirtualClock} with a random script of
+ * what users do to it: drag storms on the loop thumbs, rapid loop start and stop sets at the playback position, play
+ * and pause, the app going to the background and back, and song switches, some of which leave a seek of the previous
+ * song to complete late. The same seed gives the same sessions. After every step the invariants below are checked, and
+ * at the end of a session, once everything has settled, that the last seek requested was carried out:
+ * <ul>
+ * <li>the transport's loop is never empty;</li>
+ * <li>there is never more than one seek in flight, which is what the {@link SeekCoalescer} promises;</li>
+ * <li>the transport plays exactly when the user has not paused it, unless the app is in the background.</li>
+ * </ul>
+ */
+public class LoopSimulation {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int MIN_SONG_MS = 30000;
+    private static final int MAX_SONG_MS = 600000;
+    private static final long SEEK_LATENCY_MS = 40;
+    private static final int STEPS_PER_SESSION = 200;
+    private static final int DRAG_FRAME_MS = 16;        // a drag reports at most once per display frame
+    private static final int MAX_REPORTED_FAILURES = 20;
+
+    /**
+     * Totals over a number of sessions.
+     */
+    public static class Result {
+        private long sessions = 0;
+        private long operations = 0;
+        private long virtualMillis = 0;
+        private long wallNanos = 0;
+        private long seeksRequested = 0;
+        private long seeksExecuted = 0;
+        private long failureCount = 0;
+        private final List<String> failures = new ArrayList<String>();
+
+        public long getSessions() {
+            return sessions;
+        }
+
+        public long getOperations() {
+            return operations;
+        }
+
+        /**
+         * @return The number of failed checks; only the first few are kept in {@link #getFailures()}.
+         */
+        public long getFailureCount() {
+            return failureCount;
+        }
+
+        public List<String> getFailures() {
+            return failures;
+        }
+
+        public double getOperationsPerSecond() {
+            return wallNanos == 0 ? 0 : operations * 1e9 / wallNanos;
+        }
+
+        /**
+         * @return How much faster than realtime the sessions ran.
+         */
+        public double getSpeedup() {
+            return wallNanos == 0 ? 0 : virtualMillis * 1e6 / wallNanos;
+        }
+
+        /**
+         * @return The fraction of the seeks asked of the controller that reached the transport.
+         */
+        public double getSeekRatio() {
+            return seeksRequested == 0 ? 0 : (double) seeksExecuted / seeksRequested;
+        }
+
+        private void fail(long session, long time, String message) {
+            failureCount++;
+            if (failures.size() < MAX_REPORTED_FAILURES) {
+                failures.add("session " + session + " at " + time + " ms: " + message);
+            }
+        }
+    }
+
+    /**
+     * Runs the given number of sessions, each from its own seed derived from the given one.
+     */
+    public static Result run(int sessions, long seed) {
+        Result result = new Result();
+        long start = System.nanoTime();
+        for (int session = 0; session < sessions; session++) {
+            new Session(result, session, seed * 31 + session).run();
+            result.sessions++;
+        }
+        result.wallNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    public static void main(String[] args) {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        Result result = run(sessions, seed);
+        System.out.println("sessions: " + result.getSessions() + ", operations: " + result.getOperations()
+                + ", operations/s: " + Math.round(result.getOperationsPerSecond())
+                + ", speedup over realtime: " + Math.round(result.getSpeedup()) + "x"
+                + ", seeks executed/requested: " + String.format("%.3f", result.getSeekRatio()));
+        for (String failure : result.getFailures()) {
+            System.out.println("FAIL " + failure);
+        }
+        System.out.println(result.getFailureCount() + " failed checks");
+        if (result.getFailureCount() > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * One scripted session: a controller, its transport and clock, and the random script.
+     */
+    private static class Session {
+        private final Result result;
+        private final long session;
+        private final Random random;
+        private final VirtualClock clock = new VirtualClock();
+        private final SimulatedTransport transport;
+        private final LoopController controller;
+        private int songMs;
+        private boolean inBackground = false;
+        private long overlappingSeeks = 0;
+
+        Session(Result result, long session, long seed) {
+            this.result = result;
+            this.session = session;
+            random = new Random(seed);
+            songMs = randomSongMs();
+            transport = new SimulatedTransport(clock, SAMPLE_RATE, (long) songMs * SAMPLE_RATE / 1000, SEEK_LATENCY_MS);
+            controller = new LoopController(transport);
+        }
+
+        void run() {
+            controller.onSongLoaded();
+            controller.setLoopBounds(0, songMs);
+            for (int step = 0; step < STEPS_PER_SESSION; step++) {
+                runStep();
+                check();
+                clock.advance(random.nextInt(100));
+            }
+            if (inBackground) {
+                inBackground = false;
+                controller.onResume();
+            }
+
+            // once everything has settled, the last seek asked for must have been carried out
+            clock.advance(10 * SEEK_LATENCY_MS);
+            check();
+            if (controller.getSeekCoalescer().isInFlight() || transport.isSeekPending()) {
+                result.fail(session, clock.now(), "seek still in flight after settling");
+            }
+            if (transport.getLastSeek() >= 0 && transport.getLastSeek() != controller.getLoopStart()) {
+                result.fail(session, clock.now(), "last seek went to " + transport.getLastSeek() + " ms, the loop starts at "
+                        + controller.getLoopStart() + " ms");
+            }
+            result.virtualMillis += clock.now();
+            result.seeksRequested += controller.getSeekCoalescer().getRequestedSeeks();
+            result.seeksExecuted += transport.getSeeksRequested();
+        }
+
+        private void runStep() {
+            int action = random.nextInt(100);
+            if (action < 40) {
+                dragStorm();
+            } else if (action < 60) {
+                // rapid sets at the playback position, as fast as the buttons can be tapped
+                int taps = 1 + random.nextInt(6);
+                for (int i = 0; i < taps; i++) {
+                    if (random.nextBoolean()) {
+                        controller.setLoopStartFrame(transport.getCurrentFrame());
+                    } else {
+                        controller.setLoopStopFrame(transport.getCurrentFrame());
+                    }
+                    result.operations++;
+                    check();
+                    clock.advance(random.nextInt(3 * DRAG_FRAME_MS));
+                }
+            } else if (action < 75) {
+                if (!inBackground) {
+                    controller.togglePlayPause();
+                    result.operations++;
+                }
+            } else if (action < 90) {
+                inBackground = !inBackground;
+                if (inBackground) {
+                    controller.onPause();
+                } else {
+                    controller.onResume();
+                }
+                result.operations++;
+            } else {
+                switchSong();
+            }
+        }
+
+        private void dragStorm() {
+            boolean dragStart = random.nextBoolean();
+            int frames = 10 + random.nextInt(120);
+            int velocity = random.nextInt(2000) - 1000;     // ms of song per second of dragging
+            for (int i = 0; i < frames; i++) {
+                int loopStart = controller.getLoopStart();
+                int loopStop = controller.getLoopStop();
+                int delta = velocity * DRAG_FRAME_MS / 1000 + random.nextInt(21) - 10;
+                if (dragStart) {
+                    loopStart = Math.max(0, Math.min(loopStop, loopStart + delta));
+                } else {
+                    loopStop = Math.max(loopStart, Math.min(songMs, loopStop + delta));
+                }
+                controller.setLoopBounds(loopStart, loopStop);
+                result.operations++;
+                check();
+                clock.advance(DRAG_FRAME_MS);
+            }
+        }
+
+        private void switchSong() {
+            songMs = randomSongMs();
+            transport.reset((long) songMs * SAMPLE_RATE / 1000, random.nextBoolean());
+            controller.onSongLoaded();
+            controller.setLoopBounds(0, songMs);
+            if (inBackground) {
+                controller.onPause();
+            }
+            result.operations++;
+        }
+
+        private void check() {
+            if (transport.getLoopStartFrame() < 0 || transport.getLoopStopFrame() <= transport.getLoopStartFrame()) {
+                result.fail(session, clock.now(), "empty loop " + transport.getLoopStartFrame() + ".."
+                        + transport.getLoopStopFrame());
+            }
+            if (transport.getOverlappingSeeks() > overlappingSeeks) {
+                overlappingSeeks = transport.getOverlappingSeeks();
+                result.fail(session, clock.now(), "seek requested while another was pending");
+            }
+            if (!inBackground && transport.isPlaying() == controller.isPaused()) {
+                result.fail(session, clock.now(), "transport " + (transport.isPlaying() ? "playing" : "paused")
+                        + " but the user " + (controller.isPaused() ? "paused it" : "did not pause it"));
+            }
+        }
+
+        private int randomSongMs() {
+            return MIN_SONG_MS + random.nextInt(MAX_SONG_MS - MIN_SONG_MS);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Runs {@link LoopSimulation} and fails on any broken invariant of the {@link LoopController}.
+ */
+public class LoopSimulationTest {
+
+    private static final int SESSIONS = 2000;
+
+    @Test
+    public void controllerKeepsItsInvariants() {
+        LoopSimulation.Result result = LoopSimulation.run(SESSIONS, 1);
+        assertEquals("failed checks, the first ones: " + result.getFailures(), 0, result.getFailureCount());
+        assertEquals(SESSIONS, result.getSessions());
+    }
+
+    @Test
+    public void dragsAreCoalesced() {
+        LoopSimulation.Result result = LoopSimulation.run(SESSIONS, 2);
+        // drag storms ask for far more seeks than are carried out
+        assertTrue("seeks executed/requested: " + result.getSeekRatio(), result.getSeekRatio() < 0.9);
+    }
+}
@@ -0,0 +1,213 @@
+package com.github.itsmichaelwang.strumline.app;
+
+/**
+ * {@link Transport} that plays on a {@link VirtualClock} instead of a sound card, for {@link LoopSimulation}. The
+ * position advances with the clock while playing and wraps at the loop stop like the {@link LoopEngine} does, and seeks
+ * complete after a fixed latency; a seek requested while another is still pending replaces it, as in the engine.<br />
+ * <br />
+ * It also keeps the figures the simulation checks: seeks requested while another was still pending, which the
+ * {@link SeekCoalescer} should never let happen, and the last seek carried out.
+ */
+public class SimulatedTransport implements Transport {
+
+    private final VirtualClock clock;
+    private final int sampleRate;
+    private final long seekLatencyMs;
+    private OnSeekCompleteListener listener = null;
+
+    private long frameCount;
+    private boolean playing = false;
+    private long loopStartFrame = 0;
+    private long loopStopFrame;
+    private long anchorFrame = 0;       // the frame playing at anchorTime, from which the position is extrapolated
+    private long anchorTime = 0;
+    private int pendingSeek = -1;
+    private long pendingSeekNumber;
+    private long seekCount = 0;
+    private int generation = 0;         // bumped on reset, so that seeks of the previous song can be told apart
+    private long staleSeek = -1;        // the number of a seek of the previous song that will still complete, or -1
+    private int staleGeneration;
+
+    // Statistics
+    private long seeksRequested = 0;
+    private long seeksExecuted = 0;
+    private long overlappingSeeks = 0;
+    private int lastSeek = -1;          // the target of the last seek carried out since the last reset, or -1
+
+    /**
+     * @param seekLatencyMs
+     *            How long a seek takes to be carried out, in milliseconds of the clock.
+     */
+    public SimulatedTransport(VirtualClock clock, int sampleRate, long frameCount, long seekLatencyMs) {
+        this.clock = clock;
+        this.sampleRate = sampleRate;
+        this.seekLatencyMs = seekLatencyMs;
+        this.frameCount = frameCount;
+        loopStopFrame = frameCount;
+    }
+
+    /**
+     * Switches to a new song of the given length, stopped at its start with the loop spanning all of it.
+     *
+     * @param completeStaleSeek
+     *            Whether a seek pending for the previous song still completes, as it does when the engine's render
+     *            thread had already taken it on when it was reset.
+     */
+    public void reset(long frameCount, boolean completeStaleSeek) {
+        this.frameCount = frameCount;
+        playing = false;
+        loopStartFrame = 0;
+        loopStopFrame = frameCount;
+        anchorFrame = 0;
+        anchorTime = clock.now();
+        lastSeek = -1;
+        staleSeek = completeStaleSeek && pendingSeek >= 0 ? pendingSeekNumber : -1;
+        staleGeneration = generation;
+        pendingSeek = -1;
+        generation++;
+    }
+
+    @Override
+    public void start() {
+        settle();
+        playing = true;
+    }
+
+    @Override
+    public void pause() {
+        settle();
+        playing = false;
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    @Override
+    public long seekTo(int msec) {
+        seeksRequested++;
+        pendingSeekNumber = ++seekCount;
+        if (pendingSeek >= 0) {
+            overlappingSeeks++;
+            pendingSeek = msec;
+            return pendingSeekNumber;
+        }
+        pendingSeek = msec;
+        final int seekGeneration = generation;
+        clock.schedule(seekLatencyMs, new Runnable() {
+            @Override
+            public void run() {
+                completeSeek(seekGeneration);
+            }
+        });
+        return pendingSeekNumber;
+    }
+
+    @Override
+    public void setLoopBounds(int loopStart, int loopStop) {
+        setLoopFrames(msToFrames(loopStart), msToFrames(loopStop));
+    }
+
+    @Override
+    public void setLoopFrames(long loopStart, long loopStop) {
+        settle();
+        loopStartFrame = Math.max(0, loopStart);
+        loopStopFrame = Math.max(loopStop, loopStartFrame + LoopEngine.MIN_LOOP_FRAMES);
+    }
+
+    @Override
+    public long getLoopStartFrame() {
+        return loopStartFrame;
+    }
+
+    @Override
+    public long getLoopStopFrame() {
+        return loopStopFrame;
+    }
+
+    @Override
+    public long getCurrentFrame() {
+        settle();
+        return anchorFrame;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public void setOnSeekCompleteListener(OnSeekCompleteListener listener) {
+        this.listener = listener;
+    }
+
+    public boolean isSeekPending() {
+        return pendingSeek >= 0;
+    }
+
+    /**
+     * @return The target of the last seek carried out since the last reset, or -1 if there was none.
+     */
+    public int getLastSeek() {
+        return lastSeek;
+    }
+
+    public long getSeeksRequested() {
+        return seeksRequested;
+    }
+
+    public long getSeeksExecuted() {
+        return seeksExecuted;
+    }
+
+    /**
+     * @return The number of seeks requested while another one was still pending.
+     */
+    public long getOverlappingSeeks() {
+        return overlappingSeeks;
+    }
+
+    private void completeSeek(int seekGeneration) {
+        long seek;
+        if (seekGeneration == generation && pendingSeek >= 0) {
+            seek = pendingSeekNumber;
+            settle();
+            anchorFrame = msToFrames(pendingSeek);
+            lastSeek = pendingSeek;
+            pendingSeek = -1;
+        } else if (seekGeneration == staleGeneration && staleSeek >= 0) {
+            // carried out on the previous song, so it does not move this one, but it is still reported
+            seek = staleSeek;
+            staleSeek = -1;
+        } else {
+            return;
+        }
+        seeksExecuted++;
+        if (listener != null) {
+            listener.onSeekComplete(this, seek);
+        }
+    }
+
+    /**
+     * Brings the position up to the clock's time, wrapping it into the loop like the engine does.
+     */
+    private void settle() {
+        long now = clock.now();
+        long stop = Math.min(loopStopFrame, frameCount);
+        if (playing) {
+            if (anchorFrame < loopStartFrame || anchorFrame >= stop) {
+                anchorFrame = loopStartFrame;
+            }
+            anchorFrame += (now - anchorTime) * sampleRate / 1000;
+            if (anchorFrame >= stop && stop > loopStartFrame) {
+                anchorFrame = loopStartFrame + (anchorFrame - stop) % (stop - loopStartFrame);
+            }
+        }
+        anchorTime = now;
+    }
+
+    private long msToFrames(int msec) {
+        return (long) msec * sampleRate / 1000;
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.itsmichaelwang.strumline.app;
+
+import java.util.PriorityQueue;
+
+/**
+ * Simulated time for {@link LoopSimulation}: tasks are scheduled at virtual times and run, in order, as the clock is
+ * advanced, on the thread that advances it. Tasks due at the same time run in the order they were scheduled, so a
+ * simulation is deterministic and runs as fast as the tasks allow.
+ */
+public class VirtualClock {
+
+    private static class Task implements Comparable<Task> {
+        final long time;
+        final long sequence;
+        final Runnable runnable;
+
+        Task(long time, long sequence, Runnable runnable) {
+            this.time = time;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (time != other.time) {
+                return time < other.time ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : sequence > other.sequence ? 1 : 0;
+        }
+    }
+
+    private final PriorityQueue<Task> tasks = new PriorityQueue<Task>();
+    private long now = 0;
+    private long sequence = 0;
+
+    /**
+     * @return The current virtual time, in milliseconds.
+     */
+    public long now() {
+        return now;
+    }
+
+    /**
+     * Runs the given task once the clock has advanced by the given delay.
+     */
+    public void schedule(long delayMs, Runnable runnable) {
+        tasks.add(new Task(now + Math.max(0, delayMs), sequence++, runnable));
+    }
+
+    /**
+     * Moves the clock forward, running the tasks that fall due on the way at their own times.
+     */
+    public void advance(long ms) {
+        long target = now + Math.max(0, ms);
+        while (!tasks.isEmpty() && tasks.peek().time <= target) {
+            Task task = tasks.poll();
+            now = task.time;
+            task.runnable.run();
+        }
+        now = target;
+    }
+
+    /**
+     * @return The number of tasks that have not run yet.
+     */
+    public int getPendingTasks() {
+        return tasks.size();
+    }
+}